@@ -0,0 +1,96 @@
+package dev.sb.services.benchmark;
+
+import dev.sb.services.signing.KeyTool;
+import dev.sb.services.signing.OpenSSLKeyTool;
+import dev.sb.services.signing.SecretKeyTool;
+import dev.sb.services.signing.SigningAlgorithm;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.yaml.snakeyaml.Yaml;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+import java.security.PrivateKey;
+import java.security.SecureRandom;
+import java.security.Security;
+import java.security.cert.X509Certificate;
+import java.util.Base64;
+import java.util.Map;
+
+/** Key material for benchmarks */
+final class BenchmarkKeys {
+
+    private BenchmarkKeys() {
+    }
+
+    /** Generated RSA-2048 key */
+    static KeyTool generatedKeyTool() {
+        return generatedKeyTool(SigningAlgorithm.RSA_SHA256);
+    }
+
+    /** Generated RSA-2048, P-256 or Ed25519 key, or 256 bit HMAC secret */
+    static KeyTool generatedKeyTool(SigningAlgorithm algorithm) {
+        if (algorithm == SigningAlgorithm.HMAC_SHA256) {
+            byte[] secret = new byte[32];
+            new SecureRandom().nextBytes(secret);
+            return new SecretKeyTool(Base64.getEncoder().encodeToString(secret), "BENCHMARK");
+        }
+
+        Security.addProvider(new BouncyCastleProvider());
+        try {
+            KeyPairGenerator generator;
+            switch (algorithm) {
+                case ECDSA_SHA256:
+                    generator = KeyPairGenerator.getInstance("EC");
+                    generator.initialize(256);
+                    break;
+                case ED25519:
+                    generator = KeyPairGenerator.getInstance("Ed25519");
+                    break;
+                default:
+                    generator = KeyPairGenerator.getInstance("RSA");
+                    generator.initialize(2048);
+            }
+            KeyPair keyPair = generator.generateKeyPair();
+            return new KeyTool() {
+                @Override
+                public PrivateKey readPrivateKey() {
+                    return keyPair.getPrivate();
+                }
+
+                @Override
+                public String readPrivateKeyId() {
+                    return "BENCHMARK";
+                }
+
+                @Override
+                public X509Certificate readX509Certificate() {
+                    return null;
+                }
+            };
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /** Signing properties of 'test' profile: encrypted PEM key, password, key ID and certificate */
+    @SuppressWarnings("unchecked")
+    static Map<String, String> testProfileSigningProperties() {
+        Security.addProvider(new BouncyCastleProvider());
+        try (InputStream in = BenchmarkKeys.class.getResourceAsStream("/application-test.yaml")) {
+            Map<String, Object> yaml = new Yaml().load(in);
+            Map<String, Object> application = (Map<String, Object>) yaml.get("application");
+            return (Map<String, String>) application.get("signing");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    static OpenSSLKeyTool openSSLKeyTool(Map<String, String> signing) {
+        return new OpenSSLKeyTool(signing.get("privateKey"), signing.get("privateKeyPass"),
+            signing.get("privateKeyId"), signing.get("certificate"));
+    }
+}
@@ -0,0 +1,84 @@
+package dev.sb.services.benchmark;
+
+import dev.sb.services.signing.RequestSigner;
+import dev.sb.services.signing.SignatureCache;
+import io.netty.buffer.PooledByteBufAllocator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.NettyDataBufferFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Digest of request body: cached Netty buffer (as used by the proxy) and String (legacy API).
+ * Body is split into 8KB buffers, the way Netty delivers it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DigestBenchmark {
+
+    private static final int CHUNK_SIZE = 8 * 1024;
+
+    @Param({"1024", "65536", "1048576", "52428800"})
+    private int bodySize;
+
+    private RequestSigner requestSigner;
+    private DataBuffer body;
+    private String bodyString;
+
+    @Setup
+    public void setup() {
+        requestSigner = new RequestSigner(BenchmarkKeys.generatedKeyTool(), SignatureCache.disabled());
+
+        // printable ASCII, so that the same bytes can be used as String
+        byte[] bytes = new byte[bodySize];
+        Random random = new Random(42);
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) (' ' + random.nextInt(95));
+        }
+        bodyString = new String(bytes, StandardCharsets.US_ASCII);
+
+        NettyDataBufferFactory bufferFactory = new NettyDataBufferFactory(PooledByteBufAllocator.DEFAULT);
+        DataBuffer[] chunks = new DataBuffer[(bodySize + CHUNK_SIZE - 1) / CHUNK_SIZE];
+        for (int i = 0; i < chunks.length; i++) {
+            int offset = i * CHUNK_SIZE;
+            chunks[i] = bufferFactory.allocateBuffer(CHUNK_SIZE)
+                .write(bytes, offset, Math.min(CHUNK_SIZE, bodySize - offset));
+        }
+        body = bufferFactory.join(List.of(chunks));
+    }
+
+    @TearDown
+    public void tearDown() {
+        DataBufferUtils.release(body);
+    }
+
+    @Benchmark
+    public String dataBuffer() {
+        return requestSigner.createDigest(body);
+    }
+
+    @Benchmark
+    public String string() {
+        return requestSigner.createDigest(bodyString);
+    }
+}
@@ -0,0 +1,38 @@
+package dev.sb.services.benchmark;
+
+import dev.sb.services.signing.OpenSSLKeyTool;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/** Loading of encrypted (PKCS#8, PBES2) PEM key and certificate of 'test' profile, as done at startup. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class KeyLoadingBenchmark {
+
+    private Map<String, String> signing;
+
+    @Setup
+    public void setup() {
+        signing = BenchmarkKeys.testProfileSigningProperties();
+    }
+
+    @Benchmark
+    public OpenSSLKeyTool openSSLKeyTool() {
+        return BenchmarkKeys.openSSLKeyTool(signing);
+    }
+}
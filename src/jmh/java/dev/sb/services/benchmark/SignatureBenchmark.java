@@ -0,0 +1,80 @@
+package dev.sb.services.benchmark;
+
+import dev.sb.services.signing.RequestSigner;
+import dev.sb.services.signing.SignatureCache;
+import dev.sb.services.signing.SigningAlgorithm;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.HttpHeaders;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Signature of request headers with each signing algorithm (RSA-2048, P-256, Ed25519 and 256 bit HMAC key),
+ * with varying number of signed (X-COMPANY-*) headers.
+ * Request always has a few unsigned headers too, as real requests do.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SignatureBenchmark {
+
+    private static final String DATE = "Tue, 28 Apr 2020 17:21:39 GMT";
+    private static final String DIGEST = "SHA-256=bVR2BHJXhy8kEBxXKbGsLT0dB1qICnZQ1BtN5MaAKwg=";
+
+    @Param({"rsa-sha256", "ecdsa-sha256", "ed25519", "hmac-sha256"})
+    private String algorithm;
+
+    @Param({"1", "4", "16"})
+    private int signedHeaders;
+
+    private RequestSigner requestSigner;
+    private HttpHeaders requestHeaders;
+    private Map<String, String> singleValueHeaders;
+
+    @Setup
+    public void setup() {
+        SigningAlgorithm signingAlgorithm = SigningAlgorithm.of(algorithm);
+        requestSigner = new RequestSigner(BenchmarkKeys.generatedKeyTool(signingAlgorithm), signingAlgorithm,
+            RequestSigner.SIGNED_HEADER_PREFIX, SignatureCache.disabled());
+
+        requestHeaders = new HttpHeaders();
+        requestHeaders.add("Accept", "application/json");
+        requestHeaders.add("Content-Type", "application/json");
+        requestHeaders.add("User-Agent", "benchmark");
+        for (int i = 0; i < signedHeaders; i++) {
+            requestHeaders.add("X-COMPANY-HEADER-" + i, "value-" + i);
+        }
+
+        HttpHeaders signedRequestHeaders = new HttpHeaders();
+        signedRequestHeaders.addAll(requestHeaders);
+        signedRequestHeaders.add("Date", DATE);
+        signedRequestHeaders.add("Digest", DIGEST);
+        singleValueHeaders = signedRequestHeaders.toSingleValueMap();
+    }
+
+    /** As used by chained filters */
+    @Benchmark
+    public String singleValueMap() {
+        return requestSigner.createSignature("POST", "/third-party/api/post", singleValueHeaders);
+    }
+
+    /** As used by fused signing filter */
+    @Benchmark
+    public String requestHeaders() {
+        return requestSigner.createSignature("POST", "/third-party/api/post", requestHeaders, DATE, DIGEST);
+    }
+}
@@ -0,0 +1,153 @@
+package dev.sb.services.loadtest;
+
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderValues;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+import reactor.netty.resources.LoopResources;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Closed-loop load: 'concurrency' requests are always in flight, each one is sent as soon as the previous one
+ * of its connection completes. Latency is measured from sending to the end of the response body.
+ * <p>
+ * Runs on its own event loops, so its CPU time is not counted as the proxy's.
+ */
+final class LoadDriver implements AutoCloseable {
+
+    private static final String PATH = "/api/load";
+
+    private final LoopResources loops;
+    private final ConnectionProvider connections;
+    private final HttpClient httpClient;
+    private final String[] methods;
+    /** cumulative weights of 'methods' */
+    private final int[] weights;
+
+    LoadDriver(int port, Map<String, Integer> mix, int maxConcurrency) {
+        this.loops = LoopResources.create("loadtest-client", Math.max(2, Runtime.getRuntime().availableProcessors() / 2),
+            true);
+        this.connections = ConnectionProvider.fixed("loadtest", maxConcurrency);
+        this.httpClient = HttpClient.create(connections)
+            .tcpConfiguration(tcp -> tcp.runOn(loops))
+            .baseUrl("http://127.0.0.1:" + port);
+        this.methods = mix.keySet().toArray(new String[0]);
+        this.weights = new int[methods.length];
+        int total = 0;
+        for (int i = 0; i < methods.length; i++) {
+            total += mix.get(methods[i]);
+            weights[i] = total;
+        }
+    }
+
+    ScenarioResult run(int concurrency, int bodySize, Duration warmup, Duration duration) {
+        byte[] body = UpstreamStub.body(bodySize);
+        Map<String, Recorder> recorders = new LinkedHashMap<>();
+        for (String method : methods) {
+            recorders.put(method, new Recorder(3));
+        }
+        AtomicLong errors = new AtomicLong();
+
+        drive(concurrency, body, warmup, recorders, errors);
+        recorders.values().forEach(Recorder::reset);
+        errors.set(0);
+
+        ThreadUsage before = ThreadUsage.snapshot();
+        long start = System.nanoTime();
+        drive(concurrency, body, duration, recorders, errors);
+        long elapsed = System.nanoTime() - start;
+        long[] usage = ThreadUsage.snapshot().since(before);
+
+        ScenarioResult result = new ScenarioResult();
+        result.setName("c" + concurrency + "-b" + bodySize);
+        result.setConcurrency(concurrency);
+        result.setBodySize(bodySize);
+        Histogram total = new Histogram(3);
+        recorders.forEach((method, recorder) -> {
+            Histogram histogram = recorder.getIntervalHistogram();
+            result.getMethods().put(method, ScenarioResult.Latency.of(histogram));
+            total.add(histogram);
+        });
+        long requests = total.getTotalCount();
+        double seconds = elapsed / (double) TimeUnit.SECONDS.toNanos(1);
+        result.setRequests(requests);
+        result.setErrors(errors.get());
+        result.setSeconds(Math.round(seconds * 1000) / 1000.0);
+        result.setRequestsPerSecond(Math.round(requests / seconds * 10) / 10.0);
+        result.setLatency(ScenarioResult.Latency.of(total));
+        result.setProxyCpuMicrosPerRequest(perRequest(usage[0] / 1000.0, requests));
+        result.setProxyAllocatedBytesPerRequest(perRequest(usage[1], requests));
+        result.setHarnessCpuMicrosPerRequest(perRequest(usage[2] / 1000.0, requests));
+        result.setProcessCpuMicrosPerRequest(perRequest(usage[3] / 1000.0, requests));
+        result.setHistogram(ScenarioResult.encode(total));
+        return result;
+    }
+
+    private void drive(int concurrency, byte[] body, Duration duration, Map<String, Recorder> recorders,
+                       AtomicLong errors) {
+        long end = System.nanoTime() + duration.toNanos();
+        Flux.range(0, concurrency)
+            .flatMap(connection -> Mono.defer(() -> request(body, recorders, errors))
+                .repeat(() -> System.nanoTime() - end < 0), concurrency)
+            .blockLast();
+    }
+
+    private Mono<Void> request(byte[] body, Map<String, Recorder> recorders, AtomicLong errors) {
+        String method = method();
+        long start = System.nanoTime();
+        HttpClient.ResponseReceiver<?> request = "POST".equals(method)
+            ? httpClient
+                .headers(headers -> headers.set(HttpHeaderNames.CONTENT_TYPE, HttpHeaderValues.APPLICATION_JSON))
+                .post()
+                .uri(PATH)
+                .send(Mono.fromSupplier(() -> Unpooled.wrappedBuffer(body)))
+            : httpClient.get().uri(PATH);
+
+        return request
+            .response((response, content) -> content.then(Mono.just(response.status().code())))
+            .single()
+            .doOnNext(status -> {
+                if (status >= 200 && status < 300) {
+                    recorders.get(method).recordValue(System.nanoTime() - start);
+                } else {
+                    errors.incrementAndGet();
+                }
+            })
+            .onErrorResume(e -> {
+                errors.incrementAndGet();
+                return Mono.empty();
+            })
+            .then();
+    }
+
+    private String method() {
+        int weight = ThreadLocalRandom.current().nextInt(weights[weights.length - 1]);
+        for (int i = 0; i < weights.length; i++) {
+            if (weight < weights[i]) {
+                return methods[i];
+            }
+        }
+        return methods[methods.length - 1];
+    }
+
+    private static double perRequest(double value, long requests) {
+        return requests > 0 ? Math.round(value / requests * 10) / 10.0 : 0;
+    }
+
+    @Override
+    public void close() {
+        connections.dispose();
+        loops.dispose();
+    }
+}
@@ -0,0 +1,99 @@
+package dev.sb.services.loadtest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import dev.sb.services.HttpSigningProxyApplication;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.File;
+import java.io.IOException;
+import java.security.Security;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Load test of the proxy against an in-process upstream stub: {@code mvn -P loadtest test-compile exec:exec}.
+ * <p>
+ * The proxy runs with the 'dev' profile (test keys) on a random port and the stub in place of the partner
+ * gateway, all in one JVM. Each scenario (body size x concurrency) is warmed up and then measured:
+ * throughput, HdrHistogram latencies and CPU time and allocation of the proxy per request.
+ * Results are written as JSON ('output'), so runs of different releases can be compared.
+ */
+@Slf4j
+public final class LoadTest {
+
+    private LoadTest() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        LoadTestOptions options = LoadTestOptions.parse(args);
+        Security.addProvider(new BouncyCastleProvider());
+
+        List<ScenarioResult> results = new ArrayList<>();
+        try (UpstreamStub upstream = new UpstreamStub(options.getResponseSize(), options.getUpstreamDelay());
+             ConfigurableApplicationContext proxy = startProxy(upstream.uri(), options.getProxyArgs());
+             LoadDriver driver = new LoadDriver(((WebServerApplicationContext) proxy).getWebServer().getPort(),
+                 options.getMix(), Collections.max(options.getConcurrency()))) {
+
+            for (int bodySize : options.getBodySizes()) {
+                for (int concurrency : options.getConcurrency()) {
+                    ScenarioResult result = driver.run(concurrency, bodySize, options.getWarmup(),
+                        options.getDuration());
+                    log.info("{}: {} requests/s, p50 {} us, p99 {} us, p99.9 {} us, {} errors, "
+                            + "proxy {} us CPU and {} bytes per request", result.getName(),
+                        result.getRequestsPerSecond(), result.getLatency().getP50(), result.getLatency().getP99(),
+                        result.getLatency().getP999(), result.getErrors(), result.getProxyCpuMicrosPerRequest(),
+                        result.getProxyAllocatedBytesPerRequest());
+                    results.add(result);
+                }
+            }
+        }
+
+        Report report = new Report();
+        report.setTimestamp(Instant.now().toString());
+        report.setJavaVersion(System.getProperty("java.version"));
+        report.setProcessors(Runtime.getRuntime().availableProcessors());
+        report.setOptions(options);
+        report.setScenarios(results);
+        File output = new File(options.getOutput());
+        new ObjectMapper()
+            .findAndRegisterModules()
+            .disable(SerializationFeature.WRITE_DURATIONS_AS_TIMESTAMPS)
+            .enable(SerializationFeature.INDENT_OUTPUT)
+            .writeValue(output, report);
+        log.info("Results written to {}", output.getAbsolutePath());
+    }
+
+    private static ConfigurableApplicationContext startProxy(String upstreamUri, List<String> proxyArgs) {
+        List<String> args = new ArrayList<>(List.of(
+            "--server.port=0",
+            "--application.gateway.uri=" + upstreamUri,
+            "--application.gateway.path=/upstream",
+            // 'dev' profile traces every request
+            "--logging.level.root=WARN",
+            "--logging.level.org.springframework=WARN",
+            "--logging.level.org.springframework.cloud=WARN",
+            "--logging.level.dev.sb.services=WARN",
+            "--logging.level.dev.sb.services.loadtest=INFO"));
+        args.addAll(proxyArgs);
+        return new SpringApplicationBuilder(HttpSigningProxyApplication.class)
+            .profiles("dev")
+            .run(args.toArray(new String[0]));
+    }
+
+    @Data
+    static class Report {
+        private String timestamp;
+        private String javaVersion;
+        private int processors;
+        private LoadTestOptions options;
+        private List<ScenarioResult> scenarios;
+    }
+}
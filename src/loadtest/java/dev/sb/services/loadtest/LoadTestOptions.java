@@ -0,0 +1,101 @@
+package dev.sb.services.loadtest;
+
+import lombok.Data;
+import org.springframework.boot.convert.DurationStyle;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Options of a load test run, {@code name=value} arguments, e.g.
+ * {@code concurrency=16,64 body-sizes=1024,65536 mix=GET:80,POST:20 duration=30s}.
+ * Arguments starting with {@code --} are passed to the proxy, e.g. {@code --application.signing.algorithm=...}.
+ */
+@Data
+class LoadTestOptions {
+
+    /** concurrent requests (connections), one scenario per level */
+    private List<Integer> concurrency = List.of(16, 64);
+    /** POST body sizes, one scenario per size */
+    private List<Integer> bodySizes = List.of(1024);
+    /** method -> weight */
+    private Map<String, Integer> mix = Map.of("GET", 50, "POST", 50);
+    private Duration warmup = Duration.ofSeconds(10);
+    private Duration duration = Duration.ofSeconds(30);
+    /** latency of the upstream stub */
+    private Duration upstreamDelay = Duration.ZERO;
+    private int responseSize = 256;
+    private String output = "target/loadtest-result.json";
+    private List<String> proxyArgs = new ArrayList<>();
+
+    static LoadTestOptions parse(String[] args) {
+        LoadTestOptions options = new LoadTestOptions();
+        for (String arg : args) {
+            if (arg.startsWith("--")) {
+                options.proxyArgs.add(arg);
+                continue;
+            }
+            int equals = arg.indexOf('=');
+            if (equals < 0) {
+                throw new IllegalArgumentException("Expected name=value: " + arg);
+            }
+            String value = arg.substring(equals + 1);
+            switch (arg.substring(0, equals)) {
+                case "concurrency":
+                    options.concurrency = integers(value);
+                    break;
+                case "body-sizes":
+                    options.bodySizes = integers(value);
+                    break;
+                case "mix":
+                    options.mix = mix(value);
+                    break;
+                case "warmup":
+                    options.warmup = DurationStyle.detectAndParse(value);
+                    break;
+                case "duration":
+                    options.duration = DurationStyle.detectAndParse(value);
+                    break;
+                case "upstream-delay":
+                    options.upstreamDelay = DurationStyle.detectAndParse(value);
+                    break;
+                case "response-size":
+                    options.responseSize = Integer.parseInt(value);
+                    break;
+                case "output":
+                    options.output = value;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + arg + ", supported: concurrency, "
+                        + "body-sizes, mix, warmup, duration, upstream-delay, response-size, output");
+            }
+        }
+        return options;
+    }
+
+    private static List<Integer> integers(String value) {
+        return Arrays.stream(value.split(","))
+            .map(String::trim)
+            .map(Integer::valueOf)
+            .collect(Collectors.toList());
+    }
+
+    /** {@code GET:80,POST:20} */
+    private static Map<String, Integer> mix(String value) {
+        Map<String, Integer> mix = new LinkedHashMap<>();
+        for (String entry : value.split(",")) {
+            String[] methodWeight = entry.trim().split(":");
+            String method = methodWeight[0].toUpperCase();
+            if (!method.equals("GET") && !method.equals("POST")) {
+                throw new IllegalArgumentException("Unsupported method " + method + ", supported: GET, POST");
+            }
+            mix.put(method, methodWeight.length > 1 ? Integer.parseInt(methodWeight[1]) : 1);
+        }
+        return mix;
+    }
+}
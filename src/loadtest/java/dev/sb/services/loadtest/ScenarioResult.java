@@ -0,0 +1,69 @@
+package dev.sb.services.loadtest;
+
+import lombok.Data;
+import org.HdrHistogram.Histogram;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/** Results of one scenario (body size and concurrency level), latencies in microseconds */
+@Data
+class ScenarioResult {
+
+    private String name;
+    private int concurrency;
+    private int bodySize;
+    private long requests;
+    /** connection errors, timeouts and non-2xx responses, not in latencies */
+    private long errors;
+    private double seconds;
+    private double requestsPerSecond;
+    private Latency latency;
+    private Map<String, Latency> methods = new LinkedHashMap<>();
+    /** CPU time of proxy threads (event loops, signing workers, ...) */
+    private double proxyCpuMicrosPerRequest;
+    private double proxyAllocatedBytesPerRequest;
+    /** CPU time of the load driver and the upstream stub */
+    private double harnessCpuMicrosPerRequest;
+    /** CPU time of the whole process, GC and JIT included */
+    private double processCpuMicrosPerRequest;
+    /** compressed HdrHistogram of all latencies (nanoseconds), Base64, to merge or compare runs */
+    private String histogram;
+
+    static String encode(Histogram histogram) {
+        ByteBuffer buffer = ByteBuffer.allocate(histogram.getNeededByteBufferCapacity());
+        int length = histogram.encodeIntoCompressedByteBuffer(buffer);
+        return Base64.getEncoder().encodeToString(Arrays.copyOf(buffer.array(), length));
+    }
+
+    @Data
+    static class Latency {
+        private long count;
+        private double mean;
+        private double p50;
+        private double p90;
+        private double p99;
+        private double p999;
+        private double max;
+
+        static Latency of(Histogram histogram) {
+            Latency latency = new Latency();
+            latency.count = histogram.getTotalCount();
+            latency.mean = micros(histogram.getMean());
+            latency.p50 = micros(histogram.getValueAtPercentile(50));
+            latency.p90 = micros(histogram.getValueAtPercentile(90));
+            latency.p99 = micros(histogram.getValueAtPercentile(99));
+            latency.p999 = micros(histogram.getValueAtPercentile(99.9));
+            latency.max = micros(histogram.getMaxValue());
+            return latency;
+        }
+
+        private static double micros(double nanos) {
+            return Math.round(nanos / TimeUnit.MICROSECONDS.toNanos(1) * 10) / 10.0;
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package dev.sb.services.loadtest;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * CPU time and allocated bytes of live threads, split between the proxy and the harness
+ * (threads named 'loadtest-*' and the thread driving the test).
+ * Threads that ended between two snapshots are not counted.
+ */
+final class ThreadUsage {
+
+    private static final String HARNESS_THREAD_PREFIX = "loadtest-";
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    private static final com.sun.management.OperatingSystemMXBean OS =
+        (com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean();
+
+    /** thread ID -> {cpu nanos, allocated bytes} */
+    private final Map<Long, long[]> threads;
+    /** thread ID -> true for harness threads */
+    private final Map<Long, Boolean> harness;
+    /** CPU time of the process, GC and JIT included */
+    private final long processCpuNanos;
+
+    private ThreadUsage(Map<Long, long[]> threads, Map<Long, Boolean> harness, long processCpuNanos) {
+        this.threads = threads;
+        this.harness = harness;
+        this.processCpuNanos = processCpuNanos;
+    }
+
+    static ThreadUsage snapshot() {
+        long[] ids = THREADS.getAllThreadIds();
+        long[] cpu = THREADS.getThreadCpuTime(ids);
+        long[] allocated = THREADS.getThreadAllocatedBytes(ids);
+        ThreadInfo[] infos = THREADS.getThreadInfo(ids);
+        long current = Thread.currentThread().getId();
+
+        Map<Long, long[]> threads = new HashMap<>(ids.length * 2);
+        Map<Long, Boolean> harness = new HashMap<>(ids.length * 2);
+        for (int i = 0; i < ids.length; i++) {
+            // -1 for threads that ended meanwhile
+            if (infos[i] == null || cpu[i] < 0 || allocated[i] < 0) {
+                continue;
+            }
+            threads.put(ids[i], new long[]{cpu[i], allocated[i]});
+            harness.put(ids[i], ids[i] == current || infos[i].getThreadName().startsWith(HARNESS_THREAD_PREFIX));
+        }
+        return new ThreadUsage(threads, harness, OS.getProcessCpuTime());
+    }
+
+    /** Usage since the earlier snapshot: {proxy cpu nanos, proxy bytes, harness cpu nanos, process cpu nanos} */
+    long[] since(ThreadUsage before) {
+        long[] usage = new long[4];
+        threads.forEach((id, now) -> {
+            long[] then = before.threads.getOrDefault(id, new long[2]);
+            if (harness.get(id)) {
+                usage[2] += now[0] - then[0];
+            } else {
+                usage[0] += now[0] - then[0];
+                usage[1] += now[1] - then[1];
+            }
+        });
+        usage[3] = processCpuNanos - before.processCpuNanos;
+        return usage;
+    }
+}
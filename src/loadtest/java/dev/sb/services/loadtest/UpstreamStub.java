@@ -0,0 +1,63 @@
+package dev.sb.services.loadtest;
+
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderValues;
+import reactor.core.publisher.Mono;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.server.HttpServer;
+import reactor.netty.resources.LoopResources;
+
+import java.time.Duration;
+import java.util.Arrays;
+
+/**
+ * Stand-in for the partner gateway: reads the request body and answers 200 with a fixed JSON body,
+ * optionally after a delay. Runs on its own event loops, so its CPU time is not counted as the proxy's.
+ */
+final class UpstreamStub implements AutoCloseable {
+
+    private final LoopResources loops;
+    private final DisposableServer server;
+
+    UpstreamStub(int responseSize, Duration delay) {
+        byte[] body = body(responseSize);
+        this.loops = LoopResources.create("loadtest-upstream", 2, true);
+        this.server = HttpServer.create()
+            .host("127.0.0.1")
+            .port(0)
+            .tcpConfiguration(tcp -> tcp.runOn(loops))
+            .handle((request, response) -> {
+                Mono<Void> received = request.receive().then();
+                if (!delay.isZero()) {
+                    received = received.then(Mono.delay(delay)).then();
+                }
+                return received.then(response
+                    .header(HttpHeaderNames.CONTENT_TYPE, HttpHeaderValues.APPLICATION_JSON)
+                    .header(HttpHeaderNames.CONTENT_LENGTH, String.valueOf(body.length))
+                    .sendObject(Mono.fromSupplier(() -> Unpooled.wrappedBuffer(body)))
+                    .then());
+            })
+            .bindNow();
+    }
+
+    String uri() {
+        return "http://127.0.0.1:" + server.port();
+    }
+
+    @Override
+    public void close() {
+        server.disposeNow();
+        loops.dispose();
+    }
+
+    /** JSON document of the given size, padded with ASCII */
+    static byte[] body(int size) {
+        String prefix = "{\"data\":\"";
+        String suffix = "\"}";
+        int padding = Math.max(0, size - prefix.length() - suffix.length());
+        char[] data = new char[padding];
+        Arrays.fill(data, 'x');
+        return (prefix + new String(data) + suffix).getBytes();
+    }
+}
@@ -0,0 +1,26 @@
+package dev.sb.services;
+
+import org.springframework.boot.LazyInitializationExcludeFilter;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.server.reactive.HttpHandler;
+
+/**
+ * Beans that stay eager when 'spring.main.lazy-initialization' is on ('fast-start' profile).
+ * <p>
+ * Signing keys, routes and filters of this application are created at startup, so that a bad key or route
+ * still fails the start, and so is the HTTP handler chain, so that the first proxied request does not
+ * initialise the gateway. Beans nothing asks for at startup (actuator endpoints, unused auto-configuration)
+ * are created when first used.
+ */
+@Configuration(proxyBeanMethods = false)
+public class FastStartConfiguration {
+
+    private static final String APPLICATION_PACKAGE = FastStartConfiguration.class.getPackageName() + '.';
+
+    @Bean
+    public static LazyInitializationExcludeFilter eagerApplicationBeans() {
+        return (beanName, beanDefinition, beanType) -> beanType != null
+            && (beanType.getName().startsWith(APPLICATION_PACKAGE) || HttpHandler.class.isAssignableFrom(beanType));
+    }
+}
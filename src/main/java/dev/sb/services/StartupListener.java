@@ -0,0 +1,47 @@
+package dev.sb.services;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.stereotype.Component;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Publishes the time from JVM start until the application is ready to serve ('application.startup.time').
+ * <p>
+ * With 'exit-on-ready' the application exits as soon as it is ready: a training run that loads every class
+ * of a normal start, for an AppCDS archive (see README).
+ */
+@Component
+@Slf4j
+public class StartupListener implements ApplicationListener<ApplicationReadyEvent> {
+
+    private final MeterRegistry meterRegistry;
+    private final boolean exitOnReady;
+
+    public StartupListener(MeterRegistry meterRegistry,
+                           @Value("${application.startup.exit-on-ready:false}") boolean exitOnReady) {
+        this.meterRegistry = meterRegistry;
+        this.exitOnReady = exitOnReady;
+    }
+
+    @Override
+    public void onApplicationEvent(ApplicationReadyEvent event) {
+        double seconds = ManagementFactory.getRuntimeMXBean().getUptime() / 1000.0;
+        Gauge.builder("application.startup.time", () -> seconds)
+            .description("Time from JVM start until the application was ready")
+            .baseUnit("seconds")
+            .register(meterRegistry);
+        log.info("Ready in {} s since JVM start", seconds);
+
+        if (exitOnReady) {
+            log.info("Exiting after startup (application.startup.exit-on-ready)");
+            System.exit(SpringApplication.exit(event.getApplicationContext()));
+        }
+    }
+}
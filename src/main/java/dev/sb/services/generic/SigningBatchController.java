@@ -0,0 +1,178 @@
+package dev.sb.services.generic;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import dev.sb.services.signing.RequestSigner;
+import dev.sb.services.signing.SigningClock;
+import dev.sb.services.signing.SigningScheduler;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RestController;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.io.UncheckedIOException;
+import java.util.Map;
+
+/**
+ * Signing as a service: 'Date', 'Digest' and 'Signature' header values for requests that batch jobs send
+ * through their own HTTP clients.
+ * <p>
+ * Request and response are NDJSON, one item per line, both are streamed: items are signed as they arrive,
+ * in parallel on {@link SigningScheduler} workers, and written back in the order they were received.
+ * At most 'concurrency' items are in flight, so a batch of any size needs constant memory.
+ * Items that can't be signed get an 'error' instead of failing the batch.
+ */
+@RestController
+@Slf4j
+public class SigningBatchController {
+
+    public static final String APPLICATION_NDJSON_VALUE = "application/x-ndjson";
+
+    private final RequestSigner requestSigner;
+    private final SigningClock signingClock;
+    private final SigningScheduler signingScheduler;
+    private final int concurrency;
+    private final ObjectReader itemReader;
+    /** one line per item, whatever the indentation of other JSON responses is */
+    private final ObjectWriter resultWriter;
+    private final Counter signed;
+    private final Counter failed;
+
+    public SigningBatchController(RequestSigner requestSigner,
+                                  SigningClock signingClock,
+                                  SigningScheduler signingScheduler,
+                                  ObjectMapper objectMapper,
+                                  MeterRegistry meterRegistry,
+                                  @Value("${application.signing.batch.concurrency:0}") int concurrency) {
+        this.requestSigner = requestSigner;
+        this.signingClock = signingClock;
+        this.signingScheduler = signingScheduler;
+        // keep all workers busy, with one item queued for each
+        this.concurrency = concurrency > 0 ? concurrency : 2 * Runtime.getRuntime().availableProcessors();
+        this.itemReader = objectMapper.readerFor(Item.class);
+        this.resultWriter = objectMapper.writerFor(Result.class).without(SerializationFeature.INDENT_OUTPUT);
+        this.signed = batchItems(meterRegistry, "signed");
+        this.failed = batchItems(meterRegistry, "failed");
+    }
+
+    @PostMapping(path = "/signatures",
+        consumes = {APPLICATION_NDJSON_VALUE, MediaType.APPLICATION_STREAM_JSON_VALUE},
+        produces = APPLICATION_NDJSON_VALUE)
+    public Flux<String> sign(@RequestBody Flux<String> items) {
+        return items
+            .filter(line -> !line.isBlank())
+            .index()
+            .flatMapSequential(item -> signingScheduler.execute(() -> sign(item.getT1(), item.getT2()))
+                    .onErrorResume(e -> Mono.fromCallable(() -> write(failure(item.getT1(), null, e)))),
+                concurrency);
+    }
+
+    /** Runs on signing scheduler */
+    private String sign(long index, String line) {
+        Item item = null;
+        Result result;
+        try {
+            item = itemReader.readValue(line);
+            result = sign(index, item);
+            signed.increment();
+        } catch (Exception e) {
+            result = failure(index, item, e);
+        }
+        return write(result);
+    }
+
+    private Result sign(long index, Item item) {
+        if (item.getMethod() == null || item.getPath() == null) {
+            throw new IllegalArgumentException("method and path are required");
+        }
+        HttpHeaders headers = new HttpHeaders();
+        if (item.getHeaders() != null) {
+            item.getHeaders().forEach(headers::set);
+        }
+
+        String date = headers.getFirst(HttpHeaders.DATE);
+        boolean addDate = date == null;
+        if (addDate) {
+            date = signingClock.httpDate();
+        }
+        String digest = item.getDigest();
+        if (digest == null && item.getBody() != null) {
+            digest = requestSigner.createDigest(item.getBody());
+        }
+        String signature = requestSigner.createSignature(item.getMethod().toUpperCase(), item.getPath(), headers,
+            date, digest);
+
+        Result result = new Result();
+        result.setIndex(index);
+        result.setId(item.getId());
+        result.setDate(addDate ? date : null);
+        result.setDigest(digest);
+        result.setSignature(signature);
+        return result;
+    }
+
+    private Result failure(long index, Item item, Throwable e) {
+        failed.increment();
+        log.debug("Batch item {} can't be signed", index, e);
+        Result result = new Result();
+        result.setIndex(index);
+        result.setId(item != null ? item.getId() : null);
+        result.setError(e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName());
+        return result;
+    }
+
+    private String write(Result result) {
+        try {
+            return resultWriter.writeValueAsString(result) + '\n';
+        } catch (JsonProcessingException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static Counter batchItems(MeterRegistry meterRegistry, String result) {
+        return Counter.builder("signing.batch.items")
+            .description("Items of signing batches")
+            .tag("result", result)
+            .register(meterRegistry);
+    }
+
+    /** Request to sign */
+    @Data
+    public static class Item {
+        /** optional, returned with the result */
+        private String id;
+        private String method;
+        /** path (and query) the request is sent to */
+        private String path;
+        /** headers to sign, only those starting with the signed header prefix are signed */
+        private Map<String, String> headers;
+        /** 'Digest' header value, if the job hashed the body itself */
+        private String digest;
+        /** body, its digest is calculated if 'digest' is not set */
+        private String body;
+    }
+
+    /** Header values to add to the request, or error */
+    @Data
+    public static class Result {
+        /** position of the item in the batch */
+        private long index;
+        private String id;
+        /** only if 'Date' header was not given */
+        private String date;
+        private String digest;
+        private String signature;
+        private String error;
+    }
+}
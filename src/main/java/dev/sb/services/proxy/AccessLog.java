@@ -0,0 +1,176 @@
+package dev.sb.services.proxy;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cloud.gateway.filter.GatewayFilterChain;
+import org.springframework.cloud.gateway.filter.GlobalFilter;
+import org.springframework.cloud.gateway.route.Route;
+import org.springframework.cloud.gateway.support.ServerWebExchangeUtils;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.AnnotatedElementUtils;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.bind.annotation.ResponseStatus;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
+
+import java.net.URI;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Structured access log: one JSON line per sampled request, with route, upstream, status, body size
+ * and the time spent in each stage (body, digest, signing or verification, upstream).
+ * <p>
+ * Nothing is formatted or written on the event loop: the filter puts an {@link AccessLogEntry} on the exchange,
+ * filters fill it in and the completed entry is handed to the {@link AccessLogBuffer}, from which a single
+ * writer thread formats and logs it ('access' logger). When the writer falls behind and the buffer is full,
+ * entries are dropped and counted, requests never wait for the log.
+ */
+@Component
+@Slf4j
+public class AccessLog implements GlobalFilter, Ordered, DisposableBean {
+
+    private static final Logger ACCESS = LoggerFactory.getLogger("access");
+    /** writer's sleep when the buffer is empty */
+    private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    /** status of requests cancelled by the client before the response was committed */
+    private static final int CLIENT_CLOSED = 499;
+
+    private final boolean enabled;
+    private final double sampleRate;
+    private final int bodyCaptureLimit;
+    private final AccessLogBuffer buffer;
+    private final ObjectWriter entryWriter;
+    private final Counter dropped;
+    private final Thread writer;
+    private volatile boolean running = true;
+
+    public AccessLog(@Value("${application.access-log.enabled:false}") boolean enabled,
+                     @Value("${application.access-log.sample-rate:1.0}") double sampleRate,
+                     @Value("${application.access-log.buffer-size:8192}") int bufferSize,
+                     @Value("${application.access-log.body-capture.enabled:false}") boolean bodyCapture,
+                     @Value("${application.access-log.body-capture.max-size:1KB}") DataSize bodyCaptureMaxSize,
+                     ObjectMapper objectMapper,
+                     MeterRegistry meterRegistry) {
+        this.enabled = enabled;
+        this.sampleRate = sampleRate;
+        this.bodyCaptureLimit = bodyCapture ? (int) bodyCaptureMaxSize.toBytes() : 0;
+        this.buffer = new AccessLogBuffer(bufferSize);
+        this.entryWriter = objectMapper.writerFor(AccessLogEntry.class).without(SerializationFeature.INDENT_OUTPUT);
+        this.dropped = Counter.builder("proxy.access.log.dropped")
+            .description("Access log entries dropped because the writer fell behind")
+            .register(meterRegistry);
+
+        if (enabled) {
+            this.writer = new Thread(this::write, "access-log");
+            writer.setDaemon(true);
+            writer.start();
+            log.info("Access log: sample rate {}, buffer {}, body capture {}", sampleRate, buffer.capacity(),
+                bodyCapture ? bodyCaptureMaxSize : "disabled");
+        } else {
+            this.writer = null;
+        }
+    }
+
+    /** Before all route filters, so that rejected and cached requests are logged too */
+    @Override
+    public int getOrder() {
+        return Ordered.HIGHEST_PRECEDENCE;
+    }
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, GatewayFilterChain chain) {
+        if (!enabled || sampleRate < 1 && ThreadLocalRandom.current().nextDouble() >= sampleRate) {
+            return chain.filter(exchange);
+        }
+        ServerHttpRequest request = exchange.getRequest();
+        AccessLogEntry entry = new AccessLogEntry(request.getMethodValue(), request.getPath().value(),
+            System.nanoTime(), bodyCaptureLimit);
+        exchange.getAttributes().put(AccessLogEntry.ATTR, entry);
+
+        Throwable[] error = new Throwable[1];
+        return chain.filter(exchange)
+            .doOnError(e -> error[0] = e)
+            .doFinally(signal -> publish(exchange, entry, signal, error[0]));
+    }
+
+    private void publish(ServerWebExchange exchange, AccessLogEntry entry, SignalType signal, Throwable error) {
+        Route route = exchange.getAttribute(ServerWebExchangeUtils.GATEWAY_ROUTE_ATTR);
+        URI url = exchange.getAttribute(ServerWebExchangeUtils.GATEWAY_REQUEST_URL_ATTR);
+        String upstream = url != null && url.getHost() != null
+            ? url.getScheme() + "://" + url.getRawAuthority()
+            : null;
+        entry.finish(route != null ? route.getId() : null, upstream, status(exchange, signal, error),
+            error != null ? error.toString() : null, System.nanoTime());
+
+        if (!buffer.offer(entry)) {
+            dropped.increment();
+        }
+    }
+
+    private static int status(ServerWebExchange exchange, SignalType signal, Throwable error) {
+        if (error instanceof ResponseStatusException) {
+            return ((ResponseStatusException) error).getStatus().value();
+        }
+        if (error != null) {
+            // as the error handler resolves it
+            ResponseStatus responseStatus = AnnotatedElementUtils.findMergedAnnotation(error.getClass(),
+                ResponseStatus.class);
+            return responseStatus != null ? responseStatus.code().value() : HttpStatus.INTERNAL_SERVER_ERROR.value();
+        }
+        // the client may close the connection as soon as it has the response, before the exchange completes
+        if (signal == SignalType.CANCEL && !exchange.getResponse().isCommitted()) {
+            return CLIENT_CLOSED;
+        }
+        HttpStatus status = exchange.getResponse().getStatusCode();
+        return status != null ? status.value() : HttpStatus.OK.value();
+    }
+
+    /** Runs on writer thread */
+    private void write() {
+        while (running) {
+            if (!drain()) {
+                LockSupport.parkNanos(IDLE_NANOS);
+            }
+        }
+        drain();
+    }
+
+    /** @return false if there was nothing to write */
+    private boolean drain() {
+        boolean written = false;
+        for (AccessLogEntry entry = buffer.poll(); entry != null; entry = buffer.poll()) {
+            written = true;
+            try {
+                ACCESS.info(entryWriter.writeValueAsString(entry));
+            } catch (JsonProcessingException e) {
+                log.warn("Access log entry of {} not written", entry.getPath(), e);
+            }
+        }
+        return written;
+    }
+
+    @Override
+    public void destroy() throws InterruptedException {
+        running = false;
+        if (writer != null) {
+            LockSupport.unpark(writer);
+            writer.join(TimeUnit.SECONDS.toMillis(5));
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package dev.sb.services.proxy;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded ring buffer of access log entries: many producers (event loops, signing workers), one consumer
+ * (the access log writer).
+ * <p>
+ * Lock-free: a producer claims a slot with a compare-and-set of the tail and publishes the entry with
+ * the slot's sequence, the consumer takes entries in the order of their sequences.
+ * A producer never waits, {@link #offer} fails when the buffer is full.
+ */
+public class AccessLogBuffer {
+
+    private final AtomicReferenceArray<AccessLogEntry> entries;
+    /** position of the entry a slot is ready to take (free), or position + 1 (published) */
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    /** read and written by the consumer only */
+    private long head;
+
+    /** @param capacity rounded up to a power of two */
+    public AccessLogBuffer(int capacity) {
+        int size = capacity <= 2 ? 2 : Integer.highestOneBit(capacity - 1) << 1;
+        this.entries = new AtomicReferenceArray<>(size);
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+        this.mask = size - 1;
+    }
+
+    /** @return false if the buffer is full, the entry is dropped */
+    public boolean offer(AccessLogEntry entry) {
+        long position = tail.get();
+        while (true) {
+            int index = (int) (position & mask);
+            long sequence = sequences.get(index);
+            if (sequence == position) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    entries.lazySet(index, entry);
+                    sequences.set(index, position + 1);
+                    return true;
+                }
+                position = tail.get();
+            } else if (sequence < position) {
+                // slot still holds the entry of the previous lap
+                return false;
+            } else {
+                // claimed by another producer
+                position = tail.get();
+            }
+        }
+    }
+
+    /**
+     * Consumer only
+     *
+     * @return next entry, null if there is none
+     */
+    public AccessLogEntry poll() {
+        int index = (int) (head & mask);
+        if (sequences.get(index) != head + 1) {
+            return null;
+        }
+        AccessLogEntry entry = entries.get(index);
+        entries.lazySet(index, null);
+        // free for the next lap
+        sequences.set(index, head + mask + 1);
+        head++;
+        return entry;
+    }
+
+    public int capacity() {
+        return mask + 1;
+    }
+}
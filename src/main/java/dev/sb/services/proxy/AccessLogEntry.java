@@ -0,0 +1,135 @@
+package dev.sb.services.proxy;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+import lombok.Getter;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.web.server.ServerWebExchange;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Access log record of a sampled request, written as one JSON line by {@link AccessLog}.
+ * <p>
+ * Filled in by the filters as the request passes them, stages that did not run are left out.
+ * Updates come from event loops and signing workers, and the entry is published to the writer once the exchange
+ * completes. A stage may still end after that (a signing task of a cancelled request): updates after
+ * {@link #finish} are ignored, so the writer never reads an entry being written. The lock is taken a few times
+ * per request and is not contended otherwise.
+ */
+@Getter
+@JsonPropertyOrder({"time", "method", "path", "route", "upstream", "status"})
+public class AccessLogEntry {
+
+    /** exchange attribute holding the entry of a sampled request */
+    public static final String ATTR = AccessLogEntry.class.getName();
+
+    @JsonIgnore
+    private final long startMillis;
+    @JsonIgnore
+    private final long start;
+    /** 0 if the body is not captured */
+    @JsonIgnore
+    private final int bodyCaptureLimit;
+    @JsonIgnore
+    private long upstreamStart;
+    /** guarded by this, as all fields updated after the constructor */
+    @JsonIgnore
+    private boolean finished;
+
+    private final String method;
+    private final String path;
+    private String route;
+    /** scheme and authority of the upstream (instance) the request was sent to */
+    private String upstream;
+    private Integer status;
+    /** size of the body as sent, after compression */
+    private Long bodySize;
+    private Long bodyMicros;
+    private Long digestMicros;
+    private Long signingMicros;
+    private Long verificationMicros;
+    /** from the hand-over to the routing filter until the response is written */
+    private Long upstreamMicros;
+    private long totalMicros;
+    /** start of the body, if captured */
+    private String body;
+    private String error;
+
+    AccessLogEntry(String method, String path, long start, int bodyCaptureLimit) {
+        this.startMillis = System.currentTimeMillis();
+        this.start = start;
+        this.method = method;
+        this.path = path;
+        this.bodyCaptureLimit = bodyCaptureLimit;
+    }
+
+    /** @return entry of the exchange, null if the request is not sampled (or the access log is disabled) */
+    public static AccessLogEntry of(ServerWebExchange exchange) {
+        return exchange.getAttribute(ATTR);
+    }
+
+    public String getTime() {
+        return Instant.ofEpochMilli(startMillis).toString();
+    }
+
+    /**
+     * @param body body as sent upstream (captured if enabled), null if it is not to be captured
+     *             (spooled or compressed)
+     */
+    public synchronized void body(long nanos, long size, DataBuffer body) {
+        if (finished) {
+            return;
+        }
+        bodyMicros = micros(nanos);
+        bodySize = size;
+        if (body != null && bodyCaptureLimit > 0) {
+            int length = Math.min(bodyCaptureLimit, body.readableByteCount());
+            this.body = body.toString(body.readPosition(), length, StandardCharsets.UTF_8);
+        }
+    }
+
+    public synchronized void digest(long nanos) {
+        if (!finished) {
+            digestMicros = micros(nanos);
+        }
+    }
+
+    public synchronized void signing(long nanos) {
+        if (!finished) {
+            signingMicros = micros(nanos);
+        }
+    }
+
+    public synchronized void verification(long nanos) {
+        if (!finished) {
+            verificationMicros = micros(nanos);
+        }
+    }
+
+    /** @param now {@link System#nanoTime()} when the request is passed on to the routing filter */
+    public synchronized void upstreamStarted(long now) {
+        if (!finished) {
+            upstreamStart = now;
+        }
+    }
+
+    /** Last update, the entry is read by the writer after this */
+    synchronized void finish(String route, String upstream, int status, String error, long now) {
+        finished = true;
+        this.route = route;
+        this.upstream = upstream;
+        this.status = status;
+        this.error = error;
+        if (upstreamStart != 0) {
+            upstreamMicros = micros(now - upstreamStart);
+        }
+        totalMicros = micros(now - start);
+    }
+
+    private static long micros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+}
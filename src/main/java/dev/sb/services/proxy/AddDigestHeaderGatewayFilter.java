@@ -1,54 +1,143 @@
 package dev.sb.services.proxy;
 
+import dev.sb.services.signing.BodyDigest;
 import dev.sb.services.signing.RequestSigner;
+import dev.sb.services.signing.SigningScheduler;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.cloud.gateway.filter.GatewayFilter;
 import org.springframework.cloud.gateway.filter.GatewayFilterChain;
 import org.springframework.cloud.gateway.support.ServerWebExchangeUtils;
 import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.http.server.reactive.ServerHttpRequest;
 import org.springframework.web.server.ServerWebExchange;
 import reactor.core.publisher.Mono;
 
-import java.nio.charset.StandardCharsets;
 import java.util.List;
 
-/** Calculate HTTP message Digest */
+/** Calculate HTTP message Digest (of the compressed body, if the route compresses request bodies) */
 @Slf4j
 public class AddDigestHeaderGatewayFilter implements GatewayFilter {
     
-    private static final List<String> METHODS = List.of("POST", "PUT");
-
     private final RequestSigner requestSigner;
+    private final SigningScheduler signingScheduler;
+    private final RequestBodySpool requestBodySpool;
+    private final ProxyMetrics proxyMetrics;
+    /** methods of requests whose body is digested */
+    private final List<String> digestMethods;
+    /** null if request bodies are sent as received */
+    private final RequestBodyCompression compression;
 
-    public AddDigestHeaderGatewayFilter(RequestSigner requestSigner) {
+    public AddDigestHeaderGatewayFilter(RequestSigner requestSigner,
+                                        SigningScheduler signingScheduler,
+                                        RequestBodySpool requestBodySpool,
+                                        ProxyMetrics proxyMetrics,
+                                        List<String> digestMethods,
+                                        RequestBodyCompression compression) {
         this.requestSigner = requestSigner;
+        this.signingScheduler = signingScheduler;
+        this.requestBodySpool = requestBodySpool;
+        this.proxyMetrics = proxyMetrics;
+        this.digestMethods = digestMethods;
+        this.compression = compression;
     }
 
     @Override
     public Mono<Void> filter(ServerWebExchange exchange, GatewayFilterChain chain) {
-        if (METHODS.contains(exchange.getRequest().getMethodValue())) {
+        if (digestMethods.contains(exchange.getRequest().getMethodValue())) {
+            long bodyStart = System.nanoTime();
+            ServerHttpRequest request = exchange.getRequest();
+            ServerHttpRequest bodyRequest = compression != null
+                ? compression.compress(request, exchange.getResponse().bufferFactory())
+                : request;
+
+            if (requestBodySpool.shouldSpool(request)) {
+                return spoolAndFilter(exchange, chain, bodyRequest, bodyStart);
+            }
 
-            return ServerWebExchangeUtils.cacheRequestBody(exchange,
-                (serverHttpRequest) -> {
+            return ServerWebExchangeUtils.cacheRequestBody(bodyRequest != request
+                    ? exchange.mutate().request(bodyRequest).build()
+                    : exchange,
+                (decorated) -> {
                     // here we obtain decorated serverHttpRequest and read body value from exchange attribute
                     DataBuffer dataBuffer = exchange.getAttribute(ServerWebExchangeUtils.CACHED_REQUEST_BODY_ATTR);
 
+                    AccessLogEntry entry = AccessLogEntry.of(exchange);
                     if (dataBuffer == null) {
+                        long bodyNanos = proxyMetrics.recordBody(bodyStart, 0);
+                        if (entry != null) {
+                            entry.body(bodyNanos, 0, null);
+                        }
                         return chain.filter(exchange);
                     }
-
-                    String body = dataBuffer.toString(StandardCharsets.UTF_8);
-                    String digest = requestSigner.createDigest(body);
-                    if (log.isTraceEnabled()) {
-                        log.trace("HTTP message body  : {}", body);
-                        log.trace("HTTP message Digest: {}", digest);
+                    long bodyNanos = proxyMetrics.recordBody(bodyStart, dataBuffer.readableByteCount());
+                    // a chunked body is compressed once it has 'min-size', known now that it is read
+                    boolean compressed = RequestBodyCompression.isCompressed(bodyRequest);
+                    if (entry != null) {
+                        entry.body(bodyNanos, dataBuffer.readableByteCount(), compressed ? null : dataBuffer);
                     }
+                    ServerHttpRequest serverHttpRequest = compressed
+                        ? RequestBodyCompression.withContentLength(decorated, dataBuffer.readableByteCount())
+                        : decorated;
 
-                    serverHttpRequest.mutate().header(ProxyHeaders.DIGEST, digest);
-                    return chain.filter(exchange.mutate().request(serverHttpRequest).build());
+                    return signingScheduler.execute(() -> digest(dataBuffer, entry))
+                        .doOnError(proxyMetrics::recordFailure)
+                        .flatMap(digest -> {
+                            if (log.isTraceEnabled()) {
+                                log.trace("HTTP message body  : {} bytes", dataBuffer.readableByteCount());
+                                log.trace("HTTP message Digest: {}", digest);
+                            }
+
+                            serverHttpRequest.mutate().header(ProxyHeaders.DIGEST, digest);
+                            return chain.filter(exchange.mutate().request(serverHttpRequest).build());
+                        });
                 });
         } else {
             return chain.filter(exchange);
         }
     }
+
+    /** Runs on signing scheduler */
+    private String digest(DataBuffer dataBuffer, AccessLogEntry entry) {
+        long start = System.nanoTime();
+        String digest = requestSigner.createDigest(dataBuffer);
+        long nanos = proxyMetrics.recordDigest(start);
+        if (entry != null) {
+            entry.digest(nanos);
+        }
+        return digest;
+    }
+
+    /** Large bodies are streamed to disk instead of being cached in memory, digest is updated as buffers arrive */
+    private Mono<Void> spoolAndFilter(ServerWebExchange exchange, GatewayFilterChain chain,
+                                      ServerHttpRequest bodyRequest, long bodyStart) {
+        BodyDigest bodyDigest = requestSigner.newBodyDigest();
+
+        return requestBodySpool.spool(bodyRequest, bodyDigest)
+            .flatMap(spooledBody -> {
+                long bodyNanos = proxyMetrics.recordBody(bodyStart, spooledBody.size());
+                AccessLogEntry entry = AccessLogEntry.of(exchange);
+                if (entry != null) {
+                    entry.body(bodyNanos, spooledBody.size(), null);
+                }
+                if (spooledBody.size() == 0) {
+                    // same as for cached body: no body, no digest
+                    spooledBody.delete();
+                    return chain.filter(exchange);
+                }
+
+                String digest = bodyDigest.digest();
+                if (log.isTraceEnabled()) {
+                    log.trace("HTTP message body  : {} bytes (spooled)", spooledBody.size());
+                    log.trace("HTTP message Digest: {}", digest);
+                }
+
+                ServerHttpRequest decorated = spooledBody.decorate(bodyRequest, exchange.getResponse().bufferFactory());
+                ServerHttpRequest request = (RequestBodyCompression.isCompressed(bodyRequest)
+                    ? RequestBodyCompression.withContentLength(decorated, spooledBody.size())
+                    : decorated)
+                    .mutate().header(ProxyHeaders.DIGEST, digest).build();
+                return chain.filter(exchange.mutate().request(request).build())
+                    .doFinally(signal -> spooledBody.delete());
+            });
+    }
 }
@@ -1,6 +1,7 @@
 package dev.sb.services.proxy;
 
 import dev.sb.services.signing.RequestSigner;
+import dev.sb.services.signing.SigningScheduler;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.cloud.gateway.filter.GatewayFilter;
 import org.springframework.cloud.gateway.filter.GatewayFilterChain;
@@ -8,6 +9,8 @@ import org.springframework.http.server.reactive.ServerHttpRequest;
 import org.springframework.web.server.ServerWebExchange;
 import reactor.core.publisher.Mono;
 
+import java.util.Map;
+
 /**
  * Calculate and add HTTP message signature to the request headers.
  */
@@ -15,9 +18,15 @@ import reactor.core.publisher.Mono;
 public class AddSignatureHeaderGatewayFilter implements GatewayFilter {
 
     private final RequestSigner requestSigner;
+    private final SigningScheduler signingScheduler;
+    private final ProxyMetrics proxyMetrics;
 
-    public AddSignatureHeaderGatewayFilter(RequestSigner requestSigner) {
+    public AddSignatureHeaderGatewayFilter(RequestSigner requestSigner,
+                                           SigningScheduler signingScheduler,
+                                           ProxyMetrics proxyMetrics) {
         this.requestSigner = requestSigner;
+        this.signingScheduler = signingScheduler;
+        this.proxyMetrics = proxyMetrics;
     }
 
     @Override
@@ -31,13 +40,36 @@ public class AddSignatureHeaderGatewayFilter implements GatewayFilter {
             log.trace("(request-target): '{} {}'", method, path);
         }
 
-        // now take all the headers and create signature
-        String signatureHeader = requestSigner.createSignature(method, path, request.getHeaders().toSingleValueMap());
-        request = request.mutate().header(ProxyHeaders.SIGNATURE, signatureHeader).build();
+        // now take all the headers and create signature (off the event loop)
+        Map<String, String> headers = request.getHeaders().toSingleValueMap();
+        return signingScheduler.execute(() -> sign(method, path, headers, AccessLogEntry.of(exchange)))
+            .doOnError(proxyMetrics::recordFailure)
+            .flatMap(signatureHeader -> {
+                ServerHttpRequest signedRequest = request.mutate()
+                    .header(ProxyHeaders.SIGNATURE, signatureHeader)
+                    .build();
 
-        if (log.isTraceEnabled()) {
-            log.trace("HTTP headers: {}", request.getHeaders().toString());
+                if (log.isTraceEnabled()) {
+                    log.trace("HTTP headers: {}", signedRequest.getHeaders().toString());
+                }
+                long upstreamStart = System.nanoTime();
+                AccessLogEntry entry = AccessLogEntry.of(exchange);
+                if (entry != null) {
+                    entry.upstreamStarted(upstreamStart);
+                }
+                return chain.filter(exchange.mutate().request(signedRequest).build())
+                    .doFinally(signal -> proxyMetrics.recordUpstream(upstreamStart));
+            });
+    }
+
+    /** Runs on signing scheduler */
+    private String sign(String method, String path, Map<String, String> headers, AccessLogEntry entry) {
+        long start = System.nanoTime();
+        String signature = requestSigner.createSignature(method, path, headers);
+        long nanos = proxyMetrics.recordSigning(start);
+        if (entry != null) {
+            entry.signing(nanos);
         }
-        return chain.filter(exchange.mutate().request(request).build());
+        return signature;
     }
 }
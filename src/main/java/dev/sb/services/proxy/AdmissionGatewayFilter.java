@@ -0,0 +1,96 @@
+package dev.sb.services.proxy;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.cloud.gateway.filter.GatewayFilter;
+import org.springframework.cloud.gateway.filter.GatewayFilterChain;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
+
+import java.net.InetSocketAddress;
+
+/**
+ * Admission of requests before anything is done with them: rate limit per client (HTTP 429)
+ * and adaptive concurrency limit of the route (HTTP 503).
+ * <p>
+ * Runs before the signing (verifying) filters, a rejected request costs a header lookup and a compare-and-set:
+ * its body is not read, nothing is digested or signed and no error page is rendered.
+ * Clients are identified by 'client-header', or by their IP address if the request has no such header.
+ * The latency of the concurrency limit is measured until the response is committed (upstream response headers),
+ * writing the body to a slow client does not count.
+ */
+@Slf4j
+public class AdmissionGatewayFilter implements GatewayFilter {
+
+    /** before the response cache and the signing and verifying filters (0) */
+    public static final int ORDER = ResponseCachingGatewayFilter.ORDER - 1;
+
+    private static final String UNKNOWN_CLIENT = "unknown";
+
+    /** null if requests are not rate limited */
+    private final ClientRateLimiter rateLimiter;
+    private final String clientHeader;
+    /** null if concurrency is not limited */
+    private final ConcurrencyLimiter concurrencyLimiter;
+    private final ProxyMetrics proxyMetrics;
+
+    public AdmissionGatewayFilter(ClientRateLimiter rateLimiter,
+                                  String clientHeader,
+                                  ConcurrencyLimiter concurrencyLimiter,
+                                  ProxyMetrics proxyMetrics) {
+        this.rateLimiter = rateLimiter;
+        this.clientHeader = clientHeader;
+        this.concurrencyLimiter = concurrencyLimiter;
+        this.proxyMetrics = proxyMetrics;
+    }
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, GatewayFilterChain chain) {
+        long start = System.nanoTime();
+        if (rateLimiter != null && !rateLimiter.tryAcquire(client(exchange), start)) {
+            proxyMetrics.recordRateLimited();
+            return reject(exchange, HttpStatus.TOO_MANY_REQUESTS);
+        }
+        if (concurrencyLimiter == null) {
+            return chain.filter(exchange);
+        }
+        if (!concurrencyLimiter.tryAcquire()) {
+            proxyMetrics.recordConcurrencyLimited();
+            return reject(exchange, HttpStatus.SERVICE_UNAVAILABLE);
+        }
+
+        long[] committed = new long[1];
+        exchange.getResponse().beforeCommit(() -> {
+            committed[0] = System.nanoTime();
+            return Mono.empty();
+        });
+        return chain.filter(exchange)
+            .doFinally(signal -> {
+                if (signal == SignalType.CANCEL) {
+                    concurrencyLimiter.release();
+                    return;
+                }
+                HttpStatus status = exchange.getResponse().getStatusCode();
+                boolean failed = signal == SignalType.ON_ERROR || status != null && status.is5xxServerError();
+                concurrencyLimiter.release(start, committed[0] != 0 ? committed[0] : System.nanoTime(), failed);
+            });
+    }
+
+    private String client(ServerWebExchange exchange) {
+        String client = clientHeader != null ? exchange.getRequest().getHeaders().getFirst(clientHeader) : null;
+        if (client != null) {
+            return client;
+        }
+        InetSocketAddress address = exchange.getRequest().getRemoteAddress();
+        return address != null && address.getAddress() != null ? address.getAddress().getHostAddress() : UNKNOWN_CLIENT;
+    }
+
+    private static Mono<Void> reject(ServerWebExchange exchange, HttpStatus status) {
+        ServerHttpResponse response = exchange.getResponse();
+        response.setStatusCode(status);
+        response.getHeaders().setContentLength(0);
+        return response.setComplete();
+    }
+}
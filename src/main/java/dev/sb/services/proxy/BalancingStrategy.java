@@ -0,0 +1,31 @@
+package dev.sb.services.proxy;
+
+/** How {@link UpstreamBalancer} picks an upstream instance for a request */
+public enum BalancingStrategy {
+
+    /** instance with the fewest requests in flight, ties are taken in turn */
+    LEAST_OUTSTANDING("least-outstanding"),
+    /** less loaded of two random instances: nearly as good as least-outstanding, without herding */
+    POWER_OF_TWO_CHOICES("power-of-two-choices");
+
+    private final String name;
+
+    BalancingStrategy(String name) {
+        this.name = name;
+    }
+
+    /** @param name "least-outstanding" or "power-of-two-choices" */
+    public static BalancingStrategy of(String name) {
+        for (BalancingStrategy strategy : values()) {
+            if (strategy.name.equalsIgnoreCase(name)) {
+                return strategy;
+            }
+        }
+        throw new IllegalArgumentException("Unsupported balancing strategy '" + name
+            + "', supported: least-outstanding, power-of-two-choices");
+    }
+
+    public String getName() {
+        return name;
+    }
+}
@@ -0,0 +1,56 @@
+package dev.sb.services.proxy;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Token bucket per client: 'requests-per-second' sustained, up to 'burst' at once.
+ * <p>
+ * Each bucket is a single {@link AtomicLong} updated with compare-and-set (GCRA: the time the bucket is full
+ * again, one emission interval later per admitted request), so admission takes no lock.
+ * Buckets are kept in a bounded cache: idle clients are evicted once their bucket would be full anyway.
+ */
+public class ClientRateLimiter {
+
+    /** nanos per admitted request */
+    private final long interval;
+    /** how far ahead of now the bucket may be drained */
+    private final long tolerance;
+    private final Cache<String, AtomicLong> buckets;
+    /** a new bucket is full */
+    private final Function<String, AtomicLong> newBucket;
+
+    public ClientRateLimiter(double requestsPerSecond, int burst, long maxClients) {
+        this.interval = (long) (TimeUnit.SECONDS.toNanos(1) / requestsPerSecond);
+        this.tolerance = interval * (Math.max(burst, 1) - 1);
+        this.buckets = Caffeine.newBuilder()
+            .maximumSize(maxClients)
+            .expireAfterAccess(Duration.ofNanos(tolerance + interval).plusSeconds(1))
+            .build();
+        this.newBucket = client -> new AtomicLong(System.nanoTime() - tolerance - interval);
+    }
+
+    /**
+     * @param client client identity
+     * @param now    {@link System#nanoTime()}
+     * @return false if the client is over its rate
+     */
+    public boolean tryAcquire(String client, long now) {
+        AtomicLong bucket = buckets.get(client, newBucket);
+        while (true) {
+            long full = bucket.get();
+            long start = full - now > 0 ? full : now;
+            if (start - now > tolerance) {
+                return false;
+            }
+            if (bucket.compareAndSet(full, start + interval)) {
+                return true;
+            }
+        }
+    }
+}
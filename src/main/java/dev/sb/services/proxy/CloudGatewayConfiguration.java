@@ -1,38 +1,321 @@
 package dev.sb.services.proxy;
 
+import dev.sb.services.signing.KeyTool;
+import dev.sb.services.signing.OpenSSLKeyTool;
+import dev.sb.services.signing.PrivateKeyCache;
+import dev.sb.services.signing.ReplayCache;
 import dev.sb.services.signing.RequestSigner;
+import dev.sb.services.signing.SecretKeyTool;
+import dev.sb.services.signing.SignatureCache;
+import dev.sb.services.signing.SignatureFormat;
+import dev.sb.services.signing.SignatureVerifier;
+import dev.sb.services.signing.SigningAlgorithm;
+import dev.sb.services.signing.SigningClock;
+import dev.sb.services.signing.SigningScheduler;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.cloud.gateway.route.RouteLocator;
+import org.springframework.cloud.gateway.route.builder.GatewayFilterSpec;
 import org.springframework.cloud.gateway.route.builder.RouteLocatorBuilder;
+import org.springframework.cloud.gateway.route.builder.UriSpec;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.http.HttpStatus;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.List;
 
 @Configuration
 @Slf4j
 public class CloudGatewayConfiguration {
 
+    private static final String DEFAULT_ROUTE_ID = "signing_route";
+
+    private final SigningClock signingClock;
+    private final SigningScheduler signingScheduler;
+    private final RequestBodySpool requestBodySpool;
+    private final ProxyMetrics proxyMetrics;
+    private final SignatureCache signatureCache;
+    /** created only if a route verifies requests */
+    private final ObjectProvider<ReplayCache> replayCache;
+    private final Duration clockSkew;
+    private final UpstreamHealthChecker upstreamHealthChecker;
+    private final UpstreamClients upstreamClients;
+    private final PrivateKeyCache privateKeyCache;
+    private final boolean fusedSigningFilter;
+
+    public CloudGatewayConfiguration(SigningClock signingClock,
+                                     SigningScheduler signingScheduler,
+                                     RequestBodySpool requestBodySpool,
+                                     ProxyMetrics proxyMetrics,
+                                     SignatureCache signatureCache,
+                                     ObjectProvider<ReplayCache> replayCache,
+                                     @Value("${application.verification.clock-skew:5m}") Duration clockSkew,
+                                     UpstreamHealthChecker upstreamHealthChecker,
+                                     UpstreamClients upstreamClients,
+                                     PrivateKeyCache privateKeyCache,
+                                     @Value("${application.proxy.fused-signing-filter:true}")
+                                         boolean fusedSigningFilter) {
+        this.signingClock = signingClock;
+        this.signingScheduler = signingScheduler;
+        this.requestBodySpool = requestBodySpool;
+        this.proxyMetrics = proxyMetrics;
+        this.signatureCache = signatureCache;
+        this.replayCache = replayCache;
+        this.clockSkew = clockSkew;
+        this.upstreamHealthChecker = upstreamHealthChecker;
+        this.upstreamClients = upstreamClients;
+        this.privateKeyCache = privateKeyCache;
+        this.fusedSigningFilter = fusedSigningFilter;
+    }
+
     @Bean
     public RouteLocator routes(RouteLocatorBuilder builder,
                                RequestSigner signingFilter,
+                               ProxyRoutesProperties proxyRoutes,
                                @Value("${application.gateway.uri}") String gatewayUri,
                                @Value("${application.gateway.path}") String gatewayPath,
-                               @Value("${application.proxy.path}") String proxyPath) {
+                               @Value("${application.proxy.path}") String proxyPath,
+                               @Value("${application.signing.format:draft-cavage}") String signatureFormat) {
 
-        log.info("Configuring routing: {}/** -> {}{}", proxyPath, gatewayUri, gatewayPath);
+        SignatureFormat format = SignatureFormat.of(signatureFormat);
+        log.info("Configuring routing: {}/** -> {}{} ({} signing filter, {} signatures)", proxyPath, gatewayUri,
+            gatewayPath, fusedSigningFilter ? "fused" : "chained", format.getName());
 
-        return builder.routes()
+        // all routes are matched by a single prefix lookup instead of one path pattern per route
+        RouteTable routeTable = new RouteTable().add(proxyPath, DEFAULT_ROUTE_ID);
+        for (ProxyRoutesProperties.Route route : proxyRoutes.getRoutes()) {
+            routeTable.add(route.getPath(), route.getId());
+        }
+
+        LoadBalancingGatewayFilter defaultBalancingFilter = balancingFilter(DEFAULT_ROUTE_ID, gatewayUri,
+            proxyRoutes.getGateway());
+        UpstreamClient defaultUpstreamClient = upstreamClients.of(DEFAULT_ROUTE_ID,
+            proxyRoutes.getGateway().getPool());
+        HedgingRoutingFilter defaultHedgingFilter = hedgingFilter(proxyRoutes.getGateway(), defaultUpstreamClient);
+        AdmissionGatewayFilter defaultAdmissionFilter = admissionFilter(DEFAULT_ROUTE_ID,
+            proxyRoutes.getProxy().getAdmission());
+        ResponseCachingGatewayFilter defaultCachingFilter = cachingFilter(DEFAULT_ROUTE_ID,
+            proxyRoutes.getProxy().getCache());
+        RequestBodyCompression defaultCompression = compression(DEFAULT_ROUTE_ID,
+            proxyRoutes.getProxy().getCompression());
+
+        RouteLocatorBuilder.Builder routes = builder.routes()
             // Postman Echo route is used for testing and debug
             // please do not expose sensitive info through it
-            .route("signing_route", r -> r
-                .path(proxyPath + "/**")
-                .filters(f -> f
-                    .addRequestHeader(ProxyHeaders.X_COMPANY_SERVICE_NAME, "signing-proxy")
-                    .rewritePath(proxyPath + "/(?<segment>.*)", gatewayPath + "/${segment}")
-                    .filter(new AddDateHeaderGatewayFilter(), 0)
-                    .filter(new AddDigestHeaderGatewayFilter(signingFilter), 1)
-                    .filter(new AddSignatureHeaderGatewayFilter(signingFilter), 2))
-                .uri(gatewayUri))
-            .build();
+            .route(DEFAULT_ROUTE_ID, r -> r
+                .predicate(routeTable.predicate(DEFAULT_ROUTE_ID))
+                .filters(f -> {
+                    admit(f, defaultAdmissionFilter);
+                    cache(f, defaultCachingFilter);
+                    upstreamFilters(f, defaultBalancingFilter, defaultHedgingFilter, defaultUpstreamClient);
+                    return signingFilters(f, proxyPath, gatewayPath, signingFilter, format,
+                        ProxyRoutesProperties.DEFAULT_DIGEST_METHODS, defaultCompression, fusedSigningFilter);
+                })
+                .uri(gatewayUri));
+
+        for (ProxyRoutesProperties.Route route : proxyRoutes.getRoutes()) {
+            log.info("Configuring routing: {}/** -> {}{} ({} route {})", route.getPath(), route.getGateway().getUri(),
+                route.getGateway().getPath(), route.getType(), route.getId());
+
+            switch (route.getType()) {
+                case ProxyRoutesProperties.SIGNING:
+                    signingRoute(routes, routeTable, route);
+                    break;
+                case ProxyRoutesProperties.VERIFYING:
+                    verifyingRoute(routes, routeTable, route);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unsupported type '" + route.getType() + "' of route "
+                        + route.getId() + ", supported: signing, verifying");
+            }
+        }
+
+        return routes.build();
+    }
+
+    private void signingRoute(RouteLocatorBuilder.Builder routes, RouteTable routeTable,
+                              ProxyRoutesProperties.Route route) {
+        ProxyRoutesProperties.Signing signing = route.getSigning();
+        SigningAlgorithm algorithm = SigningAlgorithm.of(signing.getAlgorithm());
+        KeyTool keyTool = algorithm == SigningAlgorithm.HMAC_SHA256
+            ? new SecretKeyTool(signing.getSecret(), signing.getPrivateKeyId())
+            : new OpenSSLKeyTool(privateKeyCache.privateKey(signing.getPrivateKey(), signing.getPrivateKeyPass()),
+                signing.getPrivateKeyId(), signing.getCertificate());
+        RequestSigner requestSigner = new RequestSigner(keyTool, algorithm, signing.getSignedHeaderPrefix(),
+            signing.getComponents(), signatureCache);
+        SignatureFormat routeFormat = SignatureFormat.of(signing.getFormat());
+        ResponseVerifyingGatewayFilter responseFilter = responseVerifyingFilter(route.getResponseVerification());
+        LoadBalancingGatewayFilter balancingFilter = balancingFilter(route.getId(), route.getGateway().getUri(),
+            route.getGateway());
+        UpstreamClient upstreamClient = upstreamClients.of(route.getId(), route.getGateway().getPool());
+        HedgingRoutingFilter hedgingFilter = hedgingFilter(route.getGateway(), upstreamClient);
+        AdmissionGatewayFilter admissionFilter = admissionFilter(route.getId(), route.getAdmission());
+        ResponseCachingGatewayFilter cachingFilter = cachingFilter(route.getId(), route.getCache());
+        RequestBodyCompression compression = compression(route.getId(), route.getCompression());
+        boolean fused = route.getFusedSigningFilter() != null ? route.getFusedSigningFilter() : fusedSigningFilter;
+
+        routes.route(route.getId(), r -> r
+            .predicate(routeTable.predicate(route.getId()))
+            .filters(f -> {
+                admit(f, admissionFilter);
+                cache(f, cachingFilter);
+                upstreamFilters(f, balancingFilter, hedgingFilter, upstreamClient);
+                if (responseFilter != null) {
+                    f.filter(responseFilter, ResponseVerifyingGatewayFilter.ORDER);
+                }
+                return signingFilters(f, route.getPath(), route.getGateway().getPath(), requestSigner,
+                    routeFormat, signing.getDigestMethods(), compression, fused);
+            })
+            .uri(route.getGateway().getUri()));
+    }
+
+    private ResponseVerifyingGatewayFilter responseVerifyingFilter(
+        ProxyRoutesProperties.ResponseVerification responseVerification) {
+        if (responseVerification.getCertificates().isEmpty()) {
+            return null;
+        }
+        // responses are not checked for replays
+        return new ResponseVerifyingGatewayFilter(
+            signatureVerifier(responseVerification.getCertificates(), null), signingScheduler, proxyMetrics,
+            HttpStatus.valueOf(responseVerification.getFailureStatus()));
+    }
+
+    private SignatureVerifier signatureVerifier(List<ProxyRoutesProperties.Certificate> certificates,
+                                                ReplayCache replayCache) {
+        SignatureVerifier signatureVerifier = new SignatureVerifier(signingClock, clockSkew, replayCache);
+        for (ProxyRoutesProperties.Certificate certificate : certificates) {
+            signatureVerifier.addCertificate(certificate.getKeyId(), certificate.getCertificate());
+        }
+        return signatureVerifier;
+    }
+
+    private void verifyingRoute(RouteLocatorBuilder.Builder routes, RouteTable routeTable,
+                                ProxyRoutesProperties.Route route) {
+        ProxyRoutesProperties.Verification verification = route.getVerification();
+        SignatureVerifier signatureVerifier = signatureVerifier(verification.getCertificates(),
+            replayCache.getObject());
+        LoadBalancingGatewayFilter balancingFilter = balancingFilter(route.getId(), route.getGateway().getUri(),
+            route.getGateway());
+        UpstreamClient upstreamClient = upstreamClients.of(route.getId(), route.getGateway().getPool());
+        HedgingRoutingFilter hedgingFilter = hedgingFilter(route.getGateway(), upstreamClient);
+        AdmissionGatewayFilter admissionFilter = admissionFilter(route.getId(), route.getAdmission());
+
+        routes.route(route.getId(), r -> r
+            .predicate(routeTable.predicate(route.getId()))
+            // verified with the path partner called, so before the path is rewritten
+            .filters(f -> upstreamFilters(admit(f, admissionFilter), balancingFilter, hedgingFilter, upstreamClient)
+                .filter(new VerifyingGatewayFilter(signatureVerifier, signingScheduler, requestBodySpool,
+                    proxyMetrics, verification.getDigestMethods()), 0)
+                .rewritePath(route.getPath() + "/(?<segment>.*)", route.getGateway().getPath() + "/${segment}"))
+            .uri(route.getGateway().getUri()));
+    }
+
+    /** null if the route has a single upstream ('uri') */
+    private LoadBalancingGatewayFilter balancingFilter(String routeId, String uri,
+                                                       ProxyRoutesProperties.Gateway gateway) {
+        if (gateway.getInstances().isEmpty()) {
+            return null;
+        }
+        UpstreamBalancer balancer = new UpstreamBalancer(routeId, gateway.getInstances(), gateway.getBalancer());
+        upstreamHealthChecker.register(balancer);
+        log.info("Balancing route {}: {} ({})", routeId, gateway.getInstances(), balancer.getStrategy().getName());
+        return new LoadBalancingGatewayFilter(balancer, URI.create(uri));
+    }
+
+    /** null if the route has no admission limits */
+    private AdmissionGatewayFilter admissionFilter(String routeId, ProxyRoutesProperties.Admission admission) {
+        ProxyRoutesProperties.RateLimit rateLimit = admission.getRateLimit();
+        ProxyRoutesProperties.ConcurrencyLimit concurrencyLimit = admission.getConcurrencyLimit();
+        ClientRateLimiter rateLimiter = rateLimit.getRequestsPerSecond() > 0
+            ? new ClientRateLimiter(rateLimit.getRequestsPerSecond(), rateLimit.getBurst(), rateLimit.getMaxClients())
+            : null;
+        ConcurrencyLimiter concurrencyLimiter = concurrencyLimit.isEnabled()
+            ? new ConcurrencyLimiter(concurrencyLimit.getInitialLimit(), concurrencyLimit.getMinLimit(),
+                concurrencyLimit.getMaxLimit(), concurrencyLimit.getBackoffRatio(),
+                concurrencyLimit.getLatencyThreshold())
+            : null;
+        if (rateLimiter == null && concurrencyLimiter == null) {
+            return null;
+        }
+        log.info("Admission of route {}: {} requests/s per client, concurrency limit {}", routeId,
+            rateLimiter != null ? rateLimit.getRequestsPerSecond() : "unlimited",
+            concurrencyLimiter != null ? "adaptive" : "none");
+        return new AdmissionGatewayFilter(rateLimiter, rateLimit.getClientHeader(), concurrencyLimiter,
+            proxyMetrics);
+    }
+
+    private static GatewayFilterSpec admit(GatewayFilterSpec f, AdmissionGatewayFilter admissionFilter) {
+        return admissionFilter != null ? f.filter(admissionFilter, AdmissionGatewayFilter.ORDER) : f;
+    }
+
+    /** null if responses of the route are not cached */
+    private ResponseCachingGatewayFilter cachingFilter(String routeId, ProxyRoutesProperties.Cache cache) {
+        if (!cache.isEnabled()) {
+            return null;
+        }
+        ResponseCache responseCache = new ResponseCache(cache);
+        proxyMetrics.monitorResponseCache(routeId, responseCache);
+        log.info("Response cache of route {}: {}, key headers {}", routeId, cache.getMaxSize(), cache.getKeyHeaders());
+        return new ResponseCachingGatewayFilter(responseCache, proxyMetrics);
+    }
+
+    private static GatewayFilterSpec cache(GatewayFilterSpec f, ResponseCachingGatewayFilter cachingFilter) {
+        return cachingFilter != null ? f.filter(cachingFilter, ResponseCachingGatewayFilter.ORDER) : f;
+    }
+
+    /** null if request bodies of the route are sent as received */
+    private RequestBodyCompression compression(String routeId, ProxyRoutesProperties.Compression compression) {
+        if (!compression.isEnabled()) {
+            return null;
+        }
+        log.info("Request bodies of route {}: {} (level {}) from {}, {}", routeId, compression.getAlgorithm(),
+            compression.getLevel(), compression.getMinSize(), compression.getMediaTypes());
+        return new RequestBodyCompression(compression, proxyMetrics);
+    }
+
+    /** null if requests of the route are neither retried nor hedged */
+    private HedgingRoutingFilter hedgingFilter(ProxyRoutesProperties.Gateway gateway, UpstreamClient upstreamClient) {
+        ProxyRoutesProperties.Retry retry = gateway.getRetry();
+        if (retry.getRetries() <= 0 && !retry.getHedging().isEnabled()) {
+            return null;
+        }
+        return new HedgingRoutingFilter(upstreamClient, retry, proxyMetrics);
+    }
+
+    private GatewayFilterSpec upstreamFilters(GatewayFilterSpec f, LoadBalancingGatewayFilter balancingFilter,
+                                              HedgingRoutingFilter hedgingFilter, UpstreamClient upstreamClient) {
+        if (balancingFilter != null) {
+            f.filter(balancingFilter, LoadBalancingGatewayFilter.ORDER);
+        }
+        if (hedgingFilter != null) {
+            f.filter(hedgingFilter, HedgingRoutingFilter.ORDER);
+        }
+        // the shared client is used by NettyRoutingFilter
+        if (upstreamClient != upstreamClients.shared()) {
+            f.filter(new RoutingGatewayFilter(upstreamClient), RoutingGatewayFilter.ORDER);
+        }
+        return f;
+    }
+
+    private UriSpec signingFilters(GatewayFilterSpec f, String proxyPath, String gatewayPath,
+                                   RequestSigner requestSigner, SignatureFormat format,
+                                   List<String> digestMethods, RequestBodyCompression compression,
+                                   boolean fused) {
+        f.addRequestHeader(ProxyHeaders.X_COMPANY_SERVICE_NAME, "signing-proxy")
+            .rewritePath(proxyPath + "/(?<segment>.*)", gatewayPath + "/${segment}");
+        // chained filters produce draft-cavage headers only
+        if (fused || format == SignatureFormat.RFC9421) {
+            // Date, Digest and Signature in a single request mutation
+            return f.filter(new SigningGatewayFilter(signingClock, requestSigner, signingScheduler,
+                requestBodySpool, proxyMetrics, format, digestMethods, compression), 0);
+        }
+        return f
+            .filter(new AddDateHeaderGatewayFilter(signingClock), 0)
+            .filter(new AddDigestHeaderGatewayFilter(requestSigner, signingScheduler, requestBodySpool,
+                proxyMetrics, digestMethods, compression), 1)
+            .filter(new AddSignatureHeaderGatewayFilter(requestSigner, signingScheduler, proxyMetrics), 2);
     }
 }
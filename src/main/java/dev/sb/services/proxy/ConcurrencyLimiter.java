@@ -0,0 +1,81 @@
+package dev.sb.services.proxy;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Adaptive limit of requests in flight of a route (AIMD).
+ * <p>
+ * The limit grows by one when a request succeeds while the route is at least half busy and is cut by
+ * 'backoff-ratio' when a request fails (error, 5xx) or takes longer than 'latency-threshold', so the route
+ * takes as many requests as the upstream (and signing workers) keep up with. Requests over the limit are rejected.
+ * <p>
+ * The limit is cut at most once per window of requests: a request started before the last decrease was admitted
+ * under the old limit, its failure or latency does not cut the limit again (a burst of slow responses backs off
+ * once, not down to 'min-limit').
+ */
+public class ConcurrencyLimiter {
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger limit;
+    private final int minLimit;
+    private final int maxLimit;
+    private final double backoffRatio;
+    private final long latencyThreshold;
+    /** {@link System#nanoTime()} of the last decrease */
+    private final AtomicLong lastDecrease;
+
+    public ConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, double backoffRatio,
+                              Duration latencyThreshold) {
+        this.limit = new AtomicInteger(initialLimit);
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.backoffRatio = backoffRatio;
+        this.latencyThreshold = latencyThreshold.toNanos();
+        this.lastDecrease = new AtomicLong(System.nanoTime());
+    }
+
+    /** @return false if the route is at its limit, {@link #release} has to follow true */
+    public boolean tryAcquire() {
+        while (true) {
+            int current = inFlight.get();
+            if (current >= limit.get()) {
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * @param start  {@link System#nanoTime()} when the request was admitted
+     * @param end    {@link System#nanoTime()} when the response headers were received (or the request ended)
+     * @param failed error or 5xx response
+     */
+    public void release(long start, long end, boolean failed) {
+        int current = inFlight.getAndDecrement();
+        if (failed || end - start > latencyThreshold) {
+            long last = lastDecrease.get();
+            if (start - last >= 0 && lastDecrease.compareAndSet(last, end)) {
+                limit.updateAndGet(l -> Math.max(minLimit, (int) (l * backoffRatio)));
+            }
+        } else if (2 * current >= limit.get()) {
+            limit.updateAndGet(l -> Math.min(maxLimit, l + 1));
+        }
+    }
+
+    /** Request ended without a result (cancelled), the limit is not changed */
+    public void release() {
+        inFlight.decrementAndGet();
+    }
+
+    public int getLimit() {
+        return limit.get();
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+}
@@ -0,0 +1,273 @@
+package dev.sb.services.proxy;
+
+import io.netty.handler.codec.http.HttpMethod;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.cloud.gateway.filter.GatewayFilter;
+import org.springframework.cloud.gateway.filter.GatewayFilterChain;
+import org.springframework.cloud.gateway.filter.NettyRoutingFilter;
+import org.springframework.cloud.gateway.support.ServerWebExchangeUtils;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.netty.Connection;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.http.client.HttpClientResponse;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Routes idempotent requests (no body, 'methods') of a route in place of {@link NettyRoutingFilter},
+ * retrying failed attempts and hedging slow ones.
+ * <p>
+ * Runs after the request is signed, so every attempt is sent with the same 'Date', 'Digest' and 'Signature'.
+ * A hedged copy is sent (to another instance of a balanced route) when the first attempt has no response
+ * after the 'percentile' of recent latencies, the first good response wins and the other attempt is cancelled.
+ * Retries and hedged copies are taken from the {@link RetryBudget} of the route.
+ * Attempts are sent with the {@link UpstreamClient} of the route, which hands the winning response over
+ * to {@link org.springframework.cloud.gateway.filter.NettyWriteResponseFilter}.
+ */
+@Slf4j
+public class HedgingRoutingFilter implements GatewayFilter {
+
+    /** before {@link RoutingGatewayFilter} and {@link NettyRoutingFilter}, which skip requests routed here */
+    public static final int ORDER = RoutingGatewayFilter.ORDER - 1;
+
+    /**
+     * Set on requests routed here: the outcome of every attempt is recorded against its own instance,
+     * {@link LoadBalancingGatewayFilter} records nothing for them
+     */
+    public static final String ROUTED_ATTR = HedgingRoutingFilter.class.getName() + ".routed";
+
+    private final UpstreamClient upstreamClient;
+    private final ProxyRoutesProperties.Retry retry;
+    private final Duration timeout;
+    private final RetryBudget retryBudget;
+    /** null if hedging is disabled */
+    private final LatencyPercentile hedgeDelay;
+    private final ProxyMetrics proxyMetrics;
+
+    public HedgingRoutingFilter(UpstreamClient upstreamClient,
+                                ProxyRoutesProperties.Retry retry,
+                                ProxyMetrics proxyMetrics) {
+        this.upstreamClient = upstreamClient;
+        this.retry = retry;
+        this.timeout = retry.getPerTryTimeout() != null
+            ? retry.getPerTryTimeout()
+            : upstreamClient.getResponseTimeout();
+        this.retryBudget = new RetryBudget(retry.getBudget().getRatio(), retry.getBudget().getMinPerSecond());
+        ProxyRoutesProperties.Hedging hedging = retry.getHedging();
+        this.hedgeDelay = hedging.isEnabled()
+            ? new LatencyPercentile(hedging.getPercentile(), hedging.getMinDelay(), hedging.getMaxDelay())
+            : null;
+        this.proxyMetrics = proxyMetrics;
+    }
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, GatewayFilterChain chain) {
+        URI url = exchange.getRequiredAttribute(ServerWebExchangeUtils.GATEWAY_REQUEST_URL_ATTR);
+        ServerHttpRequest request = exchange.getRequest();
+        if (ServerWebExchangeUtils.isAlreadyRouted(exchange)
+            || !"http".equals(url.getScheme()) && !"https".equals(url.getScheme())
+            || !retry.getMethods().contains(request.getMethodValue())
+            || hasBody(request.getHeaders())) {
+            return chain.filter(exchange);
+        }
+        ServerWebExchangeUtils.setAlreadyRouted(exchange);
+        exchange.getAttributes().put(ROUTED_ATTR, true);
+        retryBudget.request(System.nanoTime());
+
+        Request upstreamRequest = new Request(HttpMethod.valueOf(request.getMethodValue()), url,
+            upstreamClient.withHeaders(exchange),
+            exchange.getAttribute(LoadBalancingGatewayFilter.BALANCER_ATTR),
+            exchange.getAttribute(LoadBalancingGatewayFilter.INSTANCE_ATTR));
+
+        return send(upstreamRequest, 0, upstreamRequest.instance)
+            .doOnNext(attempt -> upstreamClient.applyResponse(exchange, attempt.response, attempt.connection))
+            .then(chain.filter(exchange));
+    }
+
+    private static boolean hasBody(HttpHeaders headers) {
+        return headers.getContentLength() > 0 || headers.containsKey(HttpHeaders.TRANSFER_ENCODING);
+    }
+
+    /**
+     * @param instance instance of the attempt (the first one is chosen by {@link LoadBalancingGatewayFilter}),
+     *                 null if the route is not balanced
+     */
+    private Mono<Attempt> send(Request request, int retries, UpstreamInstance instance) {
+        return hedged(request, instance)
+            .flatMap(attempt -> {
+                if (!isRetryable(attempt) || !retryAllowed(retries)) {
+                    return Mono.just(attempt);
+                }
+                log.debug("Retrying {} {}: HTTP {}", request.method, request.url, attempt.response.status().code());
+                attempt.dispose();
+                return retry(request, retries, instance);
+            })
+            .onErrorResume(e -> retryAllowed(retries),
+                e -> {
+                    log.debug("Retrying {} {}: {}", request.method, request.url, e.toString());
+                    return retry(request, retries, instance);
+                });
+    }
+
+    private Mono<Attempt> retry(Request request, int retries, UpstreamInstance previous) {
+        proxyMetrics.recordRetry();
+        return Mono.defer(() -> send(request, retries + 1, request.otherInstance(previous)))
+            .delaySubscription(retry.getBackoff());
+    }
+
+    private boolean retryAllowed(int retries) {
+        if (retries >= retry.getRetries()) {
+            return false;
+        }
+        if (!retryBudget.tryRetry(System.nanoTime())) {
+            proxyMetrics.recordRetryBudgetExhausted();
+            return false;
+        }
+        return true;
+    }
+
+    /** The attempt, and its hedged copy if there is no response in time: first good response wins */
+    private Mono<Attempt> hedged(Request request, UpstreamInstance instance) {
+        Mono<Attempt> first = attempt(request, instance);
+        if (hedgeDelay == null) {
+            return first;
+        }
+
+        Mono<Attempt> hedge = Mono.defer(() -> {
+            if (!retryBudget.tryRetry(System.nanoTime())) {
+                proxyMetrics.recordRetryBudgetExhausted();
+                return Mono.<Attempt>empty();
+            }
+            proxyMetrics.recordHedge();
+            return attempt(request, request.otherInstance(instance));
+        })
+            .delaySubscription(Duration.ofNanos(hedgeDelay.get(System.nanoTime())));
+
+        // a retryable response is kept in case the other attempt is no better
+        AtomicReference<Attempt> fallback = new AtomicReference<>();
+        return Flux.mergeDelayError(1, first, hedge)
+            .filter(attempt -> {
+                if (!isRetryable(attempt)) {
+                    return true;
+                }
+                Attempt previous = fallback.getAndSet(attempt);
+                if (previous != null) {
+                    previous.dispose();
+                }
+                return false;
+            })
+            // the other attempt is cancelled
+            .next()
+            .doOnDiscard(Attempt.class, Attempt::dispose)
+            .doOnNext(winner -> {
+                Attempt retryable = fallback.getAndSet(null);
+                if (retryable != null) {
+                    retryable.dispose();
+                }
+            })
+            .switchIfEmpty(Mono.fromSupplier(() -> fallback.getAndSet(null)))
+            .onErrorResume(e -> fallback.get() != null, e -> Mono.just(fallback.getAndSet(null)));
+    }
+
+    private Mono<Attempt> attempt(Request request, UpstreamInstance instance) {
+        long start = System.nanoTime();
+        URI url = instance != null ? LoadBalancingGatewayFilter.url(request.url, instance) : request.url;
+        // the first attempt to the balancer's instance was started by LoadBalancingGatewayFilter
+        if (instance != null && !request.startedByBalancer(instance)) {
+            instance.start();
+        }
+        // the winner is also cancelled by next() after its response, that is not a cancelled attempt
+        AtomicBoolean finished = new AtomicBoolean();
+
+        Mono<Attempt> sent = request.client
+            .request(request.method)
+            .uri(url.toASCIIString())
+            .responseConnection((response, connection) -> Mono.just(new Attempt(response, connection)))
+            .singleOrEmpty();
+        return UpstreamClient.timeout(sent, timeout)
+            .doOnNext(attempt -> {
+                long now = System.nanoTime();
+                boolean retryable = isRetryable(attempt);
+                if (!retryable && hedgeDelay != null) {
+                    hedgeDelay.record(now - start);
+                }
+                finish(request, instance, finished, start, attempt.response.status().code() >= 500);
+            })
+            .doOnError(e -> finish(request, instance, finished, start, true))
+            // losing hedged attempt: its latency is not known, only that it is slower than the winner's
+            .doOnCancel(() -> {
+                if (instance != null && finished.compareAndSet(false, true)) {
+                    request.balancer.cancel(instance);
+                }
+            });
+    }
+
+    private static void finish(Request request, UpstreamInstance instance, AtomicBoolean finished, long start,
+                               boolean failed) {
+        if (instance != null && finished.compareAndSet(false, true)) {
+            long now = System.nanoTime();
+            request.balancer.finish(instance, now - start, failed, now);
+        }
+    }
+
+    private boolean isRetryable(Attempt attempt) {
+        return retry.getStatuses().contains(attempt.response.status().code());
+    }
+
+    /** Everything an attempt is sent with, shared by all attempts of a request */
+    private static class Request {
+
+        private final HttpMethod method;
+        private final URI url;
+        /** client sending the filtered request headers, including signature headers */
+        private final HttpClient client;
+        private final UpstreamBalancer balancer;
+        private final UpstreamInstance instance;
+        private final AtomicBoolean balancerStart;
+
+        Request(HttpMethod method, URI url, HttpClient client, UpstreamBalancer balancer, UpstreamInstance instance) {
+            this.method = method;
+            this.url = url;
+            this.client = client;
+            this.balancer = balancer;
+            this.instance = instance;
+            this.balancerStart = new AtomicBoolean(instance != null);
+        }
+
+        /** The first attempt to the instance of {@link LoadBalancingGatewayFilter}, already started by it */
+        boolean startedByBalancer(UpstreamInstance attempted) {
+            return attempted == instance && balancerStart.getAndSet(false);
+        }
+
+        /** Instance of another attempt, null if the route is not balanced */
+        UpstreamInstance otherInstance(UpstreamInstance previous) {
+            if (balancer == null) {
+                return null;
+            }
+            return balancer.chooseOther(previous, System.nanoTime());
+        }
+    }
+
+    /** Response headers of an attempt, its body is still to be read from the connection */
+    private static class Attempt {
+
+        private final HttpClientResponse response;
+        private final Connection connection;
+
+        Attempt(HttpClientResponse response, Connection connection) {
+            this.response = response;
+            this.connection = connection;
+        }
+
+        void dispose() {
+            connection.dispose();
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package dev.sb.services.proxy;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Percentile of recent upstream latencies, used as the delay of hedged requests.
+ * <p>
+ * The last {@value #SAMPLES} latencies are kept in a ring, the percentile is recomputed from them at most
+ * once per second by the request that finds it stale; in between, reading it is a volatile read.
+ */
+public class LatencyPercentile {
+
+    static final int SAMPLES = 1024;
+    /** fewer samples are not a reliable percentile */
+    static final int MIN_SAMPLES = 100;
+
+    private static final long REFRESH_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final AtomicLongArray samples = new AtomicLongArray(SAMPLES);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong nextRefresh = new AtomicLong();
+    private final double percentile;
+    private final long min;
+    private final long max;
+
+    private volatile long value;
+
+    /**
+     * @param percentile e.g. 0.95
+     * @param min        lower bound of the value
+     * @param max        upper bound of the value, and the value until there are enough samples
+     */
+    public LatencyPercentile(double percentile, Duration min, Duration max) {
+        this.percentile = percentile;
+        this.min = min.toNanos();
+        this.max = max.toNanos();
+        this.value = this.max;
+        this.nextRefresh.set(System.nanoTime());
+    }
+
+    /** @param nanos latency of a response */
+    public void record(long nanos) {
+        long n = count.getAndIncrement();
+        samples.set((int) (n & (SAMPLES - 1)), nanos);
+    }
+
+    /**
+     * @param now {@link System#nanoTime()}
+     * @return nanos
+     */
+    public long get(long now) {
+        long refresh = nextRefresh.get();
+        if (now - refresh >= 0 && nextRefresh.compareAndSet(refresh, now + REFRESH_NANOS)) {
+            value = compute();
+        }
+        return value;
+    }
+
+    private long compute() {
+        int size = (int) Math.min(count.get(), SAMPLES);
+        if (size < MIN_SAMPLES) {
+            return max;
+        }
+        long[] sorted = new long[size];
+        for (int i = 0; i < size; i++) {
+            sorted[i] = samples.get(i);
+        }
+        Arrays.sort(sorted);
+        long latency = sorted[Math.min(size - 1, (int) Math.ceil(percentile * size) - 1)];
+        return Math.max(min, Math.min(max, latency));
+    }
+}
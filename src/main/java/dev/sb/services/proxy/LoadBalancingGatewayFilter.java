@@ -0,0 +1,96 @@
+package dev.sb.services.proxy;
+
+import org.springframework.cloud.gateway.filter.GatewayFilter;
+import org.springframework.cloud.gateway.filter.GatewayFilterChain;
+import org.springframework.cloud.gateway.filter.NettyWriteResponseFilter;
+import org.springframework.cloud.gateway.filter.RouteToRequestUrlFilter;
+import org.springframework.cloud.gateway.support.ServerWebExchangeUtils;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.util.UriComponentsBuilder;
+import reactor.core.publisher.Mono;
+
+import java.net.URI;
+
+/**
+ * Sends the request to an instance chosen by {@link UpstreamBalancer}: scheme, host and port of the request URL
+ * are replaced, path and query are kept.
+ * <p>
+ * Instances are addresses of the same upstream, so 'Host' header keeps the authority of the route URI,
+ * the one signatures (RFC 9421 '@authority') are made for.
+ * Latency is measured until the response headers are received: the routing filter completes the chain then,
+ * before {@link NettyWriteResponseFilter} writes the body to the client. Connection errors and 5xx responses
+ * are failures, a request cancelled before its response leaves no latency sample.
+ * Requests routed by {@link HedgingRoutingFilter} are recorded there, attempt by attempt.
+ */
+public class LoadBalancingGatewayFilter implements GatewayFilter {
+
+    /** request URL is set by {@link RouteToRequestUrlFilter} */
+    public static final int ORDER = RouteToRequestUrlFilter.ROUTE_TO_URL_FILTER_ORDER + 1;
+
+    /** {@link UpstreamBalancer} of the route, for hedged and retried requests */
+    public static final String BALANCER_ATTR = LoadBalancingGatewayFilter.class.getName() + ".balancer";
+    /** {@link UpstreamInstance} the request is sent to */
+    public static final String INSTANCE_ATTR = LoadBalancingGatewayFilter.class.getName() + ".instance";
+
+    private final UpstreamBalancer balancer;
+    private final String host;
+
+    public LoadBalancingGatewayFilter(UpstreamBalancer balancer, URI routeUri) {
+        this.balancer = balancer;
+        this.host = routeUri.getPort() < 0 ? routeUri.getHost() : routeUri.getHost() + ':' + routeUri.getPort();
+    }
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, GatewayFilterChain chain) {
+        URI url = exchange.getRequiredAttribute(ServerWebExchangeUtils.GATEWAY_REQUEST_URL_ATTR);
+        long start = System.nanoTime();
+        UpstreamInstance instance = balancer.choose(start);
+
+        exchange.getAttributes().put(ServerWebExchangeUtils.GATEWAY_REQUEST_URL_ATTR, url(url, instance));
+        exchange.getAttributes().put(BALANCER_ATTR, balancer);
+        exchange.getAttributes().put(INSTANCE_ATTR, instance);
+        exchange.getAttributes().put(ServerWebExchangeUtils.PRESERVE_HOST_HEADER_ATTRIBUTE, true);
+        ServerHttpRequest request = exchange.getRequest().mutate()
+            .headers(headers -> headers.set(HttpHeaders.HOST, host))
+            .build();
+
+        instance.start();
+        // recorded before the completion reaches NettyWriteResponseFilter (not in doFinally, after the body is sent)
+        return chain.filter(exchange.mutate().request(request).build())
+            .doOnSuccess(v -> {
+                HttpStatus status = exchange.getResponse().getStatusCode();
+                finish(exchange, instance, start, status != null && status.is5xxServerError());
+            })
+            .doOnError(e -> finish(exchange, instance, start, true))
+            .doOnCancel(() -> {
+                if (!isHedged(exchange)) {
+                    balancer.cancel(instance);
+                }
+            });
+    }
+
+    private void finish(ServerWebExchange exchange, UpstreamInstance instance, long start, boolean failed) {
+        if (!isHedged(exchange)) {
+            long now = System.nanoTime();
+            balancer.finish(instance, now - start, failed, now);
+        }
+    }
+
+    private static boolean isHedged(ServerWebExchange exchange) {
+        return exchange.getAttributes().containsKey(HedgingRoutingFilter.ROUTED_ATTR);
+    }
+
+    /** Request URL with scheme, host and port of the instance */
+    static URI url(URI url, UpstreamInstance instance) {
+        URI instanceUri = instance.getUri();
+        return UriComponentsBuilder.fromUri(url)
+            .scheme(instanceUri.getScheme())
+            .host(instanceUri.getHost())
+            .port(instanceUri.getPort())
+            .build(true)
+            .toUri();
+    }
+}
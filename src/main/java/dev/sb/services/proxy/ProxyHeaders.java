@@ -4,6 +4,9 @@ public class ProxyHeaders {
     public static final String DATE = "Date";
     public static final String DIGEST = "Digest";
     public static final String SIGNATURE = "Signature";
+    // RFC 9421 and RFC 9530
+    public static final String SIGNATURE_INPUT = "Signature-Input";
+    public static final String CONTENT_DIGEST = "Content-Digest";
 
     // note that we try to sign only X-COMPANY- headers (check RequestSigner)
     public static final String X_COMPANY_SERVICE_NAME = "X-COMPANY-SERVICE-NAME";
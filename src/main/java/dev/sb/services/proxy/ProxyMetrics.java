@@ -0,0 +1,241 @@
+package dev.sb.services.proxy;
+
+import dev.sb.services.signing.KeyToolException;
+import dev.sb.services.signing.RequestSignerException;
+import dev.sb.services.signing.SignatureVerificationException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of each stage of the signing (verifying) filter chain, request body sizes, signing failures,
+ * rejected inbound signatures, requests rejected by admission limits, upstream attempts beyond the first one
+ * (retries and hedged copies), revalidations of cached responses and compression of request bodies.
+ * <p>
+ * All meters are registered up front, so recording is a plain update of an existing meter:
+ * no tag arrays, no registry lookups and no {@link Timer.Sample} objects per request.
+ * Stages are timed with {@link System#nanoTime()} taken by the caller.
+ */
+@Component
+public class ProxyMetrics {
+
+    private final MeterRegistry meterRegistry;
+    private final Timer bodyTimer;
+    private final Timer digestTimer;
+    private final Timer signingTimer;
+    private final Timer verificationTimer;
+    private final Timer responseVerificationTimer;
+    private final Timer upstreamTimer;
+    private final Timer compressionTimer;
+    private final DistributionSummary compressionRatio;
+    private final DistributionSummary bodySize;
+    private final Counter requestSignerFailures;
+    private final Counter keyToolFailures;
+    private final Counter verificationFailures;
+    private final Counter responseVerificationFailures;
+    private final Counter retries;
+    private final Counter hedges;
+    private final Counter retryBudgetExhausted;
+    private final Counter rateLimited;
+    private final Counter concurrencyLimited;
+    private final Counter notModified;
+    private final Counter modified;
+
+    public ProxyMetrics(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+        this.bodyTimer = stageTimer(meterRegistry, "body");
+        this.digestTimer = stageTimer(meterRegistry, "digest");
+        this.signingTimer = stageTimer(meterRegistry, "signing");
+        this.verificationTimer = stageTimer(meterRegistry, "verification");
+        this.responseVerificationTimer = stageTimer(meterRegistry, "response-verification");
+        this.upstreamTimer = stageTimer(meterRegistry, "upstream");
+        this.compressionTimer = stageTimer(meterRegistry, "compression");
+        this.compressionRatio = DistributionSummary.builder("proxy.request.compression.ratio")
+            .description("Size of request bodies divided by their compressed size")
+            .publishPercentiles(0.5, 0.9)
+            .register(meterRegistry);
+        this.bodySize = DistributionSummary.builder("proxy.request.body.size")
+            .description("Size of request bodies")
+            .baseUnit("bytes")
+            .publishPercentileHistogram()
+            .register(meterRegistry);
+        this.requestSignerFailures = failureCounter(meterRegistry, RequestSignerException.class);
+        this.keyToolFailures = failureCounter(meterRegistry, KeyToolException.class);
+        this.verificationFailures = Counter.builder("proxy.verification.failures")
+            .description("Inbound requests rejected because of missing, invalid or replayed signature")
+            .register(meterRegistry);
+        this.responseVerificationFailures = Counter.builder("proxy.response.verification.failures")
+            .description("Upstream responses rejected because of missing or invalid signature or digest")
+            .register(meterRegistry);
+        this.retries = attemptCounter(meterRegistry, "retry");
+        this.hedges = attemptCounter(meterRegistry, "hedge");
+        this.retryBudgetExhausted = Counter.builder("proxy.retry.budget.exhausted")
+            .description("Retries and hedged copies not sent because the retry budget of the route was exhausted")
+            .register(meterRegistry);
+        this.rateLimited = rejectedCounter(meterRegistry, "rate-limit");
+        this.concurrencyLimited = rejectedCounter(meterRegistry, "concurrency-limit");
+        this.notModified = revalidationCounter(meterRegistry, "not-modified");
+        this.modified = revalidationCounter(meterRegistry, "modified");
+    }
+
+    /**
+     * @param start {@link System#nanoTime()} when the body started to be read
+     * @return nanos spent reading the body
+     */
+    public long recordBody(long start, long size) {
+        bodySize.record(size);
+        return record(bodyTimer, start);
+    }
+
+    /**
+     * @param start {@link System#nanoTime()} when the digest calculation started
+     * @return nanos spent
+     */
+    public long recordDigest(long start) {
+        return record(digestTimer, start);
+    }
+
+    /**
+     * @param start {@link System#nanoTime()} when the signature calculation started
+     * @return nanos spent
+     */
+    public long recordSigning(long start) {
+        return record(signingTimer, start);
+    }
+
+    /**
+     * @param start {@link System#nanoTime()} when the signature verification started
+     * @return nanos spent
+     */
+    public long recordVerification(long start) {
+        return record(verificationTimer, start);
+    }
+
+    /**
+     * @param nanos time spent verifying response signature and digesting its body,
+     *              excluding the time spent waiting for the body
+     */
+    public void recordResponseVerification(long nanos) {
+        responseVerificationTimer.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordResponseVerificationFailure() {
+        responseVerificationFailures.increment();
+    }
+
+    /** @param start {@link System#nanoTime()} when the signed request was passed to the routing filter */
+    public void recordUpstream(long start) {
+        record(upstreamTimer, start);
+    }
+
+    /**
+     * @param nanos CPU time spent compressing the body, excluding the time spent waiting for it
+     */
+    public void recordCompression(long nanos, long size, long compressedSize) {
+        compressionTimer.record(nanos, TimeUnit.NANOSECONDS);
+        if (compressedSize > 0) {
+            compressionRatio.record((double) size / compressedSize);
+        }
+    }
+
+    public void recordRetry() {
+        retries.increment();
+    }
+
+    public void recordHedge() {
+        hedges.increment();
+    }
+
+    public void recordRetryBudgetExhausted() {
+        retryBudgetExhausted.increment();
+    }
+
+    public void recordRateLimited() {
+        rateLimited.increment();
+    }
+
+    public void recordConcurrencyLimited() {
+        concurrencyLimited.increment();
+    }
+
+    /** @param notModified true if upstream answered '304 Not Modified' */
+    public void recordCacheRevalidation(boolean notModified) {
+        (notModified ? this.notModified : modified).increment();
+    }
+
+    /** Hits, misses, evictions and size of the route's response cache, as 'cache.*' metrics with cache="responses" */
+    public void monitorResponseCache(String routeId, ResponseCache responseCache) {
+        CaffeineCacheMetrics.monitor(meterRegistry, responseCache.getCache(), "responses", "route", routeId);
+    }
+
+    /**
+     * Counts signing and verification failures,
+     * other errors (e.g. rejected by signing scheduler) are not counted here
+     */
+    public void recordFailure(Throwable error) {
+        for (Throwable e = error; e != null; e = e.getCause()) {
+            if (e instanceof SignatureVerificationException) {
+                verificationFailures.increment();
+                return;
+            }
+            if (e instanceof RequestSignerException) {
+                requestSignerFailures.increment();
+                return;
+            }
+            if (e instanceof KeyToolException) {
+                keyToolFailures.increment();
+                return;
+            }
+        }
+    }
+
+    private static long record(Timer timer, long start) {
+        long nanos = System.nanoTime() - start;
+        timer.record(nanos, TimeUnit.NANOSECONDS);
+        return nanos;
+    }
+
+    private static Timer stageTimer(MeterRegistry meterRegistry, String stage) {
+        return Timer.builder("proxy.stage")
+            .description("Duration of a stage of the signing filter chain: "
+                + "body (read into memory or spool file), digest, signing (or verification), "
+                + "upstream (until response is written), response-verification and compression (CPU time only)")
+            .tag("stage", stage)
+            .publishPercentileHistogram()
+            .register(meterRegistry);
+    }
+
+    private static Counter rejectedCounter(MeterRegistry meterRegistry, String reason) {
+        return Counter.builder("proxy.admission.rejected")
+            .description("Requests rejected before signing: client over its rate (429) or route at its limit (503)")
+            .tag("reason", reason)
+            .register(meterRegistry);
+    }
+
+    private static Counter revalidationCounter(MeterRegistry meterRegistry, String result) {
+        return Counter.builder("proxy.cache.revalidations")
+            .description("Stale cached responses revalidated with upstream: not-modified (served from cache) "
+                + "or modified (replaced)")
+            .tag("result", result)
+            .register(meterRegistry);
+    }
+
+    private static Counter attemptCounter(MeterRegistry meterRegistry, String type) {
+        return Counter.builder("proxy.upstream.attempts")
+            .description("Upstream requests sent in addition to the first one: retries and hedged copies")
+            .tag("type", type)
+            .register(meterRegistry);
+    }
+
+    private static Counter failureCounter(MeterRegistry meterRegistry, Class<? extends Exception> exception) {
+        return Counter.builder("proxy.signing.failures")
+            .description("Requests failed because they could not be signed")
+            .tag("exception", exception.getSimpleName())
+            .register(meterRegistry);
+    }
+}
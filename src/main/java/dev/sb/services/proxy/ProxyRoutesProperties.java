@@ -0,0 +1,265 @@
+package dev.sb.services.proxy;
+
+import dev.sb.services.signing.MessageSignatureEngine;
+import dev.sb.services.signing.RequestSigner;
+import dev.sb.services.signing.SignatureFormat;
+import dev.sb.services.signing.SigningAlgorithm;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Additional routes, one per third-party partner, each with its own upstream and key.
+ * Signing routes sign requests sent to partners, verifying routes verify signed requests (callbacks)
+ * received from partners before they are passed to our services.
+ * The default route ('application.proxy', 'application.gateway' and 'application.signing') is always configured,
+ * its upstream instances are bound to {@link #gateway}.
+ */
+@Component
+@ConfigurationProperties(prefix = "application")
+@Data
+public class ProxyRoutesProperties {
+
+    /** methods of requests whose body is digested (if not configured for the route) */
+    public static final List<String> DEFAULT_DIGEST_METHODS = List.of("POST", "PUT");
+
+    /** only headers starting with this prefix are signed (if not configured for the route) */
+    public static final String DEFAULT_SIGNED_HEADER_PREFIX = RequestSigner.SIGNED_HEADER_PREFIX;
+
+    public static final String SIGNING = "signing";
+    public static final String VERIFYING = "verifying";
+
+    private List<Route> routes = new ArrayList<>();
+    /** upstream of the default route */
+    private Gateway gateway = new Gateway();
+    /** admission limits, response cache and request compression of the default route */
+    private Proxy proxy = new Proxy();
+
+    @Data
+    public static class Route {
+        private String id;
+        /** signing or verifying */
+        private String type = SIGNING;
+        /** proxy path prefix, e.g. "/partner-a" */
+        private String path;
+        private Gateway gateway = new Gateway();
+        private Signing signing = new Signing();
+        private Verification verification = new Verification();
+        private ResponseVerification responseVerification = new ResponseVerification();
+        private Admission admission = new Admission();
+        /** signing routes only, verifying routes always forward to upstream */
+        private Cache cache = new Cache();
+        /** signing routes only */
+        private Compression compression = new Compression();
+        /** signing routes only, 'application.proxy.fused-signing-filter' if not set */
+        private Boolean fusedSigningFilter;
+    }
+
+    @Data
+    public static class Proxy {
+        private Admission admission = new Admission();
+        private Cache cache = new Cache();
+        private Compression compression = new Compression();
+    }
+
+    /** Compression of request bodies sent upstream, digested and signed as compressed */
+    @Data
+    public static class Compression {
+        private boolean enabled;
+        /** gzip or deflate */
+        private String algorithm = "gzip";
+        /** 1 (fastest) to 9 (smallest) */
+        private int level = 6;
+        /** smaller bodies are sent as they are, bodies of unknown length once this much of them is received */
+        private DataSize minSize = DataSize.ofKilobytes(1);
+        /** compressible content types, bodies with 'Content-Encoding' are never compressed again */
+        private List<String> mediaTypes = List.of("application/json", "application/*+json", "application/xml",
+            "application/*+xml", "text/*");
+    }
+
+    /** Cache of upstream responses to GET requests, hits are neither signed nor sent upstream */
+    @Data
+    public static class Cache {
+        private boolean enabled;
+        /** bodies and headers of all cached responses */
+        private DataSize maxSize = DataSize.ofMegabytes(64);
+        /** larger responses are not cached */
+        private DataSize maxEntrySize = DataSize.ofMegabytes(1);
+        /** request headers that are part of the key, besides path and query ('*' suffix - all with the prefix) */
+        private List<String> keyHeaders = List.of("Accept", "X-COMPANY-*");
+        /** headers matched by a prefix of 'key-headers' that are not part of the key (unique per request) */
+        private List<String> excludedKeyHeaders = List.of(ProxyHeaders.X_COMPANY_REQUEST_ID);
+    }
+
+    /** Limits checked before a request is signed (verified) */
+    @Data
+    public static class Admission {
+        private RateLimit rateLimit = new RateLimit();
+        private ConcurrencyLimit concurrencyLimit = new ConcurrencyLimit();
+    }
+
+    @Data
+    public static class RateLimit {
+        /** requests per second of each client, 0 - not limited */
+        private double requestsPerSecond;
+        /** requests a client may send at once */
+        private int burst = 50;
+        /** header identifying the client, IP address of requests without it */
+        private String clientHeader = "X-COMPANY-CLIENT-ID";
+        /** clients with a bucket, least recently seen ones are evicted */
+        private long maxClients = 100_000;
+    }
+
+    @Data
+    public static class ConcurrencyLimit {
+        private boolean enabled;
+        private int initialLimit = 100;
+        private int minLimit = 10;
+        private int maxLimit = 1000;
+        /** limit is multiplied by this when a request fails or is slower than 'latency-threshold' */
+        private double backoffRatio = 0.9;
+        private Duration latencyThreshold = Duration.ofSeconds(2);
+    }
+
+    @Data
+    public static class Gateway {
+        private String uri;
+        /** path prefix that replaces the proxy path prefix */
+        private String path = "";
+        /** addresses (scheme, host and port) requests to 'uri' are balanced over, 'uri' only if empty */
+        private List<String> instances = new ArrayList<>();
+        private Balancer balancer = new Balancer();
+        private Retry retry = new Retry();
+        private Pool pool = new Pool();
+    }
+
+    /** Connection pool and protocol of the route's own upstream client */
+    @Data
+    public static class Pool {
+        /** connections to each upstream address, 0 - shared client of 'spring.cloud.gateway.httpclient' */
+        private int maxConnections;
+        /** requests waiting for a connection, more are rejected with 503 at once */
+        private int maxPendingAcquires = 1000;
+        /** longest wait for a connection */
+        private Duration acquireTimeout = Duration.ofSeconds(5);
+        /** idle connections are closed after this, kept (and their TLS sessions reused) until then */
+        private Duration maxIdleTime = Duration.ofSeconds(60);
+        /** http11 only: h2c and h2 are rejected, the HTTP/2 client of reactor-netty 0.9 can't send requests */
+        private String protocol = "http11";
+    }
+
+    /** Retries and hedged copies of idempotent requests, with the headers of the first signing */
+    @Data
+    public static class Retry {
+        /** retries after a failed attempt (connection error, timeout or one of 'statuses'), 0 - none */
+        private int retries;
+        /** methods of requests that are retried and hedged, requests with a body are not */
+        private List<String> methods = List.of("GET", "HEAD");
+        private List<Integer> statuses = List.of(502, 503, 504);
+        private Duration backoff = Duration.ofMillis(50);
+        /** timeout of each attempt, 'spring.cloud.gateway.httpclient.response-timeout' if not set */
+        private Duration perTryTimeout;
+        private Hedging hedging = new Hedging();
+        private Budget budget = new Budget();
+    }
+
+    @Data
+    public static class Hedging {
+        private boolean enabled;
+        /** a copy is sent to another instance when there is no response after this percentile of latency */
+        private double percentile = 0.95;
+        private Duration minDelay = Duration.ofMillis(10);
+        /** also the delay until enough responses are known */
+        private Duration maxDelay = Duration.ofSeconds(1);
+    }
+
+    @Data
+    public static class Budget {
+        /** retries and hedged copies per request */
+        private double ratio = 0.2;
+        /** retries and hedged copies allowed regardless of the ratio */
+        private int minPerSecond = 10;
+    }
+
+    @Data
+    public static class Balancer {
+        /** least-outstanding or power-of-two-choices */
+        private String strategy = BalancingStrategy.POWER_OF_TWO_CHOICES.getName();
+        private HealthCheck healthCheck = new HealthCheck();
+        private OutlierDetection outlierDetection = new OutlierDetection();
+    }
+
+    @Data
+    public static class HealthCheck {
+        /** path of the active health check (GET, 2xx passes), checks are disabled if not set */
+        private String path;
+        private Duration interval = Duration.ofSeconds(5);
+        private Duration timeout = Duration.ofSeconds(1);
+        /** consecutive failed (passed) checks that make an instance unhealthy (healthy again) */
+        private int threshold = 2;
+    }
+
+    @Data
+    public static class OutlierDetection {
+        private Duration interval = Duration.ofSeconds(10);
+        /** instances slower than this many times the median latency of the route are ejected */
+        private double latencyFactor = 3;
+        /** responses of an instance needed before its latency is judged */
+        private int minRequests = 20;
+        /** consecutive failed requests (connection errors, 5xx responses) that eject an instance, 0 - never */
+        private int consecutiveFailures = 5;
+        private Duration ejectionDuration = Duration.ofSeconds(30);
+        /** at most this share of instances is ejected at the same time (never all) */
+        private int maxEjectionPercent = 50;
+    }
+
+    @Data
+    public static class Signing {
+        /** draft-cavage or rfc9421 */
+        private String format = SignatureFormat.DRAFT_CAVAGE.getName();
+        /** RFC 9421 covered components */
+        private List<String> components = MessageSignatureEngine.DEFAULT_COMPONENTS;
+        /** rsa-sha256, ecdsa-sha256, ed25519 or hmac-sha256 */
+        private String algorithm = SigningAlgorithm.RSA_SHA256.getName();
+        /** Base64 shared secret of hmac-sha256, used instead of private key and certificate */
+        private String secret;
+        private String certificate;
+        private String privateKey;
+        private String privateKeyPass;
+        /** optional, resolved from certificate if not set */
+        private String privateKeyId;
+        /** draft-cavage signed headers */
+        private String signedHeaderPrefix = DEFAULT_SIGNED_HEADER_PREFIX;
+        private List<String> digestMethods = DEFAULT_DIGEST_METHODS;
+    }
+
+    @Data
+    public static class Verification {
+        /** certificates of keys partner signs requests with */
+        private List<Certificate> certificates = new ArrayList<>();
+        /** digested even without a body, requests with a body are digested whatever their method */
+        private List<String> digestMethods = DEFAULT_DIGEST_METHODS;
+    }
+
+    /** Verification of signed upstream responses of a signing route, enabled when certificates are configured */
+    @Data
+    public static class ResponseVerification {
+        /** certificates of keys upstream signs responses with */
+        private List<Certificate> certificates = new ArrayList<>();
+        /** status returned instead of a response with missing or invalid signature */
+        private int failureStatus = HttpStatus.BAD_GATEWAY.value();
+    }
+
+    @Data
+    public static class Certificate {
+        /** optional, resolved from certificate if not set */
+        private String keyId;
+        private String certificate;
+    }
+}
@@ -0,0 +1,267 @@
+package dev.sb.services.proxy;
+
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.http.server.reactive.ServerHttpRequestDecorator;
+import reactor.core.publisher.Flux;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.stream.Collectors;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Compresses request bodies of a signing route on their way in, so the body that is cached (or spooled),
+ * digested, signed and sent upstream is the compressed one: 'Digest' is always calculated over the exact bytes
+ * sent. Each buffer is deflated as it arrives, the body is never held uncompressed.
+ * <p>
+ * Only bodies of 'media-types' without 'Content-Encoding' are compressed, already encoded bodies pass through
+ * as they are, without being decoded. Bodies of unknown length (chunked) are held until 'min-size' of them has
+ * arrived: shorter ones are sent as received, so 'Content-Encoding' of such a request is known once its body
+ * is read, which the signing filters do before the headers are sent.
+ */
+public class RequestBodyCompression {
+
+    private static final String GZIP = "gzip";
+    private static final String DEFLATE = "deflate";
+    private static final int OUTPUT_BUFFER_SIZE = 16 * 1024;
+    /** RFC 1952 header: magic, deflate method, no flags, no time, no extra flags, OS 0 as the JDK writes it */
+    private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0};
+
+    private final String algorithm;
+    private final int level;
+    private final long minSize;
+    private final List<MediaType> mediaTypes;
+    private final ProxyMetrics proxyMetrics;
+
+    public RequestBodyCompression(ProxyRoutesProperties.Compression compression, ProxyMetrics proxyMetrics) {
+        this.algorithm = compression.getAlgorithm().toLowerCase(Locale.ROOT);
+        if (!GZIP.equals(algorithm) && !DEFLATE.equals(algorithm)) {
+            throw new IllegalArgumentException("Unsupported compression '" + compression.getAlgorithm()
+                + "', supported: gzip, deflate");
+        }
+        this.level = compression.getLevel();
+        this.minSize = compression.getMinSize().toBytes();
+        this.mediaTypes = compression.getMediaTypes().stream()
+            .map(MediaType::parseMediaType)
+            .collect(Collectors.toList());
+        this.proxyMetrics = proxyMetrics;
+    }
+
+    public String getAlgorithm() {
+        return algorithm;
+    }
+
+    /**
+     * @return request with compressed body, or the request itself if its body is not compressed
+     * (see {@link #isCompressed} for bodies of unknown length)
+     */
+    public ServerHttpRequest compress(ServerHttpRequest request, DataBufferFactory bufferFactory) {
+        if (!isCompressible(request.getHeaders())) {
+            return request;
+        }
+        return new CompressedRequest(request, bufferFactory);
+    }
+
+    /**
+     * @param request request returned by {@link #compress}, once its body is read
+     * @return true if the body was compressed
+     */
+    static boolean isCompressed(ServerHttpRequest request) {
+        return request instanceof CompressedRequest && ((CompressedRequest) request).compressed;
+    }
+
+    /** Compressed request with the length of its cached (spooled) body */
+    static ServerHttpRequest withContentLength(ServerHttpRequest request, long size) {
+        return request.mutate().headers(headers -> {
+            headers.remove(HttpHeaders.TRANSFER_ENCODING);
+            headers.setContentLength(size);
+        }).build();
+    }
+
+    private boolean isCompressible(HttpHeaders headers) {
+        String encoding = headers.getFirst(HttpHeaders.CONTENT_ENCODING);
+        if (encoding != null && !encoding.equalsIgnoreCase("identity")) {
+            return false;
+        }
+        long contentLength = headers.getContentLength();
+        if (contentLength < 0) {
+            // chunked: 'min-size' is applied to the first buffers
+            if (!headers.containsKey(HttpHeaders.TRANSFER_ENCODING)) {
+                return false;
+            }
+        } else if (contentLength == 0 || contentLength < minSize) {
+            return false;
+        }
+        MediaType contentType;
+        try {
+            contentType = headers.getContentType();
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+        return contentType != null && mediaTypes.stream().anyMatch(mediaType -> mediaType.includes(contentType));
+    }
+
+    Flux<DataBuffer> compressed(Flux<DataBuffer> body, DataBufferFactory bufferFactory) {
+        return Flux.using(() -> new Compressor(bufferFactory),
+            compressor -> body
+                .concatMapIterable(compressor::deflate)
+                .concatWith(Flux.defer(() -> Flux.fromIterable(compressor.finish())))
+                .doOnDiscard(DataBuffer.class, DataBufferUtils::release),
+            Compressor::end);
+    }
+
+    /**
+     * Body of unknown length: buffers are held until 'min-size' of them arrived, then the body is compressed,
+     * a shorter body is passed on as received
+     */
+    private Flux<DataBuffer> compressedFromMinSize(Flux<DataBuffer> body, DataBufferFactory bufferFactory,
+                                                   CompressedRequest request) {
+        return Flux.defer(() -> {
+            long[] size = new long[1];
+            // the first list ends at 'min-size' (or with the body), each later buffer is a list of its own
+            return body
+                .bufferUntil(buffer -> (size[0] += buffer.readableByteCount()) >= minSize)
+                .switchOnFirst((first, lists) -> {
+                    Flux<DataBuffer> buffers = lists.concatMapIterable(list -> list);
+                    if (size[0] < minSize) {
+                        return buffers;
+                    }
+                    request.compressed = true;
+                    return compressed(buffers, bufferFactory);
+                })
+                .doOnDiscard(DataBuffer.class, DataBufferUtils::release);
+        });
+    }
+
+    /** Little-endian 32 bits of the value, as in the gzip trailer */
+    private static void writeIntLE(byte[] bytes, int offset, long value) {
+        for (int i = 0; i < 4; i++) {
+            bytes[offset + i] = (byte) (value >>> (8 * i));
+        }
+    }
+
+    /** Request of a compressible body, compressed unless it is a chunked body shorter than 'min-size' */
+    private class CompressedRequest extends ServerHttpRequestDecorator {
+
+        private final HttpHeaders compressedHeaders;
+        private final DataBufferFactory bufferFactory;
+        /** known from the start for bodies of known length, else once the first buffers are read */
+        private volatile boolean compressed;
+
+        CompressedRequest(ServerHttpRequest request, DataBufferFactory bufferFactory) {
+            super(request);
+            this.compressedHeaders = new HttpHeaders();
+            compressedHeaders.putAll(request.getHeaders());
+            compressedHeaders.set(HttpHeaders.CONTENT_ENCODING, algorithm);
+            // known once the body is compressed
+            compressedHeaders.remove(HttpHeaders.CONTENT_LENGTH);
+            this.bufferFactory = bufferFactory;
+            this.compressed = request.getHeaders().getContentLength() >= 0;
+        }
+
+        @Override
+        public HttpHeaders getHeaders() {
+            return compressed ? compressedHeaders : super.getHeaders();
+        }
+
+        @Override
+        public Flux<DataBuffer> getBody() {
+            return compressed
+                ? compressed(super.getBody(), bufferFactory)
+                : compressedFromMinSize(super.getBody(), bufferFactory, this);
+        }
+    }
+
+    /** Deflater of one body, buffers are signalled sequentially */
+    private class Compressor {
+
+        private final DataBufferFactory bufferFactory;
+        private final Deflater deflater;
+        private final CRC32 crc;
+        private final byte[] output = new byte[OUTPUT_BUFFER_SIZE];
+        private long size;
+        private long compressedSize;
+        private long nanos;
+        private boolean headerWritten;
+
+        Compressor(DataBufferFactory bufferFactory) {
+            this.bufferFactory = bufferFactory;
+            boolean gzip = GZIP.equals(algorithm);
+            // gzip is raw deflate with its own header and trailer, HTTP 'deflate' is the zlib format
+            this.deflater = new Deflater(level, gzip);
+            this.crc = gzip ? new CRC32() : null;
+        }
+
+        List<DataBuffer> deflate(DataBuffer buffer) {
+            long start = System.nanoTime();
+            try {
+                ByteBuffer input = buffer.asByteBuffer();
+                size += input.remaining();
+                if (crc != null) {
+                    crc.update(input.duplicate());
+                }
+                deflater.setInput(input);
+                List<DataBuffer> compressed = new ArrayList<>(2);
+                header(compressed);
+                while (!deflater.needsInput()) {
+                    drain(compressed);
+                }
+                return compressed;
+            } finally {
+                DataBufferUtils.release(buffer);
+                nanos += System.nanoTime() - start;
+            }
+        }
+
+        List<DataBuffer> finish() {
+            long start = System.nanoTime();
+            List<DataBuffer> compressed = new ArrayList<>(2);
+            header(compressed);
+            deflater.finish();
+            while (!deflater.finished()) {
+                drain(compressed);
+            }
+            if (crc != null) {
+                byte[] trailer = new byte[8];
+                writeIntLE(trailer, 0, crc.getValue());
+                writeIntLE(trailer, 4, size);
+                add(compressed, trailer, trailer.length);
+            }
+            nanos += System.nanoTime() - start;
+            proxyMetrics.recordCompression(nanos, size, compressedSize);
+            return compressed;
+        }
+
+        void end() {
+            deflater.end();
+        }
+
+        private void header(List<DataBuffer> compressed) {
+            if (!headerWritten && crc != null) {
+                add(compressed, GZIP_HEADER, GZIP_HEADER.length);
+            }
+            headerWritten = true;
+        }
+
+        private void drain(List<DataBuffer> compressed) {
+            int length = deflater.deflate(output);
+            if (length > 0) {
+                add(compressed, output, length);
+            }
+        }
+
+        private void add(List<DataBuffer> compressed, byte[] bytes, int length) {
+            compressedSize += length;
+            compressed.add(bufferFactory.wrap(Arrays.copyOf(bytes, length)));
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package dev.sb.services.proxy;
+
+import dev.sb.services.signing.BodyDigest;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.http.server.reactive.ServerHttpRequestDecorator;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Streams large request bodies to temporary files instead of keeping them in memory.
+ * <p>
+ * Digest is calculated while the body is written to disk. The spooled body is then sent
+ * to the third-party gateway as memory-mapped file regions, so it is neither copied to heap
+ * nor read through user space buffers.
+ * <p>
+ * File operations (create, size, mapping of regions) run on the bounded elastic scheduler, not on the event loop.
+ */
+@Component
+@Slf4j
+public class RequestBodySpool {
+
+    /** size of one memory-mapped region sent to the gateway */
+    private static final int REGION_SIZE = 8 * 1024 * 1024;
+
+    private final long threshold;
+    private final Path directory;
+
+    public RequestBodySpool(@Value("${application.proxy.body.spool-threshold:10MB}") DataSize threshold,
+                            @Value("${application.proxy.body.spool-directory:${java.io.tmpdir}}") String directory) {
+        this.threshold = threshold.toBytes();
+        this.directory = Paths.get(directory);
+
+        log.info("Request bodies larger than {} bytes are spooled to {}", this.threshold, this.directory);
+    }
+
+    /** Bodies above threshold and bodies of unknown length (chunked) are spooled. */
+    public boolean shouldSpool(ServerHttpRequest request) {
+        HttpHeaders headers = request.getHeaders();
+        long contentLength = headers.getContentLength();
+        if (contentLength < 0) {
+            return headers.containsKey(HttpHeaders.TRANSFER_ENCODING);
+        }
+        return contentLength > threshold;
+    }
+
+    /**
+     * Writes request body to a temporary file and updates digest on the way.
+     *
+     * @return spooled body, it has to be {@link SpooledBody#delete() deleted} once request is complete;
+     *     the file is deleted here if spooling fails or is cancelled before the body is returned
+     */
+    public Mono<SpooledBody> spool(ServerHttpRequest request, BodyDigest digest) {
+        return Mono.fromCallable(() -> Files.createTempFile(directory, "body-", ".spool"))
+            .subscribeOn(Schedulers.boundedElastic())
+            .flatMap(file -> {
+                AtomicBoolean returned = new AtomicBoolean();
+                return DataBufferUtils.write(request.getBody().doOnNext(digest::update), file)
+                    .then(Mono.fromCallable(() -> new SpooledBody(file, Files.size(file)))
+                        .subscribeOn(Schedulers.boundedElastic()))
+                    .doOnNext(body -> returned.set(true))
+                    .doFinally(signal -> {
+                        if (!returned.get()) {
+                            delete(file);
+                        }
+                    });
+            });
+    }
+
+    private static void delete(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            log.warn("Spooled request body {} can't be deleted", file, e);
+        }
+    }
+
+    /** Request body stored in a temporary file */
+    public static class SpooledBody {
+
+        private final Path file;
+        private final long size;
+
+        SpooledBody(Path file, long size) {
+            this.file = file;
+            this.size = size;
+        }
+
+        public long size() {
+            return size;
+        }
+
+        /** Request with body read from the file as memory-mapped regions */
+        public ServerHttpRequest decorate(ServerHttpRequest request, DataBufferFactory bufferFactory) {
+            return new ServerHttpRequestDecorator(request) {
+                @Override
+                public Flux<DataBuffer> getBody() {
+                    Flux<DataBuffer> regions = Flux.using(() -> FileChannel.open(file, StandardOpenOption.READ),
+                        channel -> Flux.generate(() -> 0L, (position, sink) -> {
+                            long length = Math.min(REGION_SIZE, size - position);
+                            if (length <= 0) {
+                                sink.complete();
+                                return position;
+                            }
+                            try {
+                                // mapping stays valid after the channel is closed
+                                sink.next(bufferFactory.wrap(
+                                    channel.map(FileChannel.MapMode.READ_ONLY, position, length)));
+                            } catch (IOException e) {
+                                sink.error(new UncheckedIOException(e));
+                            }
+                            return position + length;
+                        }),
+                        channel -> {
+                            try {
+                                channel.close();
+                            } catch (IOException e) {
+                                log.warn("Spooled request body {} can't be closed", file, e);
+                            }
+                        });
+                    return regions.subscribeOn(Schedulers.boundedElastic());
+                }
+            };
+        }
+
+        public void delete() {
+            RequestBodySpool.delete(file);
+        }
+    }
+}
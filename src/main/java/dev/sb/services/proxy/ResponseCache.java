@@ -0,0 +1,303 @@
+package dev.sb.services.proxy;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Upstream responses to GET requests of a route, keyed by path, query and 'key-headers' of the request,
+ * bounded by their size in bytes.
+ * <p>
+ * Key headers ending with '*' are prefixes: all request headers starting with it are part of the key
+ * (by default the client identity headers 'X-COMPANY-*', except 'excluded-key-headers' such as the request id),
+ * so that clients never share an entry.
+ * <p>
+ * Freshness follows upstream 'Cache-Control' ('s-maxage', 'max-age', 'no-cache') or 'Expires', minus 'Age'.
+ * Responses with 'no-store', 'private', 'Set-Cookie', or 'Vary' on headers that are not part of the key,
+ * are not stored. Responses to requests with 'Authorization' are stored only if the upstream allows it
+ * explicitly ('public', 's-maxage' or 'must-revalidate'). Stale responses with an 'ETag' are kept
+ * for revalidation until evicted, others expire as soon as they are stale.
+ */
+public class ResponseCache {
+
+    /** headers of a '304 Not Modified' that replace the stored ones */
+    private static final List<String> REVALIDATED_HEADERS = List.of(HttpHeaders.CACHE_CONTROL, HttpHeaders.EXPIRES,
+        HttpHeaders.DATE, HttpHeaders.ETAG, HttpHeaders.AGE);
+
+    private final Cache<String, CachedResponse> cache;
+    /** lower case */
+    private final List<String> keyHeaders;
+    /** lower case, without the trailing '*' */
+    private final List<String> keyHeaderPrefixes;
+    /** lower case */
+    private final Set<String> excludedKeyHeaders;
+    private final long maxEntrySize;
+
+    public ResponseCache(ProxyRoutesProperties.Cache properties) {
+        this.keyHeaders = properties.getKeyHeaders().stream()
+            .filter(header -> !header.endsWith("*"))
+            .map(header -> header.toLowerCase(Locale.ROOT))
+            .collect(Collectors.toList());
+        this.keyHeaderPrefixes = properties.getKeyHeaders().stream()
+            .filter(header -> header.endsWith("*"))
+            .map(header -> header.substring(0, header.length() - 1).toLowerCase(Locale.ROOT))
+            .collect(Collectors.toList());
+        this.excludedKeyHeaders = properties.getExcludedKeyHeaders().stream()
+            .map(header -> header.toLowerCase(Locale.ROOT))
+            .collect(Collectors.toSet());
+        this.maxEntrySize = properties.getMaxEntrySize().toBytes();
+        this.cache = Caffeine.newBuilder()
+            .maximumWeight(properties.getMaxSize().toBytes())
+            .weigher((String key, CachedResponse response) -> key.length() + response.weight)
+            .expireAfter(new StaleExpiry())
+            .recordStats()
+            .build();
+    }
+
+    /** For metrics */
+    Cache<String, CachedResponse> getCache() {
+        return cache;
+    }
+
+    public long getMaxEntrySize() {
+        return maxEntrySize;
+    }
+
+    String key(ServerHttpRequest request) {
+        StringBuilder key = new StringBuilder(128).append(request.getURI().getRawPath());
+        if (request.getURI().getRawQuery() != null) {
+            key.append('?').append(request.getURI().getRawQuery());
+        }
+        for (String header : keyHeaders) {
+            key.append('\n').append(String.join(",", request.getHeaders().getOrEmpty(header)));
+        }
+        if (!keyHeaderPrefixes.isEmpty()) {
+            // sorted, so that the order the client sent them in does not matter
+            Map<String, String> prefixed = new TreeMap<>();
+            request.getHeaders().forEach((name, values) -> {
+                String header = name.toLowerCase(Locale.ROOT);
+                if (isPrefixed(header)) {
+                    prefixed.merge(header, String.join(",", values), (first, second) -> first + ',' + second);
+                }
+            });
+            prefixed.forEach((name, value) -> key.append('\n').append(name).append(':').append(value));
+        }
+        return key.toString();
+    }
+
+    private boolean isPrefixed(String header) {
+        if (excludedKeyHeaders.contains(header)) {
+            return false;
+        }
+        for (String prefix : keyHeaderPrefixes) {
+            if (header.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Fresh or stale response, null if none is cached */
+    CachedResponse get(String key) {
+        return cache.getIfPresent(key);
+    }
+
+    /**
+     * @param now {@link System#nanoTime()}
+     */
+    void put(String key, HttpHeaders headers, byte[] body, long lifetime, long now) {
+        cache.put(key, new CachedResponse(headers, body, lifetime, now));
+    }
+
+    /**
+     * Stale response updated with the headers of a '304 Not Modified' (removed if it is no longer cacheable).
+     *
+     * @return response to serve
+     */
+    CachedResponse revalidated(String key, CachedResponse stale, HttpHeaders notModified, boolean authorized,
+                               long now) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.putAll(stale.headers);
+        for (String name : REVALIDATED_HEADERS) {
+            List<String> values = notModified.get(name);
+            if (values != null) {
+                headers.put(name, values);
+            }
+        }
+        long lifetime = lifetime(headers, authorized);
+        CachedResponse revalidated = new CachedResponse(headers, stale.body, Math.max(0, lifetime), now);
+        if (lifetime < 0) {
+            cache.invalidate(key);
+        } else {
+            cache.put(key, revalidated);
+        }
+        return revalidated;
+    }
+
+    /**
+     * Freshness lifetime of an upstream '200 OK' response.
+     *
+     * @param authorized the request has an 'Authorization' header
+     * @return seconds, -1 if the response must not be stored
+     */
+    long lifetime(HttpHeaders headers, boolean authorized) {
+        if (headers.containsKey(HttpHeaders.SET_COOKIE) || !varyCovered(headers)) {
+            return -1;
+        }
+        long maxAge = -1;
+        long sharedMaxAge = -1;
+        boolean noCache = false;
+        // a shared cache stores responses to authorized requests only if allowed explicitly (RFC 9111, 3.5)
+        boolean shareable = !authorized;
+        for (String value : headers.getOrEmpty(HttpHeaders.CACHE_CONTROL)) {
+            for (String directive : value.split(",")) {
+                String name = directive.trim().toLowerCase(Locale.ROOT);
+                if (name.equals("no-store") || name.startsWith("private")) {
+                    return -1;
+                }
+                if (name.startsWith("no-cache")) {
+                    noCache = true;
+                } else if (name.startsWith("s-maxage=")) {
+                    sharedMaxAge = seconds(name.substring(9));
+                    shareable = true;
+                } else if (name.startsWith("max-age=")) {
+                    maxAge = seconds(name.substring(8));
+                } else if (name.equals("public") || name.equals("must-revalidate")) {
+                    shareable = true;
+                }
+            }
+        }
+        if (!shareable) {
+            return -1;
+        }
+
+        long lifetime;
+        if (noCache) {
+            lifetime = 0;
+        } else if (sharedMaxAge >= 0) {
+            lifetime = sharedMaxAge;
+        } else if (maxAge >= 0) {
+            lifetime = maxAge;
+        } else {
+            lifetime = expiresLifetime(headers);
+        }
+        lifetime = Math.max(0, lifetime - age(headers));
+        return lifetime > 0 || headers.getETag() != null ? lifetime : -1;
+    }
+
+    private boolean varyCovered(HttpHeaders headers) {
+        for (String vary : headers.getVary()) {
+            String header = vary.trim().toLowerCase(Locale.ROOT);
+            if (!keyHeaders.contains(header) && !isPrefixed(header)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long expiresLifetime(HttpHeaders headers) {
+        try {
+            long expires = headers.getExpires();
+            if (expires < 0) {
+                return 0;
+            }
+            long date = headers.getDate();
+            return (expires - (date >= 0 ? date : System.currentTimeMillis())) / 1000;
+        } catch (IllegalArgumentException e) {
+            // invalid 'Date'
+            return 0;
+        }
+    }
+
+    static long age(HttpHeaders headers) {
+        String age = headers.getFirst(HttpHeaders.AGE);
+        return age != null ? Math.max(0, seconds(age)) : 0;
+    }
+
+    /** Malformed values make the response stale */
+    private static long seconds(String value) {
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /** Headers and body of a '200 OK' upstream response */
+    static final class CachedResponse {
+
+        private final HttpHeaders headers;
+        private final byte[] body;
+        /** {@link System#nanoTime()} */
+        private final long stored;
+        private final long freshUntil;
+        /** 'Age' of the response when it was stored, seconds */
+        private final long initialAge;
+        private final int weight;
+
+        CachedResponse(HttpHeaders headers, byte[] body, long lifetime, long now) {
+            this.headers = HttpHeaders.readOnlyHttpHeaders(headers);
+            this.body = body;
+            this.stored = now;
+            this.freshUntil = now + TimeUnit.SECONDS.toNanos(lifetime);
+            this.initialAge = age(headers);
+            int headersWeight = 0;
+            for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+                for (String value : header.getValue()) {
+                    headersWeight += header.getKey().length() + value.length();
+                }
+            }
+            this.weight = body.length + headersWeight;
+        }
+
+        boolean isFresh(long now) {
+            return freshUntil - now > 0;
+        }
+
+        String getETag() {
+            return headers.getETag();
+        }
+
+        byte[] getBody() {
+            return body;
+        }
+
+        /** Stored headers with 'Age' and the length of the body */
+        void copyHeadersTo(HttpHeaders target, long now) {
+            target.clear();
+            target.putAll(headers);
+            target.remove(HttpHeaders.TRANSFER_ENCODING);
+            target.setContentLength(body.length);
+            target.set(HttpHeaders.AGE, String.valueOf(initialAge + TimeUnit.NANOSECONDS.toSeconds(now - stored)));
+        }
+    }
+
+    /** Responses that can't be revalidated expire when they become stale */
+    private static class StaleExpiry implements Expiry<String, CachedResponse> {
+
+        @Override
+        public long expireAfterCreate(String key, CachedResponse response, long currentTime) {
+            return response.getETag() != null ? Long.MAX_VALUE : Math.max(0, response.freshUntil - currentTime);
+        }
+
+        @Override
+        public long expireAfterUpdate(String key, CachedResponse response, long currentTime, long currentDuration) {
+            return expireAfterCreate(key, response, currentTime);
+        }
+
+        @Override
+        public long expireAfterRead(String key, CachedResponse response, long currentTime, long currentDuration) {
+            return currentDuration;
+        }
+    }
+}
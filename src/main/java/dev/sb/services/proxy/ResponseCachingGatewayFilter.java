@@ -0,0 +1,163 @@
+package dev.sb.services.proxy;
+
+import lombok.extern.slf4j.Slf4j;
+import org.reactivestreams.Publisher;
+import org.springframework.cloud.gateway.filter.GatewayFilter;
+import org.springframework.cloud.gateway.filter.GatewayFilterChain;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.http.server.reactive.ServerHttpResponseDecorator;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Serves GET requests of a signing route from its {@link ResponseCache}.
+ * <p>
+ * A fresh response is written straight away: the request is neither signed nor sent upstream.
+ * A stale response with an 'ETag' is revalidated: the request is signed and sent with 'If-None-Match',
+ * and a '304 Not Modified' is answered with the cached body.
+ * Upstream responses are stored as they stream through to the client, once they are complete
+ * (and verified, {@link ResponseVerifyingGatewayFilter} runs inside this filter).
+ * Requests with a body, conditional requests and requests with 'Cache-Control: no-cache' or 'no-store'
+ * bypass the cache.
+ */
+@Slf4j
+public class ResponseCachingGatewayFilter implements GatewayFilter {
+
+    /** stores responses after {@link ResponseVerifyingGatewayFilter} verified them */
+    public static final int ORDER = ResponseVerifyingGatewayFilter.ORDER - 1;
+
+    private static final List<String> HOP_BY_HOP_HEADERS = List.of(HttpHeaders.TRANSFER_ENCODING,
+        HttpHeaders.CONNECTION);
+
+    private final ResponseCache responseCache;
+    private final ProxyMetrics proxyMetrics;
+
+    public ResponseCachingGatewayFilter(ResponseCache responseCache, ProxyMetrics proxyMetrics) {
+        this.responseCache = responseCache;
+        this.proxyMetrics = proxyMetrics;
+    }
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, GatewayFilterChain chain) {
+        ServerHttpRequest request = exchange.getRequest();
+        if (request.getMethod() != HttpMethod.GET || bypass(request.getHeaders())) {
+            return chain.filter(exchange);
+        }
+
+        String key = responseCache.key(request);
+        ResponseCache.CachedResponse cached = responseCache.get(key);
+        long now = System.nanoTime();
+        if (cached != null && cached.isFresh(now)) {
+            return serve(exchange.getResponse(), cached, now);
+        }
+
+        ResponseCache.CachedResponse stale = cached != null && cached.getETag() != null ? cached : null;
+        boolean authorized = request.getHeaders().containsKey(HttpHeaders.AUTHORIZATION);
+        ServerWebExchange.Builder forwarded = exchange.mutate()
+            .response(new CachingResponse(exchange.getResponse(), key, stale, authorized));
+        if (stale != null) {
+            // signed and sent like any other request
+            forwarded.request(request.mutate().header(HttpHeaders.IF_NONE_MATCH, stale.getETag()).build());
+        }
+        return chain.filter(forwarded.build());
+    }
+
+    private static boolean bypass(HttpHeaders headers) {
+        if (headers.getContentLength() > 0 || headers.containsKey(HttpHeaders.TRANSFER_ENCODING)
+            || headers.containsKey(HttpHeaders.IF_NONE_MATCH) || headers.containsKey(HttpHeaders.IF_MODIFIED_SINCE)) {
+            return true;
+        }
+        String cacheControl = headers.getCacheControl();
+        return cacheControl != null && (cacheControl.contains("no-cache") || cacheControl.contains("no-store"));
+    }
+
+    private static Mono<Void> serve(ServerHttpResponse response, ResponseCache.CachedResponse cached, long now) {
+        response.setStatusCode(HttpStatus.OK);
+        cached.copyHeadersTo(response.getHeaders(), now);
+        return response.writeWith(Mono.fromSupplier(() -> response.bufferFactory().wrap(cached.getBody())));
+    }
+
+    /** Stores the upstream response, or answers a '304 Not Modified' of a revalidation with the cached one */
+    private class CachingResponse extends ServerHttpResponseDecorator {
+
+        private final String key;
+        /** null if the request is not a revalidation */
+        private final ResponseCache.CachedResponse stale;
+        /** request has 'Authorization' */
+        private final boolean authorized;
+
+        CachingResponse(ServerHttpResponse delegate, String key, ResponseCache.CachedResponse stale,
+                        boolean authorized) {
+            super(delegate);
+            this.key = key;
+            this.stale = stale;
+            this.authorized = authorized;
+        }
+
+        @Override
+        public Mono<Void> writeWith(Publisher<? extends DataBuffer> body) {
+            // upstream response headers are copied by the routing filter before the body is written
+            HttpStatus status = getStatusCode();
+            if (stale != null) {
+                proxyMetrics.recordCacheRevalidation(status == HttpStatus.NOT_MODIFIED);
+                if (status == HttpStatus.NOT_MODIFIED) {
+                    ResponseCache.CachedResponse revalidated = responseCache.revalidated(key, stale, getHeaders(),
+                        authorized, System.nanoTime());
+                    return Flux.from(body)
+                        .doOnNext(DataBufferUtils::release)
+                        .then(Mono.defer(() -> serve(getDelegate(), revalidated, System.nanoTime())));
+                }
+            }
+            if (status != HttpStatus.OK) {
+                return super.writeWith(body);
+            }
+            long lifetime = responseCache.lifetime(getHeaders(), authorized);
+            if (lifetime < 0 || getHeaders().getContentLength() > responseCache.getMaxEntrySize()) {
+                return super.writeWith(body);
+            }
+            return super.writeWith(stored(body, lifetime));
+        }
+
+        /** Copy of the body is stored when it is complete, unless it is larger than 'max-entry-size' */
+        private Flux<DataBuffer> stored(Publisher<? extends DataBuffer> body, long lifetime) {
+            HttpHeaders headers = new HttpHeaders();
+            headers.putAll(getHeaders());
+            HOP_BY_HOP_HEADERS.forEach(headers::remove);
+            ByteArrayOutputStream[] copy = {new ByteArrayOutputStream()};
+
+            // buffers are signalled sequentially, so a plain array is enough for the state
+            return Flux.<DataBuffer>from(body)
+                .doOnNext(buffer -> {
+                    if (copy[0] == null) {
+                        return;
+                    }
+                    if (copy[0].size() + buffer.readableByteCount() > responseCache.getMaxEntrySize()) {
+                        copy[0] = null;
+                        return;
+                    }
+                    // independent position, the buffer is still to be written
+                    ByteBuffer bytes = buffer.asByteBuffer();
+                    byte[] array = new byte[bytes.remaining()];
+                    bytes.get(array);
+                    copy[0].writeBytes(array);
+                })
+                .doOnComplete(() -> {
+                    if (copy[0] != null) {
+                        responseCache.put(key, headers, copy[0].toByteArray(), lifetime, System.nanoTime());
+                        log.debug("Cached response of {} for {}s", key, lifetime);
+                    }
+                });
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package dev.sb.services.proxy;
+
+import dev.sb.services.signing.BodyDigest;
+import dev.sb.services.signing.SignatureVerificationException;
+import dev.sb.services.signing.SignatureVerifier;
+import dev.sb.services.signing.SigningScheduler;
+import lombok.extern.slf4j.Slf4j;
+import org.reactivestreams.Publisher;
+import org.springframework.cloud.gateway.filter.GatewayFilter;
+import org.springframework.cloud.gateway.filter.GatewayFilterChain;
+import org.springframework.cloud.gateway.filter.NettyWriteResponseFilter;
+import org.springframework.cloud.gateway.support.ServerWebExchangeUtils;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.http.server.reactive.ServerHttpResponseDecorator;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.net.URI;
+
+/**
+ * Verifies 'Signature' and 'Digest' headers of upstream responses.
+ * <p>
+ * Signature covers headers only, so it is verified before anything is written to the client
+ * and an invalid one (or a response with a body but without 'Digest') is replaced with an error response
+ * ('failure-status').
+ * Body is digested buffer by buffer as it streams through to the client, only the last buffer is held back
+ * until the digest is known: when it does not match, the response is aborted without its last bytes
+ * (or replaced with the error response if it was a single buffer),
+ * so the client never receives a complete response with a wrong body.
+ */
+@Slf4j
+public class ResponseVerifyingGatewayFilter implements GatewayFilter {
+
+    /** response has to be decorated before {@link NettyWriteResponseFilter} takes it from the exchange */
+    public static final int ORDER = NettyWriteResponseFilter.WRITE_RESPONSE_FILTER_ORDER - 1;
+
+    private static final String DIGEST = "Digest";
+
+    private final SignatureVerifier signatureVerifier;
+    private final SigningScheduler signingScheduler;
+    private final ProxyMetrics proxyMetrics;
+    private final HttpStatus failureStatus;
+
+    public ResponseVerifyingGatewayFilter(SignatureVerifier signatureVerifier,
+                                          SigningScheduler signingScheduler,
+                                          ProxyMetrics proxyMetrics,
+                                          HttpStatus failureStatus) {
+        this.signatureVerifier = signatureVerifier;
+        this.signingScheduler = signingScheduler;
+        this.proxyMetrics = proxyMetrics;
+        this.failureStatus = failureStatus;
+    }
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, GatewayFilterChain chain) {
+        ServerHttpResponse response = new VerifiedResponse(exchange);
+        return chain.filter(exchange.mutate().response(response).build());
+    }
+
+    private class VerifiedResponse extends ServerHttpResponseDecorator {
+
+        private final ServerWebExchange exchange;
+
+        VerifiedResponse(ServerWebExchange exchange) {
+            super(exchange.getResponse());
+            this.exchange = exchange;
+        }
+
+        @Override
+        public Mono<Void> writeWith(Publisher<? extends DataBuffer> body) {
+            // upstream response headers are copied by the routing filter before the body is written
+            HttpHeaders headers = getHeaders();
+            String method = exchange.getRequest().getMethodValue();
+            URI upstreamUri = exchange.getAttribute(ServerWebExchangeUtils.GATEWAY_REQUEST_URL_ATTR);
+            URI uri = upstreamUri != null ? upstreamUri : exchange.getRequest().getURI();
+            String path = uri.getRawQuery() != null ? uri.getRawPath() + '?' + uri.getRawQuery() : uri.getRawPath();
+            boolean hasBody = hasBody(method, getStatusCode(), headers);
+
+            return signingScheduler.execute(() -> {
+                long start = System.nanoTime();
+                signatureVerifier.verifyResponse(method, path, headers, hasBody);
+                return System.nanoTime() - start;
+            })
+                // before the body is subscribed: digest mismatch is signalled by the body, once the response
+                // may be committed, so it is not resumed
+                .onErrorResume(e -> e instanceof SignatureVerificationException
+                    ? reject(body, (SignatureVerificationException) e).then(Mono.empty())
+                    // e.g. signing workers busy: the error response is written by the error handler
+                    : discard(body).then(Mono.error(e)))
+                .flatMap(nanos -> super.writeWith(digested(body, headers.getFirst(DIGEST), nanos)));
+        }
+
+        /** Bodies of HEAD, 204 and 304 responses are empty whatever their headers say */
+        private boolean hasBody(String method, HttpStatus status, HttpHeaders headers) {
+            if ("HEAD".equals(method) || status == HttpStatus.NO_CONTENT || status == HttpStatus.NOT_MODIFIED) {
+                return false;
+            }
+            return headers.getContentLength() > 0 || headers.containsKey(HttpHeaders.TRANSFER_ENCODING);
+        }
+
+        private Flux<DataBuffer> digested(Publisher<? extends DataBuffer> body, String expectedDigest,
+                                          long signatureNanos) {
+            BodyDigest bodyDigest = BodyDigest.sha256();
+            long[] nanos = {signatureNanos};
+            long[] size = {0};
+            DataBuffer[] held = new DataBuffer[1];
+
+            // buffers are signalled sequentially, so plain arrays are enough for the state
+            return Flux.<DataBuffer>from(body)
+                .<DataBuffer>handle((buffer, sink) -> {
+                    long start = System.nanoTime();
+                    bodyDigest.update(buffer);
+                    nanos[0] += System.nanoTime() - start;
+                    size[0] += buffer.readableByteCount();
+                    DataBuffer previous = held[0];
+                    held[0] = buffer;
+                    if (previous != null) {
+                        sink.next(previous);
+                    }
+                })
+                .concatWith(Mono.defer(() -> {
+                    DataBuffer last = held[0];
+                    held[0] = null;
+                    long start = System.nanoTime();
+                    boolean valid = size[0] == 0 && expectedDigest == null
+                        || bodyDigest.digest().equals(expectedDigest);
+                    proxyMetrics.recordResponseVerification(nanos[0] + System.nanoTime() - start);
+                    if (valid) {
+                        return Mono.justOrEmpty(last);
+                    }
+                    if (last != null) {
+                        DataBufferUtils.release(last);
+                    }
+                    proxyMetrics.recordResponseVerificationFailure();
+                    log.warn("Response of {} aborted: digest does not match body", exchange.getRequest().getPath());
+                    // error response if nothing was written yet (the whole body was held back), otherwise aborted
+                    return Mono.error(new ResponseStatusException(failureStatus, "RESPONSE_DIGEST_MISMATCH"));
+                }))
+                .doOnDiscard(DataBuffer.class, DataBufferUtils::release)
+                .doFinally(signal -> {
+                    if (held[0] != null) {
+                        DataBufferUtils.release(held[0]);
+                        held[0] = null;
+                    }
+                });
+        }
+
+        private Mono<Void> reject(Publisher<? extends DataBuffer> body, SignatureVerificationException e) {
+            proxyMetrics.recordResponseVerificationFailure();
+            log.warn("Response of {} rejected: {}", exchange.getRequest().getPath(), e.getMessage());
+
+            return discard(body)
+                .then(Mono.defer(() -> {
+                    setStatusCode(failureStatus);
+                    getHeaders().clear();
+                    getHeaders().setContentLength(0);
+                    return setComplete();
+                }));
+        }
+
+        /** Upstream connection is released once its body is consumed */
+        private Mono<Void> discard(Publisher<? extends DataBuffer> body) {
+            return Flux.from(body)
+                .doOnNext(DataBufferUtils::release)
+                .then();
+        }
+    }
+}
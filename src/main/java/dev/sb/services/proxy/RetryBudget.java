@@ -0,0 +1,68 @@
+package dev.sb.services.proxy;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Limits retries and hedged copies of a route to a share of its requests, so that they can't multiply
+ * the load of an upstream that is already failing.
+ * <p>
+ * Within the last {@value #WINDOW_SECONDS} seconds, retries stay under 'ratio' x requests plus
+ * 'min-per-second' x {@value #WINDOW_SECONDS} (so that a route with little traffic can still retry).
+ * Counters are kept per second in a ring of slots, a slot is reset lazily when a new second reuses it.
+ */
+public class RetryBudget {
+
+    static final int WINDOW_SECONDS = 10;
+
+    /** second, requests and retries of each slot */
+    private final AtomicLongArray slots = new AtomicLongArray(3 * WINDOW_SECONDS);
+    private final double ratio;
+    private final long minRetries;
+
+    public RetryBudget(double ratio, int minPerSecond) {
+        this.ratio = ratio;
+        this.minRetries = (long) minPerSecond * WINDOW_SECONDS;
+    }
+
+    /** @param now {@link System#nanoTime()} */
+    public void request(long now) {
+        slots.incrementAndGet(slot(now) + 1);
+    }
+
+    /**
+     * Takes a retry (or a hedged copy) from the budget
+     *
+     * @param now {@link System#nanoTime()}
+     * @return false if the budget is exhausted
+     */
+    public boolean tryRetry(long now) {
+        long second = TimeUnit.NANOSECONDS.toSeconds(now);
+        long requests = 0;
+        long retries = 0;
+        for (int i = 0; i < WINDOW_SECONDS; i++) {
+            if (second - slots.get(3 * i) < WINDOW_SECONDS) {
+                requests += slots.get(3 * i + 1);
+                retries += slots.get(3 * i + 2);
+            }
+        }
+        if (retries >= minRetries + ratio * requests) {
+            return false;
+        }
+        slots.incrementAndGet(slot(now) + 2);
+        return true;
+    }
+
+    /** Index of the current second's slot, reset if it holds an older second */
+    private int slot(long now) {
+        long second = TimeUnit.NANOSECONDS.toSeconds(now);
+        int index = 3 * (int) Math.floorMod(second, (long) WINDOW_SECONDS);
+        long slotSecond = slots.get(index);
+        if (slotSecond != second && slots.compareAndSet(index, slotSecond, second)) {
+            // a few counts of the new second may be lost to the reset, the budget is approximate anyway
+            slots.set(index + 1, 0);
+            slots.set(index + 2, 0);
+        }
+        return index;
+    }
+}
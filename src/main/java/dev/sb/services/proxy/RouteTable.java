@@ -0,0 +1,85 @@
+package dev.sb.services.proxy;
+
+import org.springframework.web.server.ServerWebExchange;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * Path prefix trie of proxy routes, compiled once at startup.
+ * <p>
+ * Lookup walks the request path segment by segment and returns the route with the longest matching prefix,
+ * so its cost depends on the path depth and not on the number of routes.
+ * The result is stored as an exchange attribute, so the route predicates evaluated one after another
+ * by Spring Cloud Gateway only compare route ids after the first lookup.
+ */
+public class RouteTable {
+
+    private static final String ROUTE_ID_ATTR = RouteTable.class.getName() + ".routeId";
+    private static final String NO_ROUTE = "";
+
+    private final Node root = new Node();
+
+    /**
+     * @param prefix path prefix, e.g. "/api" matches "/api" and "/api/**" but not "/apix"
+     * @throws IllegalArgumentException if prefix is already taken by another route
+     */
+    public RouteTable add(String prefix, String routeId) {
+        Node node = root;
+        for (String segment : prefix.split("/")) {
+            if (!segment.isEmpty()) {
+                node = node.children.computeIfAbsent(segment, s -> new Node());
+            }
+        }
+        if (node.routeId != null) {
+            throw new IllegalArgumentException("Path prefix '" + prefix + "' of route '" + routeId
+                + "' is already used by route '" + node.routeId + "'");
+        }
+        node.routeId = routeId;
+        return this;
+    }
+
+    /** @return id of the route with the longest prefix of path, null if there is none */
+    public String lookup(String path) {
+        Node node = root;
+        String routeId = root.routeId;
+        int start = 0;
+        while (start < path.length()) {
+            int end = path.indexOf('/', start);
+            if (end < 0) {
+                end = path.length();
+            }
+            if (end > start) {
+                node = node.children.get(path.substring(start, end));
+                if (node == null) {
+                    break;
+                }
+                if (node.routeId != null) {
+                    routeId = node.routeId;
+                }
+            }
+            start = end + 1;
+        }
+        return routeId;
+    }
+
+    /** Route predicate: the request path is routed to routeId */
+    public Predicate<ServerWebExchange> predicate(String routeId) {
+        return exchange -> routeId.equals(lookup(exchange));
+    }
+
+    private String lookup(ServerWebExchange exchange) {
+        String routeId = exchange.getAttribute(ROUTE_ID_ATTR);
+        if (routeId == null) {
+            routeId = lookup(exchange.getRequest().getPath().pathWithinApplication().value());
+            exchange.getAttributes().put(ROUTE_ID_ATTR, routeId != null ? routeId : NO_ROUTE);
+        }
+        return routeId;
+    }
+
+    private static class Node {
+        private final Map<String, Node> children = new HashMap<>();
+        private String routeId;
+    }
+}
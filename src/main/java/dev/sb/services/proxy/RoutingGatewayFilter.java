@@ -0,0 +1,40 @@
+package dev.sb.services.proxy;
+
+import org.springframework.cloud.gateway.filter.GatewayFilter;
+import org.springframework.cloud.gateway.filter.GatewayFilterChain;
+import org.springframework.cloud.gateway.filter.NettyRoutingFilter;
+import org.springframework.cloud.gateway.support.ServerWebExchangeUtils;
+import org.springframework.core.Ordered;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Mono;
+
+import java.net.URI;
+
+/**
+ * Sends requests of a route with its own connection pool through the route's {@link UpstreamClient},
+ * in place of {@link NettyRoutingFilter} and its shared client.
+ */
+public class RoutingGatewayFilter implements GatewayFilter {
+
+    /** just before {@link NettyRoutingFilter}, which skips requests routed here */
+    public static final int ORDER = Ordered.LOWEST_PRECEDENCE - 1;
+
+    private final UpstreamClient upstreamClient;
+
+    public RoutingGatewayFilter(UpstreamClient upstreamClient) {
+        this.upstreamClient = upstreamClient;
+    }
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, GatewayFilterChain chain) {
+        URI url = exchange.getRequiredAttribute(ServerWebExchangeUtils.GATEWAY_REQUEST_URL_ATTR);
+        if (ServerWebExchangeUtils.isAlreadyRouted(exchange)
+            || !"http".equals(url.getScheme()) && !"https".equals(url.getScheme())) {
+            return chain.filter(exchange);
+        }
+        ServerWebExchangeUtils.setAlreadyRouted(exchange);
+
+        return upstreamClient.send(exchange, url)
+            .then(chain.filter(exchange));
+    }
+}
@@ -0,0 +1,247 @@
+package dev.sb.services.proxy;
+
+import dev.sb.services.signing.BodyDigest;
+import dev.sb.services.signing.MessageSignature;
+import dev.sb.services.signing.RequestSigner;
+import dev.sb.services.signing.SignatureFormat;
+import dev.sb.services.signing.SigningClock;
+import dev.sb.services.signing.SigningScheduler;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.cloud.gateway.filter.GatewayFilter;
+import org.springframework.cloud.gateway.filter.GatewayFilterChain;
+import org.springframework.cloud.gateway.route.Route;
+import org.springframework.cloud.gateway.support.ServerWebExchangeUtils;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.util.UriComponentsBuilder;
+import reactor.core.publisher.Mono;
+
+import java.net.URI;
+import java.util.List;
+
+/**
+ * Adds 'Date', 'Digest' and 'Signature' HTTP headers in a single pass.
+ * <p>
+ * Produces the same headers as {@link AddDateHeaderGatewayFilter}, {@link AddDigestHeaderGatewayFilter}
+ * and {@link AddSignatureHeaderGatewayFilter} chained together, but mutates request and exchange only once
+ * and signs request headers without copying them to a single value map.
+ * <p>
+ * In {@link SignatureFormat#RFC9421} format 'Content-Digest', 'Signature-Input' and 'Signature' are added instead
+ * and no 'Date' header is required, signature creation time is part of the signature parameters.
+ * <p>
+ * With {@link RequestBodyCompression} the body is compressed as it is read, so it is digested as sent.
+ */
+@Slf4j
+public class SigningGatewayFilter implements GatewayFilter {
+
+    private final SigningClock signingClock;
+    private final RequestSigner requestSigner;
+    private final SigningScheduler signingScheduler;
+    private final RequestBodySpool requestBodySpool;
+    private final ProxyMetrics proxyMetrics;
+    private final SignatureFormat format;
+    /** methods of requests whose body is digested */
+    private final List<String> digestMethods;
+    /** null if request bodies are sent as received */
+    private final RequestBodyCompression compression;
+
+    public SigningGatewayFilter(SigningClock signingClock,
+                                RequestSigner requestSigner,
+                                SigningScheduler signingScheduler,
+                                RequestBodySpool requestBodySpool,
+                                ProxyMetrics proxyMetrics,
+                                List<String> digestMethods) {
+        this(signingClock, requestSigner, signingScheduler, requestBodySpool, proxyMetrics,
+            SignatureFormat.DRAFT_CAVAGE, digestMethods, null);
+    }
+
+    public SigningGatewayFilter(SigningClock signingClock,
+                                RequestSigner requestSigner,
+                                SigningScheduler signingScheduler,
+                                RequestBodySpool requestBodySpool,
+                                ProxyMetrics proxyMetrics,
+                                SignatureFormat format,
+                                List<String> digestMethods,
+                                RequestBodyCompression compression) {
+        this.signingClock = signingClock;
+        this.requestSigner = requestSigner;
+        this.signingScheduler = signingScheduler;
+        this.requestBodySpool = requestBodySpool;
+        this.proxyMetrics = proxyMetrics;
+        this.format = format;
+        this.digestMethods = digestMethods;
+        this.compression = compression;
+    }
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, GatewayFilterChain chain) {
+        ServerHttpRequest request = exchange.getRequest();
+
+        String requestDate = request.getHeaders().getFirst(ProxyHeaders.DATE);
+        String date = requestDate != null || format == SignatureFormat.RFC9421 ? requestDate : signingClock.httpDate();
+        boolean addDate = requestDate == null && date != null;
+
+        if (!digestMethods.contains(request.getMethodValue())) {
+            return signingScheduler.execute(() -> sign(exchange, request, date, addDate, null))
+                .doOnError(proxyMetrics::recordFailure)
+                .flatMap(headers -> filter(exchange, chain, request, headers));
+        }
+
+        long bodyStart = System.nanoTime();
+        ServerHttpRequest bodyRequest = compression != null
+            ? compression.compress(request, exchange.getResponse().bufferFactory())
+            : request;
+
+        // decided by the received size, the compressed one is not known yet
+        if (requestBodySpool.shouldSpool(request)) {
+            BodyDigest bodyDigest = requestSigner.newBodyDigest();
+
+            return requestBodySpool.spool(bodyRequest, bodyDigest)
+                .flatMap(spooledBody -> {
+                    // digest is updated while the body is spooled, so it is part of 'body' stage
+                    long bodyNanos = proxyMetrics.recordBody(bodyStart, spooledBody.size());
+                    AccessLogEntry entry = AccessLogEntry.of(exchange);
+                    if (entry != null) {
+                        entry.body(bodyNanos, spooledBody.size(), null);
+                    }
+                    String digest = spooledBody.size() == 0 ? null
+                        : format == SignatureFormat.RFC9421 ? bodyDigest.contentDigest() : bodyDigest.digest();
+                    ServerHttpRequest decorated = spooledBody.decorate(bodyRequest,
+                        exchange.getResponse().bufferFactory());
+                    ServerHttpRequest spooledRequest = RequestBodyCompression.isCompressed(bodyRequest)
+                        ? RequestBodyCompression.withContentLength(decorated, spooledBody.size())
+                        : decorated;
+
+                    return signingScheduler.execute(() -> sign(exchange, spooledRequest, date, addDate, digest))
+                        .doOnError(proxyMetrics::recordFailure)
+                        .flatMap(headers -> filter(exchange, chain, spooledRequest, headers))
+                        .doFinally(signal -> spooledBody.delete());
+                });
+        }
+
+        ServerWebExchange bodyExchange = bodyRequest != request
+            ? exchange.mutate().request(bodyRequest).build()
+            : exchange;
+        return ServerWebExchangeUtils.cacheRequestBody(bodyExchange,
+            (decorated) -> {
+                DataBuffer dataBuffer = exchange.getAttribute(ServerWebExchangeUtils.CACHED_REQUEST_BODY_ATTR);
+                int size = dataBuffer != null ? dataBuffer.readableByteCount() : 0;
+                long bodyNanos = proxyMetrics.recordBody(bodyStart, size);
+                // a chunked body is compressed once it has 'min-size', known now that it is read
+                boolean compressed = RequestBodyCompression.isCompressed(bodyRequest);
+                AccessLogEntry entry = AccessLogEntry.of(exchange);
+                if (entry != null) {
+                    entry.body(bodyNanos, size, compressed ? null : dataBuffer);
+                }
+                ServerHttpRequest cachedRequest = compressed && dataBuffer != null
+                    ? RequestBodyCompression.withContentLength(decorated, dataBuffer.readableByteCount())
+                    : decorated;
+
+                return signingScheduler.execute(() -> {
+                    String digest = dataBuffer != null ? digest(dataBuffer, entry) : null;
+                    return sign(exchange, cachedRequest, date, addDate, digest);
+                })
+                    .doOnError(proxyMetrics::recordFailure)
+                    .flatMap(headers -> filter(exchange, chain, cachedRequest, headers));
+            });
+    }
+
+    /** Runs on signing scheduler */
+    private String digest(DataBuffer dataBuffer, AccessLogEntry entry) {
+        long start = System.nanoTime();
+        String digest = format == SignatureFormat.RFC9421 ? requestSigner.createContentDigest(dataBuffer)
+            : requestSigner.createDigest(dataBuffer);
+        long nanos = proxyMetrics.recordDigest(start);
+        if (entry != null) {
+            entry.digest(nanos);
+        }
+        return digest;
+    }
+
+    /** Runs on signing scheduler */
+    private SignedHeaders sign(ServerWebExchange exchange, ServerHttpRequest request, String date, boolean addDate,
+                               String digest) {
+        long start = System.nanoTime();
+        String method = request.getMethodValue();
+        SignedHeaders signedHeaders;
+        if (format == SignatureFormat.RFC9421) {
+            MessageSignature signature = requestSigner.createMessageSignature(method, targetUri(exchange, request),
+                request.getHeaders(), digest, signingClock.epochSecond());
+            signedHeaders = new SignedHeaders(null, ProxyHeaders.CONTENT_DIGEST, digest,
+                signature.getSignatureInput(), signature.getSignature());
+        } else {
+            String path = request.getPath().toString();
+            String signature = requestSigner.createSignature(method, path, request.getHeaders(), date, digest);
+            signedHeaders = new SignedHeaders(addDate ? date : null, ProxyHeaders.DIGEST, digest, null, signature);
+        }
+        long nanos = proxyMetrics.recordSigning(start);
+        AccessLogEntry entry = AccessLogEntry.of(exchange);
+        if (entry != null) {
+            entry.signing(nanos);
+        }
+        return signedHeaders;
+    }
+
+    /** URI the request is sent to: route (upstream) URI with the rewritten path and query of the request */
+    private static URI targetUri(ServerWebExchange exchange, ServerHttpRequest request) {
+        Route route = exchange.getAttribute(ServerWebExchangeUtils.GATEWAY_ROUTE_ATTR);
+        if (route == null) {
+            return request.getURI();
+        }
+        return UriComponentsBuilder.fromUri(route.getUri())
+            .replacePath(request.getURI().getRawPath())
+            .replaceQuery(request.getURI().getRawQuery())
+            .build(true)
+            .toUri();
+    }
+
+    private Mono<Void> filter(ServerWebExchange exchange, GatewayFilterChain chain,
+                              ServerHttpRequest request, SignedHeaders signedHeaders) {
+
+        ServerHttpRequest signedRequest = request.mutate().headers(signedHeaders::addTo).build();
+
+        if (log.isTraceEnabled()) {
+            log.trace("HTTP headers: {}", signedRequest.getHeaders().toString());
+        }
+        long upstreamStart = System.nanoTime();
+        AccessLogEntry entry = AccessLogEntry.of(exchange);
+        if (entry != null) {
+            entry.upstreamStarted(upstreamStart);
+        }
+        return chain.filter(exchange.mutate().request(signedRequest).build())
+            .doFinally(signal -> proxyMetrics.recordUpstream(upstreamStart));
+    }
+
+    /** Headers to add to request, null values are not added */
+    private static class SignedHeaders {
+
+        private final String date;
+        private final String digestHeader;
+        private final String digest;
+        private final String signatureInput;
+        private final String signature;
+
+        SignedHeaders(String date, String digestHeader, String digest, String signatureInput, String signature) {
+            this.date = date;
+            this.digestHeader = digestHeader;
+            this.digest = digest;
+            this.signatureInput = signatureInput;
+            this.signature = signature;
+        }
+
+        void addTo(HttpHeaders headers) {
+            if (date != null) {
+                headers.set(ProxyHeaders.DATE, date);
+            }
+            if (digest != null) {
+                headers.set(digestHeader, digest);
+            }
+            if (signatureInput != null) {
+                headers.set(ProxyHeaders.SIGNATURE_INPUT, signatureInput);
+            }
+            headers.set(ProxyHeaders.SIGNATURE, signature);
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package dev.sb.services.proxy;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.net.URI;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Upstream instances of a route and the choice of one of them for each request.
+ * <p>
+ * Only available instances (healthy and not ejected) are chosen; when none is available, all are used
+ * rather than failing every request. Instances are ejected for 'ejection-duration' after
+ * 'consecutive-failures' failed requests or when their latency is 'latency-factor' times the median
+ * latency of the route; at most 'max-ejection-percent' of instances, and never all of them, are ejected.
+ * <p>
+ * Choosing scans the (few) instances in place, nothing is allocated per request.
+ */
+@Slf4j
+public class UpstreamBalancer {
+
+    private final String routeId;
+    private final UpstreamInstance[] instances;
+    private final BalancingStrategy strategy;
+    private final ProxyRoutesProperties.HealthCheck healthCheck;
+    private final ProxyRoutesProperties.OutlierDetection outlierDetection;
+    private final int maxEjected;
+
+    public UpstreamBalancer(String routeId, List<String> instances, ProxyRoutesProperties.Balancer balancer) {
+        if (instances.isEmpty()) {
+            throw new IllegalArgumentException("No upstream instances of route " + routeId);
+        }
+        this.routeId = routeId;
+        this.instances = instances.stream()
+            .map(uri -> new UpstreamInstance(URI.create(uri)))
+            .toArray(UpstreamInstance[]::new);
+        this.strategy = BalancingStrategy.of(balancer.getStrategy());
+        this.healthCheck = balancer.getHealthCheck();
+        this.outlierDetection = balancer.getOutlierDetection();
+        this.maxEjected = Math.min(this.instances.length - 1,
+            Math.max(1, this.instances.length * outlierDetection.getMaxEjectionPercent() / 100));
+    }
+
+    /** @param now {@link System#nanoTime()} */
+    public UpstreamInstance choose(long now) {
+        int available = 0;
+        for (UpstreamInstance instance : instances) {
+            if (instance.isAvailable(now)) {
+                available++;
+            }
+        }
+        // panic: spreading over all instances beats failing all requests
+        boolean all = available == 0;
+        int candidates = all ? instances.length : available;
+        if (candidates == 1) {
+            return candidate(0, now, all);
+        }
+
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        if (strategy == BalancingStrategy.POWER_OF_TWO_CHOICES) {
+            int first = random.nextInt(candidates);
+            int second = random.nextInt(candidates - 1);
+            UpstreamInstance a = candidate(first, now, all);
+            UpstreamInstance b = candidate(second >= first ? second + 1 : second, now, all);
+            return less(b, a) ? b : a;
+        }
+
+        // least outstanding, scanned from a random position so that ties are spread
+        int start = random.nextInt(candidates);
+        UpstreamInstance chosen = null;
+        for (int i = 0; i < candidates; i++) {
+            UpstreamInstance instance = candidate((start + i) % candidates, now, all);
+            if (chosen == null || instance.getOutstanding() < chosen.getOutstanding()) {
+                chosen = instance;
+            }
+        }
+        return chosen;
+    }
+
+    /**
+     * Instance for a hedged or retried copy of a request, another one than 'excluded' if possible
+     *
+     * @param now {@link System#nanoTime()}
+     */
+    public UpstreamInstance chooseOther(UpstreamInstance excluded, long now) {
+        UpstreamInstance instance = choose(now);
+        if (instance != excluded || instances.length == 1) {
+            return instance;
+        }
+        for (UpstreamInstance other : instances) {
+            if (other != excluded && other.isAvailable(now)) {
+                return other;
+            }
+        }
+        return instance;
+    }
+
+    /** Fewer requests in flight, or lower latency when equally loaded */
+    private static boolean less(UpstreamInstance a, UpstreamInstance b) {
+        int outstanding = Integer.compare(a.getOutstanding(), b.getOutstanding());
+        return outstanding < 0 || outstanding == 0 && a.getLatency() < b.getLatency();
+    }
+
+    /** n-th available instance (n-th of all instances in panic) */
+    private UpstreamInstance candidate(int n, long now, boolean all) {
+        if (all) {
+            return instances[n];
+        }
+        for (UpstreamInstance instance : instances) {
+            if (instance.isAvailable(now) && n-- == 0) {
+                return instance;
+            }
+        }
+        // an instance became unavailable since they were counted
+        return instances[0];
+    }
+
+    /** Request to the instance cancelled (client gone, losing hedged attempt), its latency is not known */
+    public void cancel(UpstreamInstance instance) {
+        instance.cancel();
+    }
+
+    /**
+     * @param nanos  latency of the request
+     * @param failed connection error or 5xx response
+     * @param now    {@link System#nanoTime()}
+     */
+    public void finish(UpstreamInstance instance, long nanos, boolean failed, long now) {
+        int consecutiveFailures = instance.finish(nanos, failed);
+        if (outlierDetection.getConsecutiveFailures() > 0
+            && consecutiveFailures >= outlierDetection.getConsecutiveFailures()) {
+            eject(instance, now, consecutiveFailures + " consecutive failures");
+        }
+    }
+
+    /**
+     * Ejects instances whose latency is an outlier, runs every 'outlier-detection.interval'
+     *
+     * @param now {@link System#nanoTime()}
+     */
+    public void detectOutliers(long now) {
+        long[] latencies = Arrays.stream(instances)
+            .filter(instance -> instance.isAvailable(now) && instance.getSamples() >= outlierDetection.getMinRequests())
+            .mapToLong(UpstreamInstance::getLatency)
+            .sorted()
+            .toArray();
+        if (latencies.length < 2) {
+            return;
+        }
+        // lower median: with two instances the faster one is the reference
+        long median = latencies[(latencies.length - 1) / 2];
+        long threshold = (long) (median * outlierDetection.getLatencyFactor());
+
+        for (UpstreamInstance instance : instances) {
+            if (instance.isAvailable(now) && instance.getSamples() >= outlierDetection.getMinRequests()
+                && instance.getLatency() > threshold) {
+                eject(instance, now, String.format("latency %d ms, median %d ms",
+                    instance.getLatency() / 1_000_000, median / 1_000_000));
+            }
+        }
+    }
+
+    private synchronized void eject(UpstreamInstance instance, long now, String reason) {
+        if (instance.isEjected(now)) {
+            return;
+        }
+        int ejected = 0;
+        for (UpstreamInstance other : instances) {
+            if (other.isEjected(now)) {
+                ejected++;
+            }
+        }
+        if (ejected >= maxEjected) {
+            log.warn("Upstream {} of route {} is an outlier ({}), but {} of {} instances are ejected already",
+                instance.getUri(), routeId, reason, ejected, instances.length);
+            return;
+        }
+        instance.eject(now + outlierDetection.getEjectionDuration().toNanos());
+        log.warn("Upstream {} of route {} ejected for {}: {}", instance.getUri(), routeId,
+            outlierDetection.getEjectionDuration(), reason);
+    }
+
+    public String getRouteId() {
+        return routeId;
+    }
+
+    public BalancingStrategy getStrategy() {
+        return strategy;
+    }
+
+    public List<UpstreamInstance> getInstances() {
+        return List.of(instances);
+    }
+
+    public ProxyRoutesProperties.HealthCheck getHealthCheck() {
+        return healthCheck;
+    }
+
+    public ProxyRoutesProperties.OutlierDetection getOutlierDetection() {
+        return outlierDetection;
+    }
+}
@@ -0,0 +1,147 @@
+package dev.sb.services.proxy;
+
+import io.netty.handler.codec.http.DefaultHttpHeaders;
+import io.netty.handler.codec.http.HttpMethod;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.cloud.gateway.filter.NettyRoutingFilter;
+import org.springframework.cloud.gateway.filter.headers.HttpHeadersFilter;
+import org.springframework.cloud.gateway.support.ServerWebExchangeUtils;
+import org.springframework.core.io.buffer.NettyDataBufferFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.server.reactive.AbstractServerHttpResponse;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.http.server.reactive.ServerHttpResponseDecorator;
+import org.springframework.util.StringUtils;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Mono;
+import reactor.netty.Connection;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.http.client.HttpClientResponse;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * HTTP client of a route's upstream: the shared client of the gateway, or one with its own connection pool
+ * ({@link UpstreamClients}).
+ * <p>
+ * Requests are sent, and responses handed over to
+ * {@link org.springframework.cloud.gateway.filter.NettyWriteResponseFilter}, the same way
+ * {@link NettyRoutingFilter} does it.
+ */
+public class UpstreamClient {
+
+    private final HttpClient httpClient;
+    private final ObjectProvider<List<HttpHeadersFilter>> headersFiltersProvider;
+    /** null if responses are awaited without a timeout */
+    private final Duration responseTimeout;
+
+    private volatile List<HttpHeadersFilter> headersFilters;
+
+    public UpstreamClient(HttpClient httpClient,
+                          ObjectProvider<List<HttpHeadersFilter>> headersFiltersProvider,
+                          Duration responseTimeout) {
+        this.httpClient = httpClient;
+        this.headersFiltersProvider = headersFiltersProvider;
+        this.responseTimeout = responseTimeout;
+    }
+
+    public Duration getResponseTimeout() {
+        return responseTimeout;
+    }
+
+    /** Sends the request (with its body) to the URL, the response is applied to the exchange */
+    public Mono<Void> send(ServerWebExchange exchange, URI url) {
+        ServerHttpRequest request = exchange.getRequest();
+        Mono<HttpClientResponse> response = request(exchange, url, HttpMethod.valueOf(request.getMethodValue()))
+            .send((clientRequest, outbound) -> outbound.send(request.getBody().map(NettyDataBufferFactory::toByteBuf)))
+            .responseConnection((clientResponse, connection) -> {
+                applyResponse(exchange, clientResponse, connection);
+                return Mono.just(clientResponse);
+            })
+            .singleOrEmpty();
+        return timeout(response, responseTimeout).then();
+    }
+
+    /** Request with the filtered headers of the exchange ('Host' of the URL unless it is preserved) */
+    HttpClient.RequestSender request(ServerWebExchange exchange, URI url, HttpMethod method) {
+        return withHeaders(exchange).request(method).uri(url.toASCIIString());
+    }
+
+    /** Client sending the filtered headers of the exchange, the same for every attempt of a request */
+    HttpClient withHeaders(ServerWebExchange exchange) {
+        DefaultHttpHeaders headers = new DefaultHttpHeaders();
+        HttpHeadersFilter.filterRequest(getHeadersFilters(), exchange).forEach(headers::set);
+        boolean preserveHost = exchange.getAttributeOrDefault(ServerWebExchangeUtils.PRESERVE_HOST_HEADER_ATTRIBUTE,
+            false);
+        String host = preserveHost ? exchange.getRequest().getHeaders().getFirst(HttpHeaders.HOST) : null;
+
+        return httpClient.headers(clientHeaders -> {
+            clientHeaders.add(headers);
+            clientHeaders.remove(HttpHeaders.HOST);
+            if (host != null) {
+                clientHeaders.add(HttpHeaders.HOST, host);
+            }
+        });
+    }
+
+    /** Upstream response is not awaited longer than the timeout, HTTP 504 */
+    static <T> Mono<T> timeout(Mono<T> response, Duration timeout) {
+        if (timeout == null) {
+            return response;
+        }
+        return response.timeout(timeout, Mono.error(() -> new ResponseStatusException(HttpStatus.GATEWAY_TIMEOUT,
+            "Response took longer than " + timeout)));
+    }
+
+    /** Status and headers of the upstream response, its body is written from the connection */
+    void applyResponse(ServerWebExchange exchange, HttpClientResponse clientResponse, Connection connection) {
+        exchange.getAttributes().put(ServerWebExchangeUtils.CLIENT_RESPONSE_ATTR, clientResponse);
+        exchange.getAttributes().put(ServerWebExchangeUtils.CLIENT_RESPONSE_CONN_ATTR, connection);
+
+        HttpHeaders headers = new HttpHeaders();
+        clientResponse.responseHeaders().forEach(entry -> headers.add(entry.getKey(), entry.getValue()));
+        String contentType = headers.getFirst(HttpHeaders.CONTENT_TYPE);
+        if (StringUtils.hasLength(contentType)) {
+            exchange.getAttributes().put(ServerWebExchangeUtils.ORIGINAL_RESPONSE_CONTENT_TYPE_ATTR, contentType);
+        }
+        setStatus(exchange.getResponse(), clientResponse.status().code());
+
+        HttpHeaders filteredHeaders = HttpHeadersFilter.filter(getHeadersFilters(), headers, exchange,
+            HttpHeadersFilter.Type.RESPONSE);
+        if (!filteredHeaders.containsKey(HttpHeaders.TRANSFER_ENCODING)
+            && filteredHeaders.containsKey(HttpHeaders.CONTENT_LENGTH)) {
+            exchange.getResponse().getHeaders().remove(HttpHeaders.TRANSFER_ENCODING);
+        }
+        exchange.getAttributes().put(ServerWebExchangeUtils.CLIENT_RESPONSE_HEADER_NAMES, filteredHeaders.keySet());
+        exchange.getResponse().getHeaders().putAll(filteredHeaders);
+    }
+
+    private static void setStatus(ServerHttpResponse response, int code) {
+        HttpStatus status = HttpStatus.resolve(code);
+        if (status != null) {
+            response.setStatusCode(status);
+            return;
+        }
+        while (response instanceof ServerHttpResponseDecorator) {
+            response = ((ServerHttpResponseDecorator) response).getDelegate();
+        }
+        if (response instanceof AbstractServerHttpResponse) {
+            ((AbstractServerHttpResponse) response).setStatusCodeValue(code);
+        } else {
+            throw new IllegalStateException("Unable to set status code " + code + " on response of type "
+                + response.getClass().getName());
+        }
+    }
+
+    private List<HttpHeadersFilter> getHeadersFilters() {
+        if (headersFilters == null) {
+            headersFilters = headersFiltersProvider.getIfAvailable(List::of);
+        }
+        return headersFilters;
+    }
+}
@@ -0,0 +1,282 @@
+package dev.sb.services.proxy;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.netty.channel.ChannelOption;
+import io.netty.handler.ssl.SslContextBuilder;
+import io.netty.handler.ssl.util.InsecureTrustManagerFactory;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.cloud.gateway.config.HttpClientProperties;
+import org.springframework.cloud.gateway.filter.headers.HttpHeadersFilter;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Mono;
+import reactor.netty.Connection;
+import reactor.netty.http.HttpProtocol;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.http.client.HttpClientMetricsRecorder;
+import reactor.netty.resources.ConnectionProvider;
+import reactor.netty.tcp.ProxyProvider;
+
+import java.net.SocketAddress;
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Upstream clients of routes: the shared client of the gateway, or a client with the route's own
+ * connection pool and protocol ('gateway.pool').
+ * <p>
+ * A route's client is configured from 'spring.cloud.gateway.httpclient' as the gateway's client is
+ * (connect timeout, proxy, TLS, wiretap), only its connection pool differs.
+ * <p>
+ * Pools of routes are metered: reactor-netty registers total, active, idle and pending connections
+ * ({@code reactor.netty.connection.provider.upstream-<route>.*}), connection acquisition is timed into
+ * the {@code proxy.upstream.pool.acquire} histogram, connect and TLS handshake into
+ * {@code proxy.upstream.connect} and {@code proxy.upstream.tls.handshake}.
+ * Requests beyond 'max-pending-acquires' are rejected at once, they would only wait for 'acquire-timeout'.
+ */
+@Component
+@Slf4j
+public class UpstreamClients implements DisposableBean {
+
+    private final HttpClient httpClient;
+    private final ObjectProvider<List<HttpHeadersFilter>> headersFilters;
+    private final HttpClientProperties httpClientProperties;
+    private final MeterRegistry meterRegistry;
+    private final UpstreamClient shared;
+    private final List<ConnectionProvider> connectionProviders = new CopyOnWriteArrayList<>();
+
+    public UpstreamClients(HttpClient httpClient,
+                           ObjectProvider<List<HttpHeadersFilter>> headersFilters,
+                           HttpClientProperties httpClientProperties,
+                           MeterRegistry meterRegistry) {
+        this.httpClient = httpClient;
+        this.headersFilters = headersFilters;
+        this.httpClientProperties = httpClientProperties;
+        this.meterRegistry = meterRegistry;
+        this.shared = new UpstreamClient(httpClient, headersFilters, httpClientProperties.getResponseTimeout());
+    }
+
+    /** Client of the gateway, shared by all routes without their own pool */
+    public UpstreamClient shared() {
+        return shared;
+    }
+
+    /** Client with its own pool, or the shared one if the route has no pool configured */
+    public UpstreamClient of(String routeId, ProxyRoutesProperties.Pool pool) {
+        if (pool.getMaxConnections() <= 0) {
+            return shared;
+        }
+        HttpProtocol protocol = protocol(pool.getProtocol());
+        ConnectionProvider connectionProvider = ConnectionProvider.fixed("upstream-" + routeId,
+            pool.getMaxConnections(), pool.getAcquireTimeout().toMillis(), pool.getMaxIdleTime());
+        connectionProviders.add(connectionProvider);
+        log.info("Upstream pool of route {}: {} connections, {} pending acquires, {}", routeId,
+            pool.getMaxConnections(), pool.getMaxPendingAcquires(), protocol);
+
+        PendingAcquires pendingAcquires = new PendingAcquires(routeId, pool.getMaxPendingAcquires());
+        HttpClient client = configured(HttpClient.create(connectionProvider).protocol(protocol))
+            // also registers the pool gauges of reactor-netty
+            .metrics(true, new ConnectionMetrics(routeId))
+            .mapConnect((connection, bootstrap) -> pendingAcquires.acquire(connection));
+        return new UpstreamClient(client, headersFilters, httpClientProperties.getResponseTimeout());
+    }
+
+    /**
+     * 'spring.cloud.gateway.httpclient' applied the way the gateway applies it to its own client
+     * (the connection provider of a reactor-netty client can't be replaced, so the gateway's client is not reused)
+     */
+    HttpClient configured(HttpClient client) {
+        Integer connectTimeout = httpClientProperties.getConnectTimeout();
+        HttpClientProperties.Proxy proxy = httpClientProperties.getProxy();
+        client = client.tcpConfiguration(tcpClient -> {
+            if (connectTimeout != null) {
+                tcpClient = tcpClient.option(ChannelOption.CONNECT_TIMEOUT_MILLIS, connectTimeout);
+            }
+            if (StringUtils.hasText(proxy.getHost())) {
+                tcpClient = tcpClient.proxy(spec -> {
+                    ProxyProvider.Builder builder = spec.type(ProxyProvider.Proxy.HTTP).host(proxy.getHost());
+                    if (proxy.getPort() != null) {
+                        builder.port(proxy.getPort());
+                    }
+                    if (StringUtils.hasText(proxy.getUsername())) {
+                        builder.username(proxy.getUsername());
+                    }
+                    if (StringUtils.hasText(proxy.getPassword())) {
+                        builder.password(username -> proxy.getPassword());
+                    }
+                    if (StringUtils.hasText(proxy.getNonProxyHostsPattern())) {
+                        builder.nonProxyHosts(proxy.getNonProxyHostsPattern());
+                    }
+                });
+            }
+            return tcpClient;
+        });
+
+        HttpClientProperties.Ssl ssl = httpClientProperties.getSsl();
+        if (StringUtils.hasLength(ssl.getKeyStore()) || ssl.getTrustedX509CertificatesForTrustManager().length > 0
+            || ssl.isUseInsecureTrustManager()) {
+            client = client.secure(spec -> {
+                SslContextBuilder sslContext = SslContextBuilder.forClient();
+                X509Certificate[] trusted = ssl.getTrustedX509CertificatesForTrustManager();
+                if (trusted.length > 0) {
+                    sslContext.trustManager(trusted);
+                } else if (ssl.isUseInsecureTrustManager()) {
+                    sslContext.trustManager(InsecureTrustManagerFactory.INSTANCE);
+                }
+                sslContext.keyManager(ssl.getKeyManagerFactory());
+                spec.sslContext(sslContext)
+                    .defaultConfiguration(ssl.getDefaultConfigurationType())
+                    .handshakeTimeout(ssl.getHandshakeTimeout())
+                    .closeNotifyFlushTimeout(ssl.getCloseNotifyFlushTimeout())
+                    .closeNotifyReadTimeout(ssl.getCloseNotifyReadTimeout());
+            });
+        }
+        return client.wiretap(httpClientProperties.isWiretap());
+    }
+
+    /**
+     * Protocol of a route's client. HTTP/2 is rejected: the client of reactor-netty 0.9 fails every h2c request
+     * with prior knowledge ("unsupported message type: DefaultFullHttpRequest") and never offers the h2c upgrade,
+     * h2 also needs an ALPN-capable SslProvider. It takes reactor-netty 1.0 (Spring Boot 2.4).
+     */
+    static HttpProtocol protocol(String name) {
+        switch (name.toLowerCase(Locale.ROOT)) {
+            case "http11":
+                return HttpProtocol.HTTP11;
+            case "h2":
+            case "h2c":
+                throw new IllegalArgumentException("Protocol '" + name + "' is not supported by the HTTP client "
+                    + "of reactor-netty 0.9, it needs reactor-netty 1.0 (Spring Boot 2.4), supported: http11");
+            default:
+                throw new IllegalArgumentException("Unsupported protocol '" + name + "', supported: http11");
+        }
+    }
+
+    @Override
+    public void destroy() {
+        connectionProviders.forEach(ConnectionProvider::dispose);
+    }
+
+    /** Acquisitions of pooled connections (including new connections), bounded and timed */
+    private class PendingAcquires {
+
+        private final int maxPending;
+        private final AtomicInteger pending = new AtomicInteger();
+        private final Timer acquireTimer;
+        private final Counter rejected;
+
+        PendingAcquires(String routeId, int maxPending) {
+            this.maxPending = maxPending;
+            this.acquireTimer = Timer.builder("proxy.upstream.pool.acquire")
+                .description("Time to acquire an upstream connection from the pool of the route")
+                .tag("route", routeId)
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+            this.rejected = Counter.builder("proxy.upstream.pool.rejected")
+                .description("Requests rejected because too many were waiting for an upstream connection")
+                .tag("route", routeId)
+                .register(meterRegistry);
+            Gauge.builder("proxy.upstream.pool.pending", pending, AtomicInteger::get)
+                .description("Requests waiting for an upstream connection of the route")
+                .tag("route", routeId)
+                .register(meterRegistry);
+        }
+
+        Mono<? extends Connection> acquire(Mono<? extends Connection> connection) {
+            return Mono.defer(() -> {
+                if (pending.incrementAndGet() > maxPending) {
+                    pending.decrementAndGet();
+                    rejected.increment();
+                    return Mono.error(new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE,
+                        "UPSTREAM_POOL_EXHAUSTED"));
+                }
+                long start = System.nanoTime();
+                return connection
+                    .doOnSuccess(c -> acquireTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS))
+                    .doFinally(signal -> pending.decrementAndGet());
+            });
+        }
+    }
+
+    /** Connect and TLS handshake times of a route, per request meters of reactor-netty are not recorded */
+    private class ConnectionMetrics implements HttpClientMetricsRecorder {
+
+        private final Timer connectTimer;
+        private final Timer tlsHandshakeTimer;
+
+        ConnectionMetrics(String routeId) {
+            this.connectTimer = Timer.builder("proxy.upstream.connect")
+                .description("Time to connect to upstream")
+                .tag("route", routeId)
+                .register(meterRegistry);
+            this.tlsHandshakeTimer = Timer.builder("proxy.upstream.tls.handshake")
+                .description("Time of TLS handshakes with upstream")
+                .tag("route", routeId)
+                .register(meterRegistry);
+        }
+
+        @Override
+        public void recordConnectTime(SocketAddress remoteAddress, Duration time, String status) {
+            connectTimer.record(time);
+        }
+
+        @Override
+        public void recordTlsHandshakeTime(SocketAddress remoteAddress, Duration time, String status) {
+            tlsHandshakeTimer.record(time);
+        }
+
+        @Override
+        public void recordDataReceivedTime(SocketAddress remoteAddress, String uri, String method, String status,
+                                           Duration time) {
+        }
+
+        @Override
+        public void recordDataSentTime(SocketAddress remoteAddress, String uri, String method, Duration time) {
+        }
+
+        @Override
+        public void recordResponseTime(SocketAddress remoteAddress, String uri, String method, String status,
+                                       Duration time) {
+        }
+
+        @Override
+        public void recordDataReceived(SocketAddress remoteAddress, String uri, long bytes) {
+        }
+
+        @Override
+        public void recordDataSent(SocketAddress remoteAddress, String uri, long bytes) {
+        }
+
+        @Override
+        public void incrementErrorsCount(SocketAddress remoteAddress, String uri) {
+        }
+
+        @Override
+        public void recordDataReceived(SocketAddress remoteAddress, long bytes) {
+        }
+
+        @Override
+        public void recordDataSent(SocketAddress remoteAddress, long bytes) {
+        }
+
+        @Override
+        public void incrementErrorsCount(SocketAddress remoteAddress) {
+        }
+
+        @Override
+        public void recordResolveAddressTime(SocketAddress remoteAddress, Duration time, String status) {
+        }
+    }
+}
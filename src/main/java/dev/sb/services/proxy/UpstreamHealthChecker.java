@@ -0,0 +1,90 @@
+package dev.sb.services.proxy;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.util.UriComponentsBuilder;
+
+import java.net.URI;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Active health checks and outlier detection of balanced routes, all in-process.
+ * <p>
+ * Every 'health-check.interval' each instance gets a GET of 'health-check.path', any 2xx response within
+ * 'health-check.timeout' passes. Checks are non-blocking, a single scheduler thread only starts them.
+ * Also keeps all balancers of the application for {@link UpstreamsEndpoint}.
+ */
+@Component
+@Slf4j
+public class UpstreamHealthChecker implements DisposableBean {
+
+    private final List<UpstreamBalancer> balancers = new CopyOnWriteArrayList<>();
+    private final ScheduledExecutorService scheduler;
+    private final WebClient webClient;
+
+    public UpstreamHealthChecker(WebClient.Builder webClientBuilder) {
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("upstream-health-");
+        threadFactory.setDaemon(true);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(threadFactory);
+        this.webClient = webClientBuilder.build();
+    }
+
+    /** Starts health checks and outlier detection of the balancer */
+    public void register(UpstreamBalancer balancer) {
+        balancers.add(balancer);
+
+        ProxyRoutesProperties.HealthCheck healthCheck = balancer.getHealthCheck();
+        if (healthCheck.getPath() != null && !healthCheck.getPath().isBlank()) {
+            long interval = healthCheck.getInterval().toMillis();
+            scheduler.scheduleWithFixedDelay(() -> check(balancer), interval, interval, TimeUnit.MILLISECONDS);
+        }
+        long interval = balancer.getOutlierDetection().getInterval().toMillis();
+        scheduler.scheduleWithFixedDelay(() -> detectOutliers(balancer), interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    public List<UpstreamBalancer> getBalancers() {
+        return balancers;
+    }
+
+    private void check(UpstreamBalancer balancer) {
+        ProxyRoutesProperties.HealthCheck healthCheck = balancer.getHealthCheck();
+        for (UpstreamInstance instance : balancer.getInstances()) {
+            URI uri = UriComponentsBuilder.fromUri(instance.getUri())
+                .replacePath(healthCheck.getPath())
+                .build(true)
+                .toUri();
+            webClient.get().uri(uri)
+                .exchange()
+                .flatMap(response -> response.releaseBody().thenReturn(response.statusCode().is2xxSuccessful()))
+                .timeout(healthCheck.getTimeout())
+                .onErrorReturn(false)
+                .subscribe(passed -> {
+                    if (instance.healthCheck(passed, healthCheck.getThreshold())) {
+                        log.warn("Upstream {} of route {} is {}", instance.getUri(), balancer.getRouteId(),
+                            passed ? "healthy again" : "unhealthy");
+                    }
+                });
+        }
+    }
+
+    private void detectOutliers(UpstreamBalancer balancer) {
+        try {
+            balancer.detectOutliers(System.nanoTime());
+        } catch (RuntimeException e) {
+            // an exception would cancel the scheduled detection
+            log.error("Outlier detection of route {} failed", balancer.getRouteId(), e);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        scheduler.shutdownNow();
+    }
+}
@@ -0,0 +1,149 @@
+package dev.sb.services.proxy;
+
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * One upstream address of a balanced route and its load, latency and health.
+ * <p>
+ * Updated by every request without locks: requests in flight, moving average of the response latency
+ * and consecutive failures. Health (active checks) and ejection (outliers) are written by
+ * {@link UpstreamHealthChecker} and {@link UpstreamBalancer}.
+ */
+public class UpstreamInstance {
+
+    /** weight of a new latency sample in the moving average: 1/8, as in TCP RTT estimation */
+    private static final int LATENCY_SHIFT = 3;
+
+    private final URI uri;
+    private final AtomicInteger outstanding = new AtomicInteger();
+    /** moving average of latency in nanos, 0 until the first sample */
+    private final AtomicLong latency = new AtomicLong();
+    /** latency samples since the instance was (re)admitted */
+    private final AtomicLong samples = new AtomicLong();
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final AtomicInteger consecutiveHealthChecks = new AtomicInteger();
+    private final AtomicLong ejections = new AtomicLong();
+
+    private volatile boolean healthy = true;
+    /** {@link System#nanoTime()} the ejection ends, 0 if never ejected */
+    private volatile long ejectedUntil;
+
+    public UpstreamInstance(URI uri) {
+        this.uri = uri;
+    }
+
+    public URI getUri() {
+        return uri;
+    }
+
+    /** Request sent to the instance */
+    void start() {
+        outstanding.incrementAndGet();
+        requests.increment();
+    }
+
+    /** Request cancelled before its response: no latency sample, no failure */
+    void cancel() {
+        outstanding.decrementAndGet();
+    }
+
+    /**
+     * Response (headers) received or request failed
+     *
+     * @param nanos latency of the request
+     * @return consecutive failures, 0 if the request succeeded
+     */
+    int finish(long nanos, boolean failed) {
+        outstanding.decrementAndGet();
+        if (failed) {
+            failures.increment();
+            return consecutiveFailures.incrementAndGet();
+        }
+        consecutiveFailures.set(0);
+        long previous;
+        long next;
+        do {
+            previous = latency.get();
+            next = previous == 0 ? nanos : previous + ((nanos - previous) >> LATENCY_SHIFT);
+        } while (!latency.compareAndSet(previous, next));
+        samples.incrementAndGet();
+        return 0;
+    }
+
+    /** Not ejected and passing health checks */
+    boolean isAvailable(long now) {
+        return healthy && !isEjected(now);
+    }
+
+    boolean isEjected(long now) {
+        long until = ejectedUntil;
+        return until != 0 && now - until < 0;
+    }
+
+    /** Latency statistics start over, so the instance is judged by its responses after the ejection */
+    void eject(long until) {
+        ejectedUntil = until;
+        ejections.incrementAndGet();
+        latency.set(0);
+        samples.set(0);
+        consecutiveFailures.set(0);
+    }
+
+    /**
+     * Result of an active health check, health changes after 'threshold' consecutive results of the other kind
+     *
+     * @return true if the health changed
+     */
+    boolean healthCheck(boolean passed, int threshold) {
+        if (passed == healthy) {
+            consecutiveHealthChecks.set(0);
+            return false;
+        }
+        if (consecutiveHealthChecks.incrementAndGet() < threshold) {
+            return false;
+        }
+        consecutiveHealthChecks.set(0);
+        healthy = passed;
+        return true;
+    }
+
+    public int getOutstanding() {
+        return outstanding.get();
+    }
+
+    /** Moving average, nanos */
+    public long getLatency() {
+        return latency.get();
+    }
+
+    public long getSamples() {
+        return samples.get();
+    }
+
+    public boolean isHealthy() {
+        return healthy;
+    }
+
+    public long getRequests() {
+        return requests.sum();
+    }
+
+    public long getFailures() {
+        return failures.sum();
+    }
+
+    public long getEjections() {
+        return ejections.get();
+    }
+
+    /** Remaining ejection, 0 if not ejected */
+    public long getEjectedMillis(long now) {
+        return isEjected(now) ? TimeUnit.NANOSECONDS.toMillis(ejectedUntil - now) : 0;
+    }
+}
@@ -0,0 +1,53 @@
+package dev.sb.services.proxy;
+
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/** Upstream instances of balanced routes with their load, latency, health and ejection (GET /actuator/upstreams) */
+@Component
+@Endpoint(id = "upstreams")
+public class UpstreamsEndpoint {
+
+    private final UpstreamHealthChecker healthChecker;
+
+    public UpstreamsEndpoint(UpstreamHealthChecker healthChecker) {
+        this.healthChecker = healthChecker;
+    }
+
+    @ReadOperation
+    public Map<String, Object> upstreams() {
+        long now = System.nanoTime();
+        Map<String, Object> routes = new LinkedHashMap<>();
+        for (UpstreamBalancer balancer : healthChecker.getBalancers()) {
+            Map<String, Object> route = new LinkedHashMap<>();
+            route.put("strategy", balancer.getStrategy().getName());
+            route.put("instances", instances(balancer.getInstances(), now));
+            routes.put(balancer.getRouteId(), route);
+        }
+        return routes;
+    }
+
+    private static List<Map<String, Object>> instances(List<UpstreamInstance> instances, long now) {
+        return instances.stream()
+            .map(instance -> {
+                Map<String, Object> upstream = new LinkedHashMap<>();
+                upstream.put("uri", instance.getUri().toString());
+                upstream.put("healthy", instance.isHealthy());
+                upstream.put("ejected", instance.isEjected(now));
+                upstream.put("ejectedMillis", instance.getEjectedMillis(now));
+                upstream.put("ejections", instance.getEjections());
+                upstream.put("outstanding", instance.getOutstanding());
+                upstream.put("latencyMillis", instance.getLatency() / 1_000_000.0);
+                upstream.put("requests", instance.getRequests());
+                upstream.put("failures", instance.getFailures());
+                return upstream;
+            })
+            .collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,150 @@
+package dev.sb.services.proxy;
+
+import dev.sb.services.signing.BodyDigest;
+import dev.sb.services.signing.SignatureVerifier;
+import dev.sb.services.signing.SigningScheduler;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.cloud.gateway.filter.GatewayFilter;
+import org.springframework.cloud.gateway.filter.GatewayFilterChain;
+import org.springframework.cloud.gateway.support.ServerWebExchangeUtils;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Mono;
+
+import java.net.URI;
+import java.util.List;
+
+/**
+ * Verifies 'Signature' and 'Digest' headers of inbound requests, unsigned requests are rejected with HTTP 401.
+ * <p>
+ * Has to run before the path is rewritten: '(request-target)' is signed with the path the partner called.
+ * Body is read (or spooled) and digested the same way {@link SigningGatewayFilter} does it. Every request with
+ * a body is digested, whatever its method, so a signed 'Digest' is always compared with the body received.
+ */
+@Slf4j
+public class VerifyingGatewayFilter implements GatewayFilter {
+
+    private final SignatureVerifier signatureVerifier;
+    private final SigningScheduler signingScheduler;
+    private final RequestBodySpool requestBodySpool;
+    private final ProxyMetrics proxyMetrics;
+    /** methods of requests that are digested even without a body (requests with a body always are) */
+    private final List<String> digestMethods;
+
+    public VerifyingGatewayFilter(SignatureVerifier signatureVerifier,
+                                  SigningScheduler signingScheduler,
+                                  RequestBodySpool requestBodySpool,
+                                  ProxyMetrics proxyMetrics,
+                                  List<String> digestMethods) {
+        this.signatureVerifier = signatureVerifier;
+        this.signingScheduler = signingScheduler;
+        this.requestBodySpool = requestBodySpool;
+        this.proxyMetrics = proxyMetrics;
+        this.digestMethods = digestMethods;
+    }
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, GatewayFilterChain chain) {
+        ServerHttpRequest request = exchange.getRequest();
+
+        if (!isDigested(request)) {
+            return signingScheduler.execute(() -> verify(exchange, request, null))
+                .doOnError(proxyMetrics::recordFailure)
+                .flatMap(keyId -> filter(exchange, chain, request));
+        }
+
+        long bodyStart = System.nanoTime();
+
+        if (requestBodySpool.shouldSpool(request)) {
+            BodyDigest bodyDigest = BodyDigest.sha256();
+
+            return requestBodySpool.spool(request, bodyDigest)
+                .flatMap(spooledBody -> {
+                    long bodyNanos = proxyMetrics.recordBody(bodyStart, spooledBody.size());
+                    AccessLogEntry entry = AccessLogEntry.of(exchange);
+                    if (entry != null) {
+                        entry.body(bodyNanos, spooledBody.size(), null);
+                    }
+                    String digest = spooledBody.size() > 0 || hasDigest(request) ? bodyDigest.digest() : null;
+                    ServerHttpRequest spooledRequest = spooledBody.decorate(request,
+                        exchange.getResponse().bufferFactory());
+
+                    return signingScheduler.execute(() -> verify(exchange, spooledRequest, digest))
+                        .doOnError(proxyMetrics::recordFailure)
+                        .flatMap(keyId -> filter(exchange, chain, spooledRequest))
+                        .doFinally(signal -> spooledBody.delete());
+                });
+        }
+
+        return ServerWebExchangeUtils.cacheRequestBody(exchange,
+            (cachedRequest) -> {
+                DataBuffer dataBuffer = exchange.getAttribute(ServerWebExchangeUtils.CACHED_REQUEST_BODY_ATTR);
+                int size = dataBuffer != null ? dataBuffer.readableByteCount() : 0;
+                long bodyNanos = proxyMetrics.recordBody(bodyStart, size);
+                AccessLogEntry entry = AccessLogEntry.of(exchange);
+                if (entry != null) {
+                    entry.body(bodyNanos, size, dataBuffer);
+                }
+
+                return signingScheduler.execute(() -> {
+                    String digest = dataBuffer != null ? digest(dataBuffer, entry)
+                        : hasDigest(request) ? BodyDigest.sha256().digest()
+                        : null;
+                    return verify(exchange, cachedRequest, digest);
+                })
+                    .doOnError(proxyMetrics::recordFailure)
+                    .flatMap(keyId -> filter(exchange, chain, cachedRequest));
+            });
+    }
+
+    /** Has a body, or a 'Digest' (of an empty body) that has to match, or its method is one of 'digest-methods' */
+    private boolean isDigested(ServerHttpRequest request) {
+        HttpHeaders headers = request.getHeaders();
+        return headers.getContentLength() > 0
+            || headers.containsKey(HttpHeaders.TRANSFER_ENCODING)
+            || hasDigest(request)
+            || digestMethods.contains(request.getMethodValue());
+    }
+
+    private static boolean hasDigest(ServerHttpRequest request) {
+        return request.getHeaders().containsKey(ProxyHeaders.DIGEST);
+    }
+
+    /** Runs on signing scheduler */
+    private String digest(DataBuffer dataBuffer, AccessLogEntry entry) {
+        long start = System.nanoTime();
+        String digest = BodyDigest.sha256().update(dataBuffer).digest();
+        long nanos = proxyMetrics.recordDigest(start);
+        if (entry != null) {
+            entry.digest(nanos);
+        }
+        return digest;
+    }
+
+    /** Runs on signing scheduler */
+    private String verify(ServerWebExchange exchange, ServerHttpRequest request, String digest) {
+        long start = System.nanoTime();
+        URI uri = request.getURI();
+        String path = uri.getRawQuery() != null ? uri.getRawPath() + '?' + uri.getRawQuery() : uri.getRawPath();
+        String keyId = signatureVerifier.verify(request.getMethodValue(), path, request.getHeaders(), digest);
+        long nanos = proxyMetrics.recordVerification(start);
+        AccessLogEntry entry = AccessLogEntry.of(exchange);
+        if (entry != null) {
+            entry.verification(nanos);
+        }
+        log.debug("Signature of keyId {} is verified", keyId);
+        return keyId;
+    }
+
+    private Mono<Void> filter(ServerWebExchange exchange, GatewayFilterChain chain, ServerHttpRequest request) {
+        long upstreamStart = System.nanoTime();
+        AccessLogEntry entry = AccessLogEntry.of(exchange);
+        if (entry != null) {
+            entry.upstreamStarted(upstreamStart);
+        }
+        return chain.filter(exchange.mutate().request(request).build())
+            .doFinally(signal -> proxyMetrics.recordUpstream(upstreamStart));
+    }
+}
@@ -0,0 +1,66 @@
+package dev.sb.services.signing;
+
+import io.netty.buffer.ByteBuf;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.NettyDataBuffer;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+
+/**
+ * Incremental SHA-256 digest of HTTP message body ('Digest' or 'Content-Digest').
+ * Used when body arrives in several buffers that are not kept in memory (e.g. streamed to disk).
+ * Not thread-safe: buffers of one body are expected to be signalled sequentially.
+ */
+public class BodyDigest {
+
+    private final MessageDigest digest;
+
+    BodyDigest(MessageDigest digest) {
+        this.digest = digest;
+    }
+
+    public static BodyDigest sha256() {
+        try {
+            return new BodyDigest(MessageDigest.getInstance("SHA-256"));
+        } catch (NoSuchAlgorithmException e) {
+            throw new RequestSignerException(e);
+        }
+    }
+
+    MessageDigest messageDigest() {
+        return digest;
+    }
+
+    /** Hash readable bytes of the buffer in place, buffer read position is preserved. */
+    public BodyDigest update(DataBuffer buffer) {
+        if (buffer instanceof NettyDataBuffer) {
+            // composite buffers expose one view per component
+            ByteBuf byteBuf = ((NettyDataBuffer) buffer).getNativeBuffer();
+            return update(byteBuf.nioBuffers());
+        }
+        return update(buffer.asByteBuffer());
+    }
+
+    /** Hash remaining bytes of the segments in place, segment positions are preserved. */
+    public BodyDigest update(ByteBuffer... segments) {
+        for (ByteBuffer segment : segments) {
+            int position = segment.position();
+            digest.update(segment);
+            segment.position(position);
+        }
+        return this;
+    }
+
+    /** Completes calculation and returns 'Digest' header value. Digest is reset and can be reused. */
+    public String digest() {
+        return "SHA-256=" + Base64.getEncoder().encodeToString(digest.digest());
+    }
+
+    /** Completes calculation and returns RFC 9530 'Content-Digest' header value. Digest is reset and can be reused. */
+    public String contentDigest() {
+        return "sha-256=:" + Base64.getEncoder().encodeToString(digest.digest()) + ':';
+    }
+}
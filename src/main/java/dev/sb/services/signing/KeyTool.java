@@ -1,5 +1,6 @@
 package dev.sb.services.signing;
 
+import javax.crypto.SecretKey;
 import java.security.PrivateKey;
 import java.security.cert.X509Certificate;
 
@@ -10,4 +11,17 @@ public interface KeyTool {
     String readPrivateKeyId();
 
     X509Certificate readX509Certificate();
+
+    /** Shared secret of HMAC signatures, null for key tools of private keys */
+    default SecretKey readSecretKey() {
+        return null;
+    }
+
+    /**
+     * Key material that does not change, so key, keyId and certificate read from it belong together.
+     * Key tools that can reload keys return a new snapshot after each reload.
+     */
+    default KeyTool snapshot() {
+        return this;
+    }
 }
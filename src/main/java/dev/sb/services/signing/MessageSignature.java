@@ -0,0 +1,21 @@
+package dev.sb.services.signing;
+
+/** RFC 9421 'Signature-Input' and 'Signature' header values of one signature */
+public class MessageSignature {
+
+    private final String signatureInput;
+    private final String signature;
+
+    MessageSignature(String signatureInput, String signature) {
+        this.signatureInput = signatureInput;
+        this.signature = signature;
+    }
+
+    public String getSignatureInput() {
+        return signatureInput;
+    }
+
+    public String getSignature() {
+        return signature;
+    }
+}
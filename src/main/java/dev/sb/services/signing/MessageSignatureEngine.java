@@ -0,0 +1,201 @@
+package dev.sb.services.signing;
+
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.util.Base64;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Signs requests as RFC 9421 HTTP Message Signatures with one key, built once per key and route.
+ * <p>
+ * Covered components are compiled into a template when the engine is created: quoted component identifiers,
+ * signature base line prefixes and the constant signature parameters ({@code keyid}, {@code alg}).
+ * Per request only component values and {@code created} are appended.
+ * Header components missing in the request are left out of the signature (and 'Signature-Input'),
+ * derived components are always present.
+ */
+public class MessageSignatureEngine {
+
+    /** components signed if route does not configure its own */
+    public static final List<String> DEFAULT_COMPONENTS =
+        List.of("@method", "@target-uri", "@authority", "content-digest", "content-type");
+
+    static final String LABEL = "sig1";
+
+    private static final String CONTENT_DIGEST = "content-digest";
+    private static final String SIGNATURE_PARAMS = "\"@signature-params\": ";
+
+    private final Component[] components;
+    /** constant tail of signature parameters */
+    private final String parameters;
+    private final ThreadLocal<SigningAlgorithm.Signer> signers;
+
+    /**
+     * @param components covered components, e.g. "@method", "@target-uri", "content-digest"
+     * @throws IllegalArgumentException if a derived component is not supported
+     */
+    public MessageSignatureEngine(String keyId, SigningAlgorithm algorithm, Key key, List<String> components) {
+        this.components = components.stream().map(Component::compile).toArray(Component[]::new);
+        this.parameters = ";keyid=\"" + keyId + "\";alg=\"" + algorithm.getRfc9421Name() + '"';
+        this.signers = ThreadLocal.withInitial(() -> newSigner(algorithm, key));
+
+        // fail fast on unusable key instead of failing the first request
+        newSigner(algorithm, key);
+    }
+
+    /**
+     * @param targetUri     URI of the request sent to upstream
+     * @param headers       request headers, case-insensitive (e.g. {@code HttpHeaders})
+     * @param contentDigest 'Content-Digest' header value, if null then 'Content-Digest' request header (if any)
+     * @param created       signature creation time, epoch seconds
+     */
+    public MessageSignature sign(String method, URI targetUri, Map<String, List<String>> headers,
+                                 String contentDigest, long created) {
+        StringBuilder signatureBase = new StringBuilder(512);
+        StringBuilder signatureParams = new StringBuilder(128).append('(');
+
+        for (Component component : components) {
+            String value = component.value(method, targetUri, headers, contentDigest);
+            if (value == null) {
+                continue;
+            }
+            signatureBase.append(component.linePrefix).append(value).append('\n');
+            if (signatureParams.length() > 1) {
+                signatureParams.append(' ');
+            }
+            signatureParams.append(component.identifier);
+        }
+        signatureParams.append(");created=").append(created).append(parameters);
+        signatureBase.append(SIGNATURE_PARAMS).append(signatureParams);
+
+        return new MessageSignature(LABEL + '=' + signatureParams,
+            LABEL + "=:" + sign(signatureBase.toString().getBytes(StandardCharsets.UTF_8)) + ':');
+    }
+
+    private String sign(byte[] signatureBase) {
+        try {
+            return Base64.getEncoder().encodeToString(signers.get().sign(signatureBase));
+        } catch (GeneralSecurityException e) {
+            throw new RequestSignerException(e);
+        }
+    }
+
+    private static SigningAlgorithm.Signer newSigner(SigningAlgorithm algorithm, Key key) {
+        if (key == null) {
+            throw new RequestSignerException("No key for " + algorithm.getRfc9421Name() + " signatures");
+        }
+        try {
+            return algorithm.newRfc9421Signer(key);
+        } catch (GeneralSecurityException | ClassCastException e) {
+            throw new RequestSignerException(e);
+        }
+    }
+
+    private enum Type {
+        METHOD, TARGET_URI, AUTHORITY, SCHEME, PATH, QUERY, REQUEST_TARGET, CONTENT_DIGEST, HEADER
+    }
+
+    /** Covered component with its precomputed identifier and signature base line prefix */
+    private static class Component {
+
+        private final Type type;
+        private final String name;
+        private final String identifier;
+        private final String linePrefix;
+
+        private Component(Type type, String name) {
+            this.type = type;
+            this.name = name;
+            this.identifier = '"' + name + '"';
+            this.linePrefix = identifier + ": ";
+        }
+
+        static Component compile(String component) {
+            String name = component.trim().toLowerCase(Locale.ROOT);
+            switch (name) {
+                case "@method":
+                    return new Component(Type.METHOD, name);
+                case "@target-uri":
+                    return new Component(Type.TARGET_URI, name);
+                case "@authority":
+                    return new Component(Type.AUTHORITY, name);
+                case "@scheme":
+                    return new Component(Type.SCHEME, name);
+                case "@path":
+                    return new Component(Type.PATH, name);
+                case "@query":
+                    return new Component(Type.QUERY, name);
+                case "@request-target":
+                    return new Component(Type.REQUEST_TARGET, name);
+                case CONTENT_DIGEST:
+                    return new Component(Type.CONTENT_DIGEST, name);
+                default:
+                    if (name.startsWith("@") || name.isEmpty()) {
+                        throw new IllegalArgumentException("Unsupported signature component '" + component + "'");
+                    }
+                    return new Component(Type.HEADER, name);
+            }
+        }
+
+        String value(String method, URI targetUri, Map<String, List<String>> headers, String contentDigest) {
+            switch (type) {
+                case METHOD:
+                    return method;
+                case TARGET_URI:
+                    return targetUri.toASCIIString();
+                case AUTHORITY:
+                    return authority(targetUri);
+                case SCHEME:
+                    return targetUri.getScheme().toLowerCase(Locale.ROOT);
+                case PATH:
+                    return path(targetUri);
+                case QUERY:
+                    return '?' + (targetUri.getRawQuery() != null ? targetUri.getRawQuery() : "");
+                case REQUEST_TARGET:
+                    return targetUri.getRawQuery() != null ? path(targetUri) + '?' + targetUri.getRawQuery()
+                        : path(targetUri);
+                case CONTENT_DIGEST:
+                    return contentDigest != null ? contentDigest : header(headers);
+                default:
+                    return header(headers);
+            }
+        }
+
+        private String header(Map<String, List<String>> headers) {
+            List<String> values = headers.get(name);
+            if (values == null || values.isEmpty()) {
+                return null;
+            }
+            if (values.size() == 1) {
+                return values.get(0).trim();
+            }
+            StringBuilder value = new StringBuilder();
+            for (String v : values) {
+                if (value.length() > 0) {
+                    value.append(", ");
+                }
+                value.append(v.trim());
+            }
+            return value.toString();
+        }
+
+        private static String path(URI uri) {
+            String path = uri.getRawPath();
+            return path == null || path.isEmpty() ? "/" : path;
+        }
+
+        /** host[:port] in lower case, default port is left out */
+        private static String authority(URI uri) {
+            String host = uri.getHost().toLowerCase(Locale.ROOT);
+            int port = uri.getPort();
+            boolean defaultPort = port == -1
+                || port == 80 && "http".equalsIgnoreCase(uri.getScheme())
+                || port == 443 && "https".equalsIgnoreCase(uri.getScheme());
+            return defaultPort ? host : host + ':' + port;
+        }
+    }
+}
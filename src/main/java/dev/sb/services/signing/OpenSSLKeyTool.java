@@ -2,16 +2,18 @@ package dev.sb.services.signing;
 
 import lombok.extern.slf4j.Slf4j;
 import org.bouncycastle.asn1.pkcs.PrivateKeyInfo;
+import org.bouncycastle.openssl.PEMDecryptorProvider;
+import org.bouncycastle.openssl.PEMEncryptedKeyPair;
+import org.bouncycastle.openssl.PEMKeyPair;
 import org.bouncycastle.openssl.PEMParser;
 import org.bouncycastle.openssl.jcajce.JcaPEMKeyConverter;
 import org.bouncycastle.openssl.jcajce.JceOpenSSLPKCS8DecryptorProviderBuilder;
+import org.bouncycastle.openssl.jcajce.JcePEMDecryptorProviderBuilder;
 import org.bouncycastle.operator.InputDecryptorProvider;
 import org.bouncycastle.operator.OperatorCreationException;
 import org.bouncycastle.pkcs.PKCS8EncryptedPrivateKeyInfo;
 import org.bouncycastle.pkcs.PKCSException;
 import org.bouncycastle.util.io.pem.PemReader;
-import org.springframework.beans.factory.annotation.Value;
-import org.springframework.stereotype.Component;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
@@ -22,8 +24,10 @@ import java.security.cert.CertificateException;
 import java.security.cert.CertificateFactory;
 import java.security.cert.X509Certificate;
 
-/** Implementation the allows load private keys and certificates created by OpenSSL */
-@Component
+/**
+ * Implementation the allows load private keys and certificates created by OpenSSL.
+ * Certificate is optional if key ID is set.
+ */
 @Slf4j
 public class OpenSSLKeyTool implements KeyTool {
 
@@ -31,17 +35,23 @@ public class OpenSSLKeyTool implements KeyTool {
     private final PrivateKey privateKey;
     private final String privateKeyId;
 
-    public OpenSSLKeyTool(@Value("${application.signing.privateKey}") String privateKey,
-                          @Value("${application.signing.privateKeyPass}") String privateKeyPass,
-                          @Value("${application.signing.privateKeyId}") String privateKeyId,
-                          @Value("${application.signing.certificate}") String certificate) {
+    public OpenSSLKeyTool(String privateKey, String privateKeyPass, String privateKeyId, String certificate) {
+        this(loadPrivateKey(privateKey, privateKeyPass), privateKeyId, certificate);
+    }
+
+    /** @param privateKey key already decrypted, e.g. by {@link PrivateKeyCache} */
+    public OpenSSLKeyTool(PrivateKey privateKey, String privateKeyId, String certificate) {
+        if ((privateKeyId == null || privateKeyId.isBlank()) && (certificate == null || certificate.isBlank())) {
+            throw new KeyToolException("Neither 'privateKeyId' nor 'certificate' is set, "
+                + "one of them is needed for the key ID of signatures");
+        }
 
-        this.certificate = loadX509Certificate(certificate);
-        this.privateKey = loadPrivateKey(privateKey, privateKeyPass);
-        this.privateKeyId = privateKeyId;
+        this.certificate = certificate == null || certificate.isBlank() ? null : loadX509Certificate(certificate);
+        this.privateKey = privateKey;
+        this.privateKeyId = privateKeyId == null || privateKeyId.isBlank() ? null : privateKeyId;
 
-        log.info("RSA key and certificate are configured");
-        log.info("RSA keyId: {}", privateKeyId);
+        log.info("{} key and certificate are configured", this.privateKey.getAlgorithm());
+        log.info("keyId: {}", privateKeyId);
     }
 
     @Override
@@ -59,28 +69,40 @@ public class OpenSSLKeyTool implements KeyTool {
         return certificate;
     }
 
-    /** Have to use BouncyCastle due to algorithms used in OpenSSL */
-    private PrivateKey loadPrivateKey(String privateKeyPEM, String privateKeyPass) {
+    /**
+     * Have to use BouncyCastle due to algorithms used in OpenSSL.
+     * RSA, EC and Ed25519 keys are supported, as PKCS#8 (encrypted or not) or traditional OpenSSL format.
+     */
+    static PrivateKey loadPrivateKey(String privateKeyPEM, String privateKeyPass) {
         try {
 
             InputStreamReader reader = new InputStreamReader(new ByteArrayInputStream(privateKeyPEM.getBytes()));
             final PEMParser pemParser = new PEMParser(new PemReader(reader));
 
-            PrivateKey key;
+            PrivateKeyInfo privateKeyInfo;
             Object pemContent = pemParser.readObject();
             if (pemContent instanceof PKCS8EncryptedPrivateKeyInfo) {
                 final PKCS8EncryptedPrivateKeyInfo encPrivateKeyInfo = (PKCS8EncryptedPrivateKeyInfo) pemContent;
                 InputDecryptorProvider decryptorProvider = new JceOpenSSLPKCS8DecryptorProviderBuilder()
-                    .build(privateKeyPass.toCharArray());
-                final PrivateKeyInfo privateKeyInfo = encPrivateKeyInfo.decryptPrivateKeyInfo(decryptorProvider);
-
-                key = new JcaPEMKeyConverter().getPrivateKey(privateKeyInfo);
+                    .build(password(privateKeyPass));
+                privateKeyInfo = encPrivateKeyInfo.decryptPrivateKeyInfo(decryptorProvider);
+            } else if (pemContent instanceof PEMEncryptedKeyPair) {
+                PEMDecryptorProvider decryptorProvider = new JcePEMDecryptorProviderBuilder()
+                    .build(password(privateKeyPass));
+                privateKeyInfo = ((PEMEncryptedKeyPair) pemContent).decryptKeyPair(decryptorProvider)
+                    .getPrivateKeyInfo();
+            } else if (pemContent instanceof PEMKeyPair) {
+                privateKeyInfo = ((PEMKeyPair) pemContent).getPrivateKeyInfo();
+            } else if (pemContent instanceof PrivateKeyInfo) {
+                privateKeyInfo = (PrivateKeyInfo) pemContent;
+            } else if (pemContent == null) {
+                throw new KeyToolException("No private key found");
             } else {
                 throw new KeyToolException("Unsupported private key format: " + pemContent.getClass().getSimpleName());
             }
 
             pemParser.close();
-            return key;
+            return new JcaPEMKeyConverter().getPrivateKey(privateKeyInfo);
 
         } catch (IOException e) {
             throw new KeyToolException("PEM file read problem", e);
@@ -89,7 +111,15 @@ public class OpenSSLKeyTool implements KeyTool {
         }
     }
 
-    private X509Certificate loadX509Certificate(String certificateContent) {
+    private static char[] password(String privateKeyPass) {
+        if (privateKeyPass == null) {
+            throw new KeyToolException("Password of encrypted private key is not configured");
+        }
+        return privateKeyPass.toCharArray();
+    }
+
+    /** Loads PEM (or DER) X.509 certificate */
+    static X509Certificate loadX509Certificate(String certificateContent) {
         try {
             InputStream in = new ByteArrayInputStream(certificateContent.getBytes());
             CertificateFactory factory = CertificateFactory.getInstance("X.509");
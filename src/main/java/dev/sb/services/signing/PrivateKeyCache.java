@@ -0,0 +1,213 @@
+package dev.sb.services.signing;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.nio.file.attribute.UserPrincipal;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.PrivateKey;
+import java.security.SecureRandom;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.util.Base64;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Decrypted private keys kept in a local directory, so that a restart skips PEM parsing and the PBKDF2
+ * decryption of encrypted keys (the slowest part of a cold start with a PKCS#8 PBES2 key).
+ * <p>
+ * A key is decrypted from its PEM once, then stored as unencrypted PKCS#8 in a file named after the SHA-256
+ * of the PEM. The file also holds a salted hash of the password: a key is read from the cache only with the password
+ * it was decrypted with, otherwise the PEM is decrypted (and a wrong password fails as it would without the cache).
+ * Nothing derived from the password is in file names or logs: that would let anyone with the encrypted PEM test
+ * passwords without the PBKDF2 cost. The hash in the file is no such shortcut, the file holds the key itself.
+ * The directory must be set explicitly, local to the instance and protected as the key itself is
+ * (e.g. tmpfs of the pod). It is created with mode 0700; a directory or key file not owned by the user
+ * of the process, or readable by others (not 0700 / 0600), is not trusted and the key is decrypted as usual.
+ * Keys are not cached on file systems without POSIX permissions.
+ */
+@Component
+@Slf4j
+public class PrivateKeyCache {
+
+    private static final String SUFFIX = ".pk8";
+    private static final Set<PosixFilePermission> DIRECTORY_PERMISSIONS = PosixFilePermissions.fromString("rwx------");
+    private static final Set<PosixFilePermission> FILE_PERMISSIONS = PosixFilePermissions.fromString("rw-------");
+    private static final int SALT_SIZE = 16;
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    /** null if keys are not cached */
+    private final Path directory;
+    /** owner of files created by this process */
+    private final UserPrincipal owner;
+
+    public PrivateKeyCache(@Value("${application.signing.key-cache.directory:}") String directory) {
+        if (directory.isBlank()) {
+            this.directory = null;
+            this.owner = null;
+            return;
+        }
+        if (!FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+            log.warn("Signing keys are not cached in {}: file system has no POSIX permissions", directory);
+            this.directory = null;
+            this.owner = null;
+            return;
+        }
+        this.directory = Paths.get(directory).toAbsolutePath();
+        this.owner = processOwner();
+        log.info("Decrypted signing keys are cached in {}", this.directory);
+    }
+
+    /**
+     * @param privateKeyPEM  PEM private key, see {@link OpenSSLKeyTool}
+     * @param privateKeyPass password of encrypted key
+     * @return key from the cache, or decrypted from the PEM (and cached)
+     */
+    public PrivateKey privateKey(String privateKeyPEM, String privateKeyPass) {
+        if (directory == null) {
+            return OpenSSLKeyTool.loadPrivateKey(privateKeyPEM, privateKeyPass);
+        }
+        Path file = directory.resolve(fingerprint(privateKeyPEM) + SUFFIX);
+        try {
+            if (Files.exists(file, LinkOption.NOFOLLOW_LINKS) && trusted(directory, DIRECTORY_PERMISSIONS)) {
+                if (trusted(file, FILE_PERMISSIONS)) {
+                    PrivateKey privateKey = read(file, privateKeyPass);
+                    if (privateKey != null) {
+                        log.debug("Signing key read from the cache");
+                        return privateKey;
+                    }
+                    log.info("Cached signing key was decrypted with another password, decrypting the key");
+                } else {
+                    log.warn("Cached signing key is not owned by {} with mode 0600, decrypting the key", owner);
+                }
+            }
+        } catch (IOException | GeneralSecurityException | RuntimeException e) {
+            log.warn("Cached signing key can't be read, decrypting the key: {}", e.toString());
+        }
+
+        PrivateKey privateKey = OpenSSLKeyTool.loadPrivateKey(privateKeyPEM, privateKeyPass);
+        try {
+            write(file, content(privateKey, privateKeyPass));
+        } catch (IOException e) {
+            log.warn("Signing key can't be cached in {}: {}", directory, e.toString());
+        }
+        return privateKey;
+    }
+
+    /**
+     * First line key algorithm, second line Base64 PKCS#8, third line password check
+     *
+     * @return null if the key was cached with another password
+     */
+    private static PrivateKey read(Path file, String privateKeyPass) throws IOException, GeneralSecurityException {
+        List<String> lines = Files.readAllLines(file, StandardCharsets.US_ASCII);
+        if (lines.size() < 3) {
+            throw new IOException("Truncated key file");
+        }
+        String[] check = lines.get(2).split(":", 2);
+        if (check.length < 2) {
+            throw new IOException("Malformed password check");
+        }
+        byte[] salt = Base64.getDecoder().decode(check[0]);
+        if (!MessageDigest.isEqual(passwordHash(salt, privateKeyPass), Base64.getDecoder().decode(check[1]))) {
+            return null;
+        }
+        byte[] encoded = Base64.getDecoder().decode(lines.get(1));
+        return KeyFactory.getInstance(lines.get(0)).generatePrivate(new PKCS8EncodedKeySpec(encoded));
+    }
+
+    /** Content of the cache file of the key decrypted with the password */
+    static String content(PrivateKey privateKey, String privateKeyPass) {
+        byte[] salt = new byte[SALT_SIZE];
+        RANDOM.nextBytes(salt);
+        Base64.Encoder base64 = Base64.getEncoder();
+        return privateKey.getAlgorithm() + '\n'
+            + base64.encodeToString(privateKey.getEncoded()) + '\n'
+            + base64.encodeToString(salt) + ':' + base64.encodeToString(passwordHash(salt, privateKeyPass)) + '\n';
+    }
+
+    /** Written to a temporary file first, so that a concurrently starting instance never reads a partial file */
+    private void write(Path file, String content) throws IOException {
+        if (!Files.isDirectory(directory, LinkOption.NOFOLLOW_LINKS)) {
+            Files.createDirectories(directory.getParent());
+            Files.createDirectory(directory, PosixFilePermissions.asFileAttribute(DIRECTORY_PERMISSIONS));
+        }
+        if (!trusted(directory, DIRECTORY_PERMISSIONS)) {
+            throw new IOException("Directory is not owned by " + owner + " with mode 0700");
+        }
+        Path temporary = Files.createTempFile(directory, "key", ".tmp",
+            PosixFilePermissions.asFileAttribute(FILE_PERMISSIONS));
+        try {
+            Files.writeString(temporary, content, StandardCharsets.US_ASCII);
+            Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            log.info("Signing key cached");
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    /** Owned by the user of this process, not a symbolic link, with exactly the given permissions */
+    private boolean trusted(Path path, Set<PosixFilePermission> permissions) throws IOException {
+        PosixFileAttributes attributes = Files.readAttributes(path, PosixFileAttributes.class,
+            LinkOption.NOFOLLOW_LINKS);
+        return !attributes.isSymbolicLink()
+            && attributes.owner().equals(owner)
+            && attributes.permissions().equals(permissions);
+    }
+
+    /** The user name of the process may not resolve (e.g. random UID of a container), so a file is asked */
+    private static UserPrincipal processOwner() {
+        try {
+            Path probe = Files.createTempFile("signing-proxy", ".owner");
+            try {
+                return Files.getOwner(probe);
+            } finally {
+                Files.delete(probe);
+            }
+        } catch (IOException e) {
+            throw new KeyToolException(e);
+        }
+    }
+
+    /** Of the PEM only, the file of a PEM is the same whatever the password */
+    static String fingerprint(String privateKeyPEM) {
+        byte[] hash = sha256().digest(privateKeyPEM.strip().getBytes(StandardCharsets.US_ASCII));
+        StringBuilder hex = new StringBuilder(2 * hash.length);
+        for (byte b : hash) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+
+    private static byte[] passwordHash(byte[] salt, String privateKeyPass) {
+        MessageDigest sha256 = sha256();
+        sha256.update(salt);
+        if (privateKeyPass != null) {
+            sha256.update(privateKeyPass.getBytes(StandardCharsets.UTF_8));
+        }
+        return sha256.digest();
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new KeyToolException(e);
+        }
+    }
+}
@@ -0,0 +1,288 @@
+package dev.sb.services.signing;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.security.PrivateKey;
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Key tool of the default route that can replace its key without restart.
+ * <p>
+ * If 'key-file' (and optionally 'certificate-file') is configured, PEM files are watched and reloaded
+ * when they change; the 'signingkeys' actuator endpoint triggers a reload as well. The new key is decrypted
+ * on a dedicated thread and then published with a single reference swap, so requests being signed
+ * keep using the {@link #snapshot() snapshot} they started with and never wait for a reload.
+ * Only the current key signs new requests: the replaced key is {@link #keys() listed} for 'rotation.overlap'
+ * after the replacement, so it can be retired at the verifiers in time, but is not used any more.
+ * If files are not configured the key is read once from 'privateKey' and 'certificate' properties.
+ */
+@Component
+@Slf4j
+public class ReloadableKeyTool implements KeyTool, DisposableBean {
+
+    private final String privateKey;
+    private final String privateKeyPass;
+    private final String privateKeyId;
+    private final String certificate;
+    private final Path keyFile;
+    private final Path certificateFile;
+    private final Duration overlap;
+    private final SigningClock signingClock;
+    private final PrivateKeyCache privateKeyCache;
+
+    private final AtomicReference<KeySet> keySet = new AtomicReference<>();
+    private final ExecutorService reloader;
+    private final WatchService watchService;
+    private final Counter reloads;
+    private final Counter reloadFailures;
+
+    public ReloadableKeyTool(@Value("${application.signing.privateKey:}") String privateKey,
+                             @Value("${application.signing.privateKeyPass}") String privateKeyPass,
+                             @Value("${application.signing.privateKeyId:}") String privateKeyId,
+                             @Value("${application.signing.certificate:}") String certificate,
+                             @Value("${application.signing.key-file:}") String keyFile,
+                             @Value("${application.signing.certificate-file:}") String certificateFile,
+                             @Value("${application.signing.rotation.overlap:5m}") Duration overlap,
+                             SigningClock signingClock,
+                             PrivateKeyCache privateKeyCache,
+                             MeterRegistry meterRegistry) {
+        this.privateKey = privateKey;
+        this.privateKeyPass = privateKeyPass;
+        this.privateKeyId = privateKeyId;
+        this.certificate = certificate;
+        this.keyFile = keyFile.isBlank() ? null : Paths.get(keyFile);
+        this.certificateFile = certificateFile.isBlank() ? null : Paths.get(certificateFile);
+        this.overlap = overlap;
+        this.signingClock = signingClock;
+        this.privateKeyCache = privateKeyCache;
+
+        this.reloads = Counter.builder("signing.key.reloads")
+            .description("Signing keys replaced by a new key")
+            .register(meterRegistry);
+        this.reloadFailures = Counter.builder("signing.key.reload.failures")
+            .description("Signing key reloads failed, previous key is still used")
+            .register(meterRegistry);
+
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("key-reload-");
+        threadFactory.setDaemon(true);
+        this.reloader = Executors.newSingleThreadExecutor(threadFactory);
+
+        // fail fast: the application does not start without a key
+        load();
+        this.watchService = this.keyFile != null ? watch() : null;
+    }
+
+    @Override
+    public PrivateKey readPrivateKey() {
+        return snapshot().readPrivateKey();
+    }
+
+    @Override
+    public String readPrivateKeyId() {
+        return snapshot().readPrivateKeyId();
+    }
+
+    @Override
+    public X509Certificate readX509Certificate() {
+        return snapshot().readX509Certificate();
+    }
+
+    @Override
+    public KeyTool snapshot() {
+        return keySet.get().current.keyTool;
+    }
+
+    /** Increased with every key change */
+    public long getVersion() {
+        return keySet.get().version;
+    }
+
+    /** Current key first, followed by the replaced key for 'rotation.overlap' after it was replaced */
+    public List<LoadedKey> keys() {
+        KeySet keys = keySet.get();
+        List<LoadedKey> loadedKeys = new ArrayList<>(2);
+        loadedKeys.add(keys.current);
+        if (keys.previous != null && signingClock.instant().isBefore(keys.previous.replaced.plus(overlap))) {
+            loadedKeys.add(keys.previous);
+        }
+        return loadedKeys;
+    }
+
+    /**
+     * Reloads key files on the reload thread.
+     *
+     * @return true if key was replaced, false if files are unchanged or not configured
+     */
+    public CompletableFuture<Boolean> reload() {
+        return CompletableFuture.supplyAsync(this::load, reloader);
+    }
+
+    /** Runs on the reload thread (and once in constructor) */
+    private boolean load() {
+        String keyContent;
+        String certificateContent;
+        try {
+            keyContent = keyFile != null ? Files.readString(keyFile, StandardCharsets.US_ASCII) : privateKey;
+            certificateContent = certificateFile != null
+                ? Files.readString(certificateFile, StandardCharsets.US_ASCII) : certificate;
+        } catch (IOException e) {
+            throw failure(new KeyToolException("PEM file read problem", e));
+        }
+
+        KeySet keys = keySet.get();
+        if (keys != null && keys.current.sameContent(keyContent, certificateContent)) {
+            return false;
+        }
+
+        OpenSSLKeyTool keyTool;
+        try {
+            keyTool = new OpenSSLKeyTool(privateKeyCache.privateKey(keyContent, privateKeyPass), privateKeyId,
+                certificateContent);
+        } catch (KeyToolException e) {
+            throw failure(e);
+        }
+
+        LoadedKey current = new LoadedKey(keyTool, keyContent, certificateContent, signingClock.instant());
+        if (keys == null) {
+            keySet.set(new KeySet(1, current, null));
+            return true;
+        }
+
+        // only the reload thread writes, so no compare-and-set is needed
+        keys.current.replaced = current.loaded;
+        keySet.set(new KeySet(keys.version + 1, current, keys.current));
+        reloads.increment();
+        log.info("Signing key replaced (version {}), previous key is not used any more", keys.version + 1);
+        return true;
+    }
+
+    private KeyToolException failure(KeyToolException e) {
+        if (keySet.get() != null) {
+            reloadFailures.increment();
+            log.error("Signing key reload failed, previous key is still used", e);
+        }
+        return e;
+    }
+
+    private WatchService watch() {
+        Set<Path> directories = new LinkedHashSet<>();
+        directories.add(keyFile.toAbsolutePath().getParent());
+        if (certificateFile != null) {
+            directories.add(certificateFile.toAbsolutePath().getParent());
+        }
+
+        try {
+            WatchService watchService = FileSystems.getDefault().newWatchService();
+            for (Path directory : directories) {
+                // Kubernetes secrets are replaced by swapping a symlink, so any change in directory triggers reload
+                directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+            }
+
+            Thread watcher = new Thread(() -> watchLoop(watchService), "key-watcher");
+            watcher.setDaemon(true);
+            watcher.start();
+
+            log.info("Watching signing key files in {}", directories);
+            return watchService;
+        } catch (IOException e) {
+            throw new KeyToolException(e);
+        }
+    }
+
+    private void watchLoop(WatchService watchService) {
+        try {
+            while (true) {
+                WatchKey key = watchService.take();
+                key.pollEvents();
+                key.reset();
+                reload().exceptionally(e -> false);
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            log.debug("Signing key watcher stopped");
+        }
+    }
+
+    @Override
+    public void destroy() throws IOException {
+        if (watchService != null) {
+            watchService.close();
+        }
+        reloader.shutdown();
+    }
+
+    /** Key with the PEM content it was loaded from */
+    public static class LoadedKey {
+
+        private final OpenSSLKeyTool keyTool;
+        private final String keyContent;
+        private final String certificateContent;
+        private final Instant loaded;
+        /** set once the key is replaced */
+        private volatile Instant replaced;
+
+        LoadedKey(OpenSSLKeyTool keyTool, String keyContent, String certificateContent, Instant loaded) {
+            this.keyTool = keyTool;
+            this.keyContent = keyContent;
+            this.certificateContent = certificateContent;
+            this.loaded = loaded;
+        }
+
+        public KeyTool getKeyTool() {
+            return keyTool;
+        }
+
+        public Instant getLoaded() {
+            return loaded;
+        }
+
+        /** null for the current key */
+        public Instant getReplaced() {
+            return replaced;
+        }
+
+        boolean sameContent(String keyContent, String certificateContent) {
+            return this.keyContent.equals(keyContent) && Objects.equals(this.certificateContent, certificateContent);
+        }
+    }
+
+    private static class KeySet {
+
+        private final long version;
+        private final LoadedKey current;
+        private final LoadedKey previous;
+
+        KeySet(long version, LoadedKey current, LoadedKey previous) {
+            this.version = version;
+            this.current = current;
+            this.previous = previous;
+        }
+    }
+}
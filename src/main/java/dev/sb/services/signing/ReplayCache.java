@@ -0,0 +1,165 @@
+package dev.sb.services.signing;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.stereotype.Component;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Signed messages seen within the clock skew window, used to reject replayed requests.
+ * <p>
+ * A message is identified by keyId and signing string, not by the signature bytes: ECDSA signatures are
+ * malleable (s and n - s are both valid), a replay with a re-encoded signature would look new.
+ * <p>
+ * Messages are kept in a ring of time buckets keyed by the signed 'Date', so expired entries are never
+ * scanned or evicted one by one: a bucket is cleared when the ring wraps around to it.
+ * A bucket is a fixed size lock-free open addressing table of 64-bit fingerprints (SHA-256 prefix),
+ * memory does not grow with traffic.
+ * <p>
+ * 'max-entries' is the number of signatures expected within the window (request rate * 2 * clock skew).
+ * When a bucket is full, requests are rejected rather than accepted unchecked.
+ * Tables take ~16 MB for the default million entries, so the cache is created only for verifying routes.
+ */
+@Component
+@Lazy
+@Slf4j
+public class ReplayCache {
+
+    /** buckets covering the whole window, so a bucket spans 1/30 of it */
+    private static final int WINDOW_BUCKETS = 30;
+    private static final int MAX_LOAD_PERCENT = 75;
+    private static final ThreadLocal<MessageDigest> SHA_256 = ThreadLocal.withInitial(
+        () -> BodyDigest.sha256().messageDigest());
+
+    private final long bucketSeconds;
+    private final Bucket[] buckets;
+    private final int bucketCapacity;
+
+    public ReplayCache(@Value("${application.verification.clock-skew:5m}") Duration clockSkew,
+                       @Value("${application.verification.replay-cache.max-entries:1000000}") int maxEntries,
+                       MeterRegistry meterRegistry) {
+        this.bucketSeconds = Math.max(1, (2 * clockSkew.getSeconds() + WINDOW_BUCKETS - 1) / WINDOW_BUCKETS);
+        // dates on the window edges may fall into one more bucket on each side
+        int bucketCount = (int) ((2 * clockSkew.getSeconds() + bucketSeconds - 1) / bucketSeconds) + 2;
+        this.bucketCapacity = Math.max(16, maxEntries / (bucketCount - 2));
+        int tableSize = Integer.highestOneBit(bucketCapacity * 100 / MAX_LOAD_PERCENT - 1) << 1;
+
+        this.buckets = new Bucket[bucketCount];
+        for (int i = 0; i < bucketCount; i++) {
+            buckets[i] = new Bucket(tableSize);
+        }
+
+        Gauge.builder("signature.replay.cache.size", this, ReplayCache::size)
+            .description("Signatures remembered for replay detection")
+            .register(meterRegistry);
+
+        log.info("Replay cache: {} buckets of {}s, {} signatures per bucket", bucketCount, bucketSeconds,
+            bucketCapacity);
+    }
+
+    /**
+     * Remembers the signed message.
+     *
+     * @param date          signed 'Date', epoch seconds, within clock skew of the current time
+     * @param keyId         keyId of the verified signature
+     * @param signingString signed headers as verified
+     * @return false if the message was already seen
+     * @throws SigningRejectedException if there is no room for the message
+     */
+    public boolean add(long date, String keyId, String signingString) {
+        long fingerprint = fingerprint(keyId, signingString);
+        long bucketEpoch = Math.floorDiv(date, bucketSeconds);
+        Bucket bucket = buckets[(int) Math.floorMod(bucketEpoch, (long) buckets.length)];
+
+        if (bucket.epoch != bucketEpoch) {
+            rotate(bucket, bucketEpoch);
+        }
+        return bucket.add(fingerprint, bucketCapacity);
+    }
+
+    private static void rotate(Bucket bucket, long bucketEpoch) {
+        synchronized (bucket) {
+            if (bucket.epoch == bucketEpoch) {
+                return;
+            }
+            if (bucket.epoch > bucketEpoch) {
+                // date is older than the ring, callers check the clock skew first
+                throw new SignatureVerificationException("Signed date is outside of the replay window");
+            }
+            bucket.clear();
+            bucket.epoch = bucketEpoch;
+        }
+    }
+
+    long size() {
+        long size = 0;
+        for (Bucket bucket : buckets) {
+            size += bucket.size.get();
+        }
+        return size;
+    }
+
+    /**
+     * Signing strings are chosen by the client, so a cryptographic hash keeps one client from making
+     * colliding fingerprints that would reject the requests of another; 0 marks an empty slot
+     */
+    private static long fingerprint(String keyId, String signingString) {
+        MessageDigest sha256 = SHA_256.get();
+        sha256.update(keyId.getBytes(StandardCharsets.UTF_8));
+        sha256.update((byte) '\n');
+        sha256.update(signingString.getBytes(StandardCharsets.UTF_8));
+        long fingerprint = ByteBuffer.wrap(sha256.digest()).getLong();
+        return fingerprint != 0 ? fingerprint : 1;
+    }
+
+    private static class Bucket {
+
+        private final AtomicLongArray slots;
+        private final int mask;
+        private final AtomicInteger size = new AtomicInteger();
+        private volatile long epoch = Long.MIN_VALUE;
+
+        Bucket(int tableSize) {
+            this.slots = new AtomicLongArray(tableSize);
+            this.mask = tableSize - 1;
+        }
+
+        boolean add(long fingerprint, int capacity) {
+            int index = Long.hashCode(fingerprint * 0x9E3779B97F4A7C15L) & mask;
+            while (true) {
+                long slot = slots.get(index);
+                if (slot == fingerprint) {
+                    return false;
+                }
+                if (slot == 0) {
+                    if (size.get() >= capacity) {
+                        throw new SigningRejectedException(new IllegalStateException("Replay cache is full"));
+                    }
+                    if (slots.compareAndSet(index, 0, fingerprint)) {
+                        size.incrementAndGet();
+                        return true;
+                    }
+                    // another thread took the slot, it may have stored the same fingerprint
+                    continue;
+                }
+                index = (index + 1) & mask;
+            }
+        }
+
+        void clear() {
+            for (int i = 0; i < slots.length(); i++) {
+                slots.set(i, 0);
+            }
+            size.set(0);
+        }
+    }
+}
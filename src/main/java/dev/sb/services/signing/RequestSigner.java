@@ -1,71 +1,164 @@
 package dev.sb.services.signing;
 
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.buffer.DataBuffer;
 import org.springframework.stereotype.Component;
-import org.tomitribe.auth.signatures.Signature;
-import org.tomitribe.auth.signatures.Signer;
 
 import javax.security.auth.x500.X500Principal;
-import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
-import java.security.NoSuchAlgorithmException;
+import java.security.Key;
 import java.security.cert.X509Certificate;
-import java.util.Base64;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 
 /**
  * HTTP request headers signer
- * Refer https://datatracker.ietf.org/doc/draft-cavage-http-signatures/?include_text=1 for details.
+ * Refer https://datatracker.ietf.org/doc/draft-cavage-http-signatures/?include_text=1 for details,
+ * RFC 9421 signatures (https://www.rfc-editor.org/rfc/rfc9421) are created by {@link MessageSignatureEngine}.
  */
 @Slf4j
 @Component
 public class RequestSigner {
 
-    private KeyTool keyTool;
+    /** by default only headers starting with this prefix are signed (in addition to 'Date' and 'Digest') */
+    public static final String SIGNED_HEADER_PREFIX = "X-COMPANY";
 
-    public RequestSigner(KeyTool keyTool) {
+    /** digest is reset after each calculation, so one instance per thread is enough */
+    private static final ThreadLocal<BodyDigest> SHA_256 = ThreadLocal.withInitial(BodyDigest::sha256);
+
+    private final KeyTool keyTool;
+    private final SigningAlgorithm algorithm;
+    private final String signedHeaderPrefix;
+    private final List<String> components;
+    private final SignatureCache signatureCache;
+    /** engine of the current key snapshot, replaced when the key tool reloads its key */
+    private volatile KeyedEngine signingEngine;
+
+    @Autowired
+    public RequestSigner(KeyTool keyTool,
+                         @Value("${application.signing.algorithm:rsa-sha256}") String algorithm,
+                         @Value("${application.signing.components:"
+                             + "@method,@target-uri,@authority,content-digest,content-type}")
+                             List<String> components,
+                         SignatureCache signatureCache) {
+        this(keyTool, SigningAlgorithm.of(algorithm), SIGNED_HEADER_PREFIX, components, signatureCache);
+    }
+
+    /** Signer with rsa-sha256 algorithm */
+    public RequestSigner(KeyTool keyTool, SignatureCache signatureCache) {
+        this(keyTool, SigningAlgorithm.RSA_SHA256, SIGNED_HEADER_PREFIX, signatureCache);
+    }
+
+    /** Signer of a route with its own key, algorithm and signed headers */
+    public RequestSigner(KeyTool keyTool, SigningAlgorithm algorithm, String signedHeaderPrefix,
+                         SignatureCache signatureCache) {
+        this(keyTool, algorithm, signedHeaderPrefix, MessageSignatureEngine.DEFAULT_COMPONENTS, signatureCache);
+    }
+
+    /**
+     * Signer of a route with its own key, algorithm, signed headers (draft-cavage)
+     * and covered components (RFC 9421).
+     */
+    public RequestSigner(KeyTool keyTool, SigningAlgorithm algorithm, String signedHeaderPrefix,
+                         List<String> components, SignatureCache signatureCache) {
         this.keyTool = keyTool;
+        this.algorithm = algorithm;
+        this.signedHeaderPrefix = signedHeaderPrefix;
+        this.components = components;
+        this.signatureCache = signatureCache;
+        this.signingEngine = newEngine(keyTool.snapshot());
     }
 
     /** Create digest of body. */
     public String createDigest(String body) {
-        try {
-            var digest = java.security.MessageDigest.getInstance("SHA-256");
-            byte[] digestedBytes = digest.digest(body.getBytes(StandardCharsets.UTF_8));
-            return "SHA-256=" + new String(Base64.getEncoder().encode(digestedBytes));
-        } catch (NoSuchAlgorithmException e) {
-            throw new RequestSignerException(e);
-        }
+        return createDigest(ByteBuffer.wrap(body.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /** Create digest of body, body segments are hashed in place (no copy to String or byte[]). */
+    public String createDigest(DataBuffer body) {
+        return SHA_256.get().update(body).digest();
+    }
+
+    /** Create RFC 9530 'Content-Digest' of body, body segments are hashed in place. */
+    public String createContentDigest(DataBuffer body) {
+        return SHA_256.get().update(body).contentDigest();
+    }
+
+    /** Create digest of body split into segments. Positions of the segments are preserved. */
+    public String createDigest(ByteBuffer... segments) {
+        return SHA_256.get().update(segments).digest();
+    }
+
+    /** Create digest for body that is hashed buffer by buffer as it arrives. */
+    public BodyDigest newBodyDigest() {
+        return BodyDigest.sha256();
     }
 
     /** Create signature based on method, path and set of headers */
     public String createSignature(String method, String path, Map<String, String> headers) {
-        String keyId = keyTool.readPrivateKeyId();
+        return keyedEngine().engine.sign(headers);
+    }
 
-        if (keyId == null) {
-            // fallback to keyId based on certificate data            
-            X509Certificate x509Certificate = keyTool.readX509Certificate();
-            keyId = resolveKeyIdFromCertificate(x509Certificate);
+    /**
+     * Create signature based on method, path and set of headers,
+     * where 'Date' and 'Digest' are not added to request headers yet.
+     */
+    public String createSignature(String method, String path, Map<String, List<String>> headers,
+                                  String date, String digest) {
+        return keyedEngine().engine.sign(headers, date, digest);
+    }
+
+    /**
+     * Create RFC 9421 signature of request sent to upstream.
+     *
+     * @param targetUri     URI of the request sent to upstream
+     * @param headers       request headers, case-insensitive (e.g. {@code HttpHeaders})
+     * @param contentDigest 'Content-Digest' not added to request headers yet, null if none
+     * @param created       signature creation time, epoch seconds
+     */
+    public MessageSignature createMessageSignature(String method, URI targetUri, Map<String, List<String>> headers,
+                                                   String contentDigest, long created) {
+        return keyedEngine().messageEngine.sign(method, targetUri, headers, contentDigest, created);
+    }
+
+    /** Engines of the current key; the first request after key reload builds new ones (no key decryption) */
+    private KeyedEngine keyedEngine() {
+        KeyedEngine engine = signingEngine;
+        KeyTool keys = keyTool.snapshot();
+        if (engine.keys != keys) {
+            // concurrent requests may build an engine each, the last one is kept
+            engine = newEngine(keys);
+            signingEngine = engine;
         }
+        return engine;
+    }
 
-        List<String> signHeaders = new LinkedList<>(headers.keySet());
-        signHeaders.removeIf(k -> !k.toUpperCase().startsWith("X-COMPANY"));
-        signHeaders.add("Date");
-        if (headers.containsKey("Digest")) {
-            signHeaders.add("Digest");
+    private KeyedEngine newEngine(KeyTool keys) {
+        String keyId = resolveKeyId(keys);
+        Key key = algorithm.signingKey(keys);
+        if (key == null) {
+            // the default route has a private key only, shared secrets are configured on partner routes
+            throw new KeyToolException(algorithm == SigningAlgorithm.HMAC_SHA256
+                ? "Algorithm 'hmac-sha256' needs a shared secret, 'signing.secret' of a partner route"
+                : "Algorithm '" + algorithm.getName() + "' needs a private key");
         }
+        return new KeyedEngine(keys,
+            new SigningEngine(keyId, algorithm, key, signedHeaderPrefix, signatureCache),
+            new MessageSignatureEngine(keyId, algorithm, key, components));
+    }
 
-        Signature signature = new Signature(keyId, "rsa-sha256", null, signHeaders);
-        Signer signer = new Signer(keyTool.readPrivateKey(), signature);
-        try {
-            return signer.sign(method, path, headers)
-                .toString()
-                .replace("Signature ", "");
-        } catch (IOException e) {
-            throw new RequestSignerException(e);
+    /** Configured keyId or keyId based on certificate data */
+    public String resolveKeyId(KeyTool keys) {
+        String keyId = keys.readPrivateKeyId();
+        if (keyId == null) {
+            // fallback to keyId based on certificate data
+            keyId = resolveKeyIdFromCertificate(keys.readX509Certificate());
         }
+        return keyId;
     }
 
     /**
@@ -76,13 +169,18 @@ public class RequestSigner {
      * @return formatted keyId string
      */
     public String resolveKeyIdFromCertificate(X509Certificate certificate) {
+        return keyIdOf(certificate);
+    }
+
+    /** @see #resolveKeyIdFromCertificate(X509Certificate) */
+    static String keyIdOf(X509Certificate certificate) {
         String serialNumberAsHex = certificate.getSerialNumber().toString(16).toUpperCase();
         String issuer = readRfc2253Issuer(certificate.getIssuerX500Principal());
 
         return String.format("SN=%s,CA=%s", serialNumberAsHex, issuer);
     }
 
-    private String readRfc2253Issuer(X500Principal principal) {
+    private static String readRfc2253Issuer(X500Principal principal) {
         String rfc2253issuer = null;
         if (principal != null) {
             rfc2253issuer = principal.getName(X500Principal.RFC2253);
@@ -94,4 +192,17 @@ public class RequestSigner {
             return null;
         }
     }
+
+    private static class KeyedEngine {
+
+        private final KeyTool keys;
+        private final SigningEngine engine;
+        private final MessageSignatureEngine messageEngine;
+
+        KeyedEngine(KeyTool keys, SigningEngine engine, MessageSignatureEngine messageEngine) {
+            this.keys = keys;
+            this.engine = engine;
+            this.messageEngine = messageEngine;
+        }
+    }
 }
@@ -6,6 +6,10 @@ import org.springframework.web.bind.annotation.ResponseStatus;
 @ResponseStatus(code = HttpStatus.INTERNAL_SERVER_ERROR, reason = "REQUEST_SIGNER_EXCEPTION")
 public class RequestSignerException extends RuntimeException {
 
+    public RequestSignerException(String message) {
+        super(message);
+    }
+
     public RequestSignerException(Exception e) {
         super(e);
     }
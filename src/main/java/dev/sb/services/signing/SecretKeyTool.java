@@ -0,0 +1,50 @@
+package dev.sb.services.signing;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.PrivateKey;
+import java.security.cert.X509Certificate;
+import java.util.Base64;
+
+/** Shared secret of HMAC signatures, configured as Base64 string */
+public class SecretKeyTool implements KeyTool {
+
+    private final SecretKey secretKey;
+    private final String keyId;
+
+    public SecretKeyTool(String secret, String keyId) {
+        if (secret == null || secret.isBlank()) {
+            throw new KeyToolException("HMAC secret is not configured");
+        }
+        if (keyId == null || keyId.isBlank()) {
+            // there is no certificate to resolve keyId from
+            throw new KeyToolException("Key ID of HMAC secret is not configured");
+        }
+        try {
+            this.secretKey = new SecretKeySpec(Base64.getDecoder().decode(secret.trim()), "HmacSHA256");
+        } catch (IllegalArgumentException e) {
+            throw new KeyToolException("HMAC secret is not a valid Base64 string", e);
+        }
+        this.keyId = keyId;
+    }
+
+    @Override
+    public PrivateKey readPrivateKey() {
+        return null;
+    }
+
+    @Override
+    public String readPrivateKeyId() {
+        return keyId;
+    }
+
+    @Override
+    public X509Certificate readX509Certificate() {
+        return null;
+    }
+
+    @Override
+    public SecretKey readSecretKey() {
+        return secretKey;
+    }
+}
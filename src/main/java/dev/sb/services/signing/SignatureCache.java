@@ -0,0 +1,72 @@
+package dev.sb.services.signing;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.function.Function;
+
+/**
+ * Optional cache of signatures keyed by hash of the signing string.
+ * <p>
+ * RSA-SHA256 (PKCS#1 v1.5) signatures are deterministic: the same signing string signed with the same key
+ * always gives the same signature. Signing string contains 'Date' header, so a cache entry can only be hit
+ * by identical requests within the same second (or requests with the same client 'Date').
+ * ECDSA signatures are randomized, but a cached one is just as valid as a new one.
+ * Hit and miss counters are published as 'cache.gets' metrics with cache="signatures".
+ */
+@Component
+@Slf4j
+public class SignatureCache {
+
+    private final Cache<ByteBuffer, String> cache;
+
+    public SignatureCache(@Value("${application.signing.cache.enabled:false}") boolean enabled,
+                          @Value("${application.signing.cache.max-size:10000}") long maxSize,
+                          @Value("${application.signing.cache.expire-after-write:5s}") Duration expireAfterWrite,
+                          MeterRegistry meterRegistry) {
+        if (enabled) {
+            this.cache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(expireAfterWrite)
+                .recordStats()
+                .build();
+            CaffeineCacheMetrics.monitor(meterRegistry, cache, "signatures");
+            log.info("Signature cache: max size {}, expire after write {}", maxSize, expireAfterWrite);
+        } else {
+            this.cache = null;
+        }
+    }
+
+    private SignatureCache() {
+        this.cache = null;
+    }
+
+    /** Cache that never holds anything */
+    public static SignatureCache disabled() {
+        return new SignatureCache();
+    }
+
+    public boolean isEnabled() {
+        return cache != null;
+    }
+
+    /**
+     * Returns cached signature or computes it. Concurrent calls with the same key compute signature only once.
+     *
+     * @param key  hash of the signing string (and of the signing key identity)
+     * @param sign signature calculation
+     */
+    String get(ByteBuffer key, Function<ByteBuffer, String> sign) {
+        if (cache == null) {
+            return sign.apply(key);
+        }
+        return cache.get(key, sign);
+    }
+}
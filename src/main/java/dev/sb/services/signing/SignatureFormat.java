@@ -0,0 +1,31 @@
+package dev.sb.services.signing;
+
+/** Format of signature headers */
+public enum SignatureFormat {
+
+    /** 'Signature' header of draft-cavage-http-signatures, with 'Digest' (RFC 3230) */
+    DRAFT_CAVAGE("draft-cavage"),
+    /** 'Signature-Input' and 'Signature' headers of RFC 9421, with 'Content-Digest' (RFC 9530) */
+    RFC9421("rfc9421");
+
+    private final String name;
+
+    SignatureFormat(String name) {
+        this.name = name;
+    }
+
+    /** @param name "draft-cavage" or "rfc9421" */
+    public static SignatureFormat of(String name) {
+        for (SignatureFormat format : values()) {
+            if (format.name.equalsIgnoreCase(name)) {
+                return format;
+            }
+        }
+        throw new IllegalArgumentException("Unsupported signature format '" + name
+            + "', supported: draft-cavage, rfc9421");
+    }
+
+    public String getName() {
+        return name;
+    }
+}
@@ -0,0 +1,17 @@
+package dev.sb.services.signing;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/** Signature of an inbound request is missing, invalid, expired or replayed */
+@ResponseStatus(code = HttpStatus.UNAUTHORIZED, reason = "SIGNATURE_VERIFICATION_FAILED")
+public class SignatureVerificationException extends RuntimeException {
+
+    public SignatureVerificationException(String message) {
+        super(message);
+    }
+
+    public SignatureVerificationException(String message, Exception e) {
+        super(message, e);
+    }
+}
@@ -0,0 +1,246 @@
+package dev.sb.services.signing;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.PublicKey;
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.time.format.DateTimeParseException;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Verifies draft-cavage 'Signature' (and 'Digest') headers of inbound requests or upstream responses,
+ * built once per route.
+ * <p>
+ * Public keys come from the configured certificates and verification primitives are thread-confined
+ * and initialised with the key only once per thread, as signing primitives of {@link SigningEngine} are.
+ * Signatures have to cover 'date' (and 'digest' of requests with a body), the date has to be within
+ * the clock skew and every signature is accepted only once ({@link ReplayCache}).
+ */
+@Slf4j
+public class SignatureVerifier {
+
+    private static final String REQUEST_TARGET = "(request-target)";
+    private static final String DATE = "date";
+    private static final String DIGEST = "digest";
+    private static final String SIGNATURE_HEADER = "Signature";
+
+    /** keyId -> key */
+    private final Map<String, VerificationKey> keys;
+    private final SigningClock signingClock;
+    /** null if only responses are verified */
+    private final ReplayCache replayCache;
+    private final long clockSkew;
+
+    /**
+     * @param clockSkew   maximum difference between signed 'Date' and the current time
+     * @param replayCache null if only responses are verified
+     */
+    public SignatureVerifier(SigningClock signingClock, Duration clockSkew, ReplayCache replayCache) {
+        this.keys = new HashMap<>();
+        this.signingClock = signingClock;
+        this.replayCache = replayCache;
+        this.clockSkew = clockSkew.getSeconds();
+    }
+
+    /**
+     * @param keyId       keyId of signatures made with the certificate's key, resolved from the certificate if blank
+     * @param certificate PEM X.509 certificate
+     */
+    public SignatureVerifier addCertificate(String keyId, String certificate) {
+        X509Certificate x509Certificate = OpenSSLKeyTool.loadX509Certificate(certificate);
+        String resolvedKeyId = keyId == null || keyId.isBlank() ? RequestSigner.keyIdOf(x509Certificate) : keyId;
+        if (keys.putIfAbsent(resolvedKeyId, new VerificationKey(x509Certificate.getPublicKey())) != null) {
+            throw new IllegalArgumentException("Duplicate keyId " + resolvedKeyId);
+        }
+        log.info("Signatures of keyId {} are verified", resolvedKeyId);
+        return this;
+    }
+
+    /**
+     * @param path    request path (and query) as sent by the client
+     * @param headers request headers, case-insensitive (e.g. {@code HttpHeaders})
+     * @param digest  'Digest' of the received body, null if the request has no body (and no 'Digest' header):
+     *                a signed 'Digest' without the digest of the body is rejected
+     * @return keyId of the verified signature
+     * @throws SignatureVerificationException if the request is not correctly signed
+     */
+    public String verify(String method, String path, Map<String, List<String>> headers, String digest) {
+        return verify(method, path, headers, digest, false);
+    }
+
+    /**
+     * Verifies signature of an upstream response, before its body is received.
+     * A response with a body has to have a signed 'Digest', it is compared with the body by the caller.
+     * Responses are not checked for replays, a gateway may serve the same signed response more than once.
+     *
+     * @param method  request method
+     * @param path    request path (and query) sent to upstream
+     * @param headers response headers, case-insensitive (e.g. {@code HttpHeaders})
+     * @param body    the response has a body (by its headers)
+     * @return keyId of the verified signature
+     * @throws SignatureVerificationException if the response is not correctly signed
+     */
+    public String verifyResponse(String method, String path, Map<String, List<String>> headers, boolean body) {
+        if (body && first(headers, DIGEST) == null) {
+            // without it the body would only be found unverifiable once it was streamed to the client
+            throw new SignatureVerificationException("Missing Digest of response body");
+        }
+        return verify(method, path, headers, null, true);
+    }
+
+    private String verify(String method, String path, Map<String, List<String>> headers, String digest,
+                          boolean response) {
+        String signatureHeader = first(headers, SIGNATURE_HEADER);
+        if (signatureHeader == null) {
+            throw new SignatureVerificationException("Missing Signature header");
+        }
+        Map<String, String> parameters = parameters(signatureHeader);
+
+        String keyId = parameters.get("keyId");
+        VerificationKey key = keyId != null ? keys.get(keyId) : null;
+        if (key == null) {
+            throw new SignatureVerificationException("Unknown keyId: " + keyId);
+        }
+        String algorithm = parameters.get("algorithm");
+        if (algorithm != null && !algorithm.equalsIgnoreCase(key.algorithm.getName())) {
+            throw new SignatureVerificationException("Algorithm " + algorithm + " does not match key " + keyId);
+        }
+        String signature = parameters.get("signature");
+        if (signature == null) {
+            throw new SignatureVerificationException("Missing signature parameter");
+        }
+
+        String[] signedHeaders = parameters.getOrDefault("headers", DATE).toLowerCase(Locale.ROOT).split(" ");
+        boolean dateSigned = false;
+        boolean digestSigned = false;
+        StringBuilder signingString = new StringBuilder(256);
+        for (String name : signedHeaders) {
+            String value;
+            if (REQUEST_TARGET.equals(name)) {
+                value = method.toLowerCase(Locale.ROOT) + ' ' + path;
+            } else {
+                value = first(headers, name);
+                if (value == null) {
+                    throw new SignatureVerificationException("Missing signed header: " + name);
+                }
+            }
+            dateSigned |= DATE.equals(name);
+            digestSigned |= DIGEST.equals(name);
+            if (signingString.length() > 0) {
+                signingString.append('\n');
+            }
+            signingString.append(name).append(": ").append(value);
+        }
+
+        if (!dateSigned) {
+            throw new SignatureVerificationException("Date is not signed");
+        }
+        long date = date(first(headers, DATE));
+        if ((digest != null || response && first(headers, DIGEST) != null) && !digestSigned) {
+            throw new SignatureVerificationException("Digest is not signed");
+        }
+        if (!response && digestSigned && digest == null) {
+            // the signed Digest would vouch for a body nobody compared with it
+            throw new SignatureVerificationException("Digest is signed, but the body is not digested");
+        }
+        if (digest != null && !digest.equals(first(headers, DIGEST))) {
+            throw new SignatureVerificationException("Digest does not match body");
+        }
+
+        byte[] signatureBytes;
+        try {
+            signatureBytes = Base64.getDecoder().decode(signature);
+        } catch (IllegalArgumentException e) {
+            throw new SignatureVerificationException("Signature is not Base64", e);
+        }
+        String signed = signingString.toString();
+        if (!key.verify(signed.getBytes(StandardCharsets.UTF_8), signatureBytes)) {
+            throw new SignatureVerificationException("Invalid signature of keyId " + keyId);
+        }
+        // only valid signatures are remembered, so invalid ones can't fill the cache
+        if (!response && !replayCache.add(date, keyId, signed)) {
+            throw new SignatureVerificationException("Replayed signature of keyId " + keyId);
+        }
+        return keyId;
+    }
+
+    private long date(String value) {
+        long date;
+        try {
+            date = signingClock.parseHttpDate(value);
+        } catch (DateTimeParseException e) {
+            throw new SignatureVerificationException("Invalid Date: " + value, e);
+        }
+        if (Math.abs(signingClock.epochSecond() - date) > clockSkew) {
+            throw new SignatureVerificationException("Date is out of the allowed clock skew: " + value);
+        }
+        return date;
+    }
+
+    private static String first(Map<String, List<String>> headers, String name) {
+        List<String> values = headers.get(name);
+        return values == null || values.isEmpty() ? null : values.get(0);
+    }
+
+    /** {@code name="value"} pairs separated by commas, values may contain commas */
+    static Map<String, String> parameters(String signatureHeader) {
+        Map<String, String> parameters = new HashMap<>(8);
+        String header = signatureHeader.startsWith("Signature ") ? signatureHeader.substring(10) : signatureHeader;
+        int position = 0;
+        while (position < header.length()) {
+            int equals = header.indexOf('=', position);
+            if (equals < 0 || equals + 1 >= header.length() || header.charAt(equals + 1) != '"') {
+                throw new SignatureVerificationException("Malformed Signature header");
+            }
+            int end = header.indexOf('"', equals + 2);
+            if (end < 0) {
+                throw new SignatureVerificationException("Malformed Signature header");
+            }
+            parameters.put(header.substring(position, equals).trim(), header.substring(equals + 2, end));
+            position = end + 1;
+            while (position < header.length() && (header.charAt(position) == ',' || header.charAt(position) == ' ')) {
+                position++;
+            }
+        }
+        return parameters;
+    }
+
+    private static class VerificationKey {
+
+        private final SigningAlgorithm algorithm;
+        private final ThreadLocal<SigningAlgorithm.Verifier> verifiers;
+
+        VerificationKey(PublicKey publicKey) {
+            this.algorithm = SigningAlgorithm.of(publicKey);
+            this.verifiers = ThreadLocal.withInitial(() -> newVerifier(algorithm, publicKey));
+
+            // fail fast on unusable key instead of failing the first request
+            newVerifier(algorithm, publicKey);
+        }
+
+        boolean verify(byte[] signingString, byte[] signature) {
+            try {
+                return verifiers.get().verify(signingString, signature);
+            } catch (GeneralSecurityException e) {
+                // e.g. malformed ECDSA signature, the verifier may be left in an unknown state
+                verifiers.remove();
+                return false;
+            }
+        }
+
+        private static SigningAlgorithm.Verifier newVerifier(SigningAlgorithm algorithm, PublicKey publicKey) {
+            try {
+                return algorithm.newVerifier(publicKey);
+            } catch (GeneralSecurityException e) {
+                throw new KeyToolException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package dev.sb.services.signing;
+
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.util.Arrays;
+import java.util.stream.Collectors;
+
+/**
+ * Signature algorithms, named as in 'algorithm' parameter of draft-cavage 'Signature' header.
+ * <p>
+ * Ed25519 is provided by BouncyCastle (Java 11 has no EdDSA), the others by the JDK.
+ * ECDSA signatures are DER encoded for draft-cavage, RFC 9421 requires raw r||s encoding (P1363).
+ */
+public enum SigningAlgorithm {
+
+    RSA_SHA256("rsa-sha256", "SHA256withRSA", "rsa-v1_5-sha256", "SHA256withRSA"),
+    ECDSA_SHA256("ecdsa-sha256", "SHA256withECDSA", "ecdsa-p256-sha256", "SHA256withECDSAinP1363Format"),
+    ED25519("ed25519", "Ed25519", "ed25519", "Ed25519"),
+    HMAC_SHA256("hmac-sha256", "HmacSHA256", "hmac-sha256", "HmacSHA256");
+
+    private final String name;
+    private final String jcaName;
+    private final String rfc9421Name;
+    private final String rfc9421JcaName;
+
+    SigningAlgorithm(String name, String jcaName, String rfc9421Name, String rfc9421JcaName) {
+        this.name = name;
+        this.jcaName = jcaName;
+        this.rfc9421Name = rfc9421Name;
+        this.rfc9421JcaName = rfc9421JcaName;
+    }
+
+    /** @param name algorithm name, e.g. "rsa-sha256" */
+    public static SigningAlgorithm of(String name) {
+        for (SigningAlgorithm algorithm : values()) {
+            if (algorithm.name.equalsIgnoreCase(name)) {
+                return algorithm;
+            }
+        }
+        throw new IllegalArgumentException("Unsupported signing algorithm '" + name + "', supported: "
+            + Arrays.stream(values()).map(SigningAlgorithm::getName).collect(Collectors.joining(", ")));
+    }
+
+    /** Algorithm of signatures verified with the public key (HMAC has no public key) */
+    public static SigningAlgorithm of(PublicKey key) {
+        switch (key.getAlgorithm()) {
+            case "RSA":
+                return RSA_SHA256;
+            case "EC":
+            case "ECDSA":
+                return ECDSA_SHA256;
+            case "Ed25519":
+            case "EdDSA":
+                return ED25519;
+            default:
+                throw new IllegalArgumentException("Unsupported public key algorithm '" + key.getAlgorithm() + "'");
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /** Name in RFC 9421 'alg' signature parameter */
+    public String getRfc9421Name() {
+        return rfc9421Name;
+    }
+
+    /** Secret key for HMAC, private key for the others */
+    Key signingKey(KeyTool keys) {
+        return this == HMAC_SHA256 ? keys.readSecretKey() : keys.readPrivateKey();
+    }
+
+    /** Signing primitive initialised with the key, not thread safe */
+    Signer newSigner(Key key) throws GeneralSecurityException {
+        return newSigner(key, jcaName);
+    }
+
+    /** Signing primitive producing signatures in RFC 9421 encoding, not thread safe */
+    Signer newRfc9421Signer(Key key) throws GeneralSecurityException {
+        return newSigner(key, rfc9421JcaName);
+    }
+
+    private Signer newSigner(Key key, String jcaName) throws GeneralSecurityException {
+        if (this == HMAC_SHA256) {
+            Mac mac = Mac.getInstance(jcaName);
+            mac.init((SecretKey) key);
+            return mac::doFinal;
+        }
+
+        Signature signature = Signature.getInstance(jcaName);
+        signature.initSign((PrivateKey) key);
+        return data -> {
+            signature.update(data);
+            return signature.sign();
+        };
+    }
+
+    /** Verification primitive initialised with the key, not thread safe */
+    Verifier newVerifier(PublicKey key) throws GeneralSecurityException {
+        Signature signature = Signature.getInstance(jcaName);
+        signature.initVerify(key);
+        return (data, signatureBytes) -> {
+            signature.update(data);
+            return signature.verify(signatureBytes);
+        };
+    }
+
+    interface Signer {
+        byte[] sign(byte[] data) throws GeneralSecurityException;
+    }
+
+    interface Verifier {
+        boolean verify(byte[] data, byte[] signature) throws GeneralSecurityException;
+    }
+}
@@ -0,0 +1,86 @@
+package dev.sb.services.signing;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Single time source for signing: 'Date' header values, signature creation time and validity windows.
+ * <p>
+ * 'Date' header has one second resolution (RFC-1123), so its value is formatted once per second
+ * and shared by all requests of that second. No locks: a thread that sees an outdated value formats
+ * the new one and publishes it.
+ */
+@Component
+public class SigningClock {
+
+    private final Clock clock;
+    private final AtomicReference<HttpDate> httpDate;
+    /** last parsed 'Date' header, requests of the same second share it */
+    private final AtomicReference<HttpDate> parsedHttpDate;
+
+    @Autowired
+    public SigningClock() {
+        this(Clock.systemUTC());
+    }
+
+    /** Tests can control time with their own clock */
+    public SigningClock(Clock clock) {
+        this.clock = clock;
+        this.httpDate = new AtomicReference<>(new HttpDate(Long.MIN_VALUE, null));
+        this.parsedHttpDate = new AtomicReference<>(new HttpDate(Long.MIN_VALUE, null));
+    }
+
+    public Instant instant() {
+        return clock.instant();
+    }
+
+    public long epochSecond() {
+        return Math.floorDiv(clock.millis(), 1000L);
+    }
+
+    /** Current time in 'Date' header format (RFC-1123) */
+    public String httpDate() {
+        long epochSecond = epochSecond();
+        HttpDate current = httpDate.get();
+        if (current.epochSecond != epochSecond) {
+            HttpDate next = new HttpDate(epochSecond, DateTimeFormatter.RFC_1123_DATE_TIME
+                .format(Instant.ofEpochSecond(epochSecond).atZone(ZoneOffset.UTC)));
+            // other thread may have published the same (or a later) second meanwhile, both are fine
+            httpDate.compareAndSet(current, next);
+            return next.value;
+        }
+        return current.value;
+    }
+
+    /**
+     * @param value 'Date' header value (RFC-1123)
+     * @return epoch seconds
+     * @throws java.time.format.DateTimeParseException if the value is not a valid date
+     */
+    public long parseHttpDate(String value) {
+        HttpDate last = parsedHttpDate.get();
+        if (value.equals(last.value)) {
+            return last.epochSecond;
+        }
+        long epochSecond = DateTimeFormatter.RFC_1123_DATE_TIME.parse(value, Instant::from).getEpochSecond();
+        parsedHttpDate.set(new HttpDate(epochSecond, value));
+        return epochSecond;
+    }
+
+    private static class HttpDate {
+
+        private final long epochSecond;
+        private final String value;
+
+        HttpDate(long epochSecond, String value) {
+            this.epochSecond = epochSecond;
+            this.value = value;
+        }
+    }
+}
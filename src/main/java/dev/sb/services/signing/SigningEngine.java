@@ -0,0 +1,182 @@
+package dev.sb.services.signing;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.Key;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Signs HTTP headers with one key, built once per key and route.
+ * <p>
+ * Everything that does not depend on the request is computed up front: keyId, algorithm,
+ * header selection rule and the constant prefix of the resulting header value.
+ * Signature (or MAC) instances are thread-confined and initialised with the key only once per thread,
+ * so a request costs exactly one private key operation, or none if the signature is found in {@link SignatureCache}.
+ * <p>
+ * Output is the draft-cavage 'Signature' header value as produced by Tomitribe
+ * ({@code keyId="..",algorithm="..",headers="..",signature=".."}).
+ */
+public class SigningEngine {
+
+    private static final String DATE = "date";
+    private static final String DIGEST = "digest";
+    private static final String DIGEST_HEADER = "Digest";
+
+    private static final AtomicLong INSTANCES = new AtomicLong();
+
+    private final String keyId;
+    private final String signedHeaderPrefix;
+    private final String headerValuePrefix;
+    private final ThreadLocal<SigningAlgorithm.Signer> signers;
+    private final SignatureCache signatureCache;
+    /** distinguishes cache entries of different engines (keys) */
+    private final byte[] cacheKeyPrefix;
+    private final ThreadLocal<MessageDigest> cacheKeyDigests;
+
+    public SigningEngine(String keyId, SigningAlgorithm algorithm, Key key, String signedHeaderPrefix,
+                         SignatureCache signatureCache) {
+        this.keyId = keyId;
+        this.signedHeaderPrefix = signedHeaderPrefix;
+        this.headerValuePrefix = "keyId=\"" + keyId + "\",algorithm=\"" + algorithm.getName() + "\",headers=\"";
+        this.signers = ThreadLocal.withInitial(() -> newSigner(algorithm, key));
+        this.signatureCache = signatureCache;
+        this.cacheKeyPrefix = ByteBuffer.allocate(Long.BYTES).putLong(INSTANCES.incrementAndGet()).array();
+        this.cacheKeyDigests = ThreadLocal.withInitial(() -> BodyDigest.sha256().messageDigest());
+
+        // fail fast on unusable key instead of failing the first request
+        newSigner(algorithm, key);
+    }
+
+    public String getKeyId() {
+        return keyId;
+    }
+
+    /**
+     * Signs the selected headers followed by 'date' and (if present) 'digest'.
+     *
+     * @param headers request headers, first value of each header
+     * @return 'Signature' header value
+     */
+    public String sign(Map<String, String> headers) {
+        StringBuilder signingString = new StringBuilder(256);
+        StringBuilder headerNames = new StringBuilder(64);
+        String date = null;
+        String digest = null;
+        boolean digestSigned = false;
+
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            String name = header.getKey();
+            if (isSigned(name)) {
+                appendLine(signingString, headerNames, name, header.getValue());
+            } else if (DATE.equalsIgnoreCase(name)) {
+                date = header.getValue();
+            } else if (DIGEST.equalsIgnoreCase(name)) {
+                digest = header.getValue();
+                // digest is signed only when added under its canonical name (as 'AddDigestHeaderGatewayFilter' does)
+                digestSigned |= DIGEST_HEADER.equals(name);
+            }
+        }
+
+        if (date == null) {
+            throw new RequestSignerException("Missing required header: " + DATE);
+        }
+        appendLine(signingString, headerNames, DATE, date);
+        if (digestSigned) {
+            appendLine(signingString, headerNames, DIGEST, digest);
+        }
+
+        return headerValuePrefix + headerNames + "\",signature=\"" + sign(signingString) + '"';
+    }
+
+    /**
+     * Signs the selected headers followed by 'date' and (if present) 'digest',
+     * where date and digest are not (yet) part of request headers.
+     *
+     * @param headers request headers, only first value of each header is signed
+     * @param date    'Date' header value
+     * @param digest  'Digest' header value, if null then 'Digest' request header (if any) is signed
+     * @return 'Signature' header value
+     */
+    public String sign(Map<String, List<String>> headers, String date, String digest) {
+        StringBuilder signingString = new StringBuilder(256);
+        StringBuilder headerNames = new StringBuilder(64);
+        boolean digestSigned = digest != null;
+
+        for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+            String name = header.getKey();
+            List<String> values = header.getValue();
+            if (values.isEmpty()) {
+                continue;
+            }
+            if (isSigned(name)) {
+                appendLine(signingString, headerNames, name, values.get(0));
+            } else if (!digestSigned && DIGEST_HEADER.equals(name)) {
+                digest = values.get(0);
+            }
+        }
+
+        appendLine(signingString, headerNames, DATE, date);
+        if (digest != null) {
+            appendLine(signingString, headerNames, DIGEST, digest);
+        }
+
+        return headerValuePrefix + headerNames + "\",signature=\"" + sign(signingString) + '"';
+    }
+
+    private boolean isSigned(String headerName) {
+        return headerName.regionMatches(true, 0, signedHeaderPrefix, 0, signedHeaderPrefix.length());
+    }
+
+    private String sign(StringBuilder signingString) {
+        byte[] bytes = signingString.toString().getBytes(StandardCharsets.UTF_8);
+        if (!signatureCache.isEnabled()) {
+            return sign(bytes);
+        }
+
+        MessageDigest cacheKeyDigest = cacheKeyDigests.get();
+        cacheKeyDigest.update(cacheKeyPrefix);
+        ByteBuffer cacheKey = ByteBuffer.wrap(cacheKeyDigest.digest(bytes));
+        return signatureCache.get(cacheKey, key -> sign(bytes));
+    }
+
+    private String sign(byte[] signingString) {
+        try {
+            return Base64.getEncoder().encodeToString(signers.get().sign(signingString));
+        } catch (GeneralSecurityException e) {
+            throw new RequestSignerException(e);
+        }
+    }
+
+    private static void appendLine(StringBuilder signingString, StringBuilder headerNames, String name, String value) {
+        if (signingString.length() > 0) {
+            signingString.append('\n');
+            headerNames.append(' ');
+        }
+        int start = signingString.length();
+        appendLowerCase(signingString, name);
+        headerNames.append(signingString, start, signingString.length());
+        signingString.append(": ").append(value);
+    }
+
+    private static void appendLowerCase(StringBuilder target, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            target.append(Character.toLowerCase(value.charAt(i)));
+        }
+    }
+
+    private static SigningAlgorithm.Signer newSigner(SigningAlgorithm algorithm, Key key) {
+        if (key == null) {
+            throw new RequestSignerException("No key for " + algorithm.getName() + " signatures");
+        }
+        try {
+            return algorithm.newSigner(key);
+        } catch (GeneralSecurityException | ClassCastException e) {
+            throw new RequestSignerException(e);
+        }
+    }
+}
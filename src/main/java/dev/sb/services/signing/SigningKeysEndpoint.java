@@ -0,0 +1,66 @@
+package dev.sb.services.signing;
+
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Collectors;
+
+/** Signing keys of the default route (current and recently replaced) and key reload (POST /actuator/signingkeys) */
+@Component
+@Endpoint(id = "signingkeys")
+public class SigningKeysEndpoint {
+
+    private static final long RELOAD_TIMEOUT_SECONDS = 30;
+
+    private final ReloadableKeyTool keyTool;
+    private final RequestSigner requestSigner;
+
+    public SigningKeysEndpoint(ReloadableKeyTool keyTool, RequestSigner requestSigner) {
+        this.keyTool = keyTool;
+        this.requestSigner = requestSigner;
+    }
+
+    @ReadOperation
+    public Map<String, Object> keys() {
+        Map<String, Object> keys = new LinkedHashMap<>();
+        keys.put("version", keyTool.getVersion());
+        keys.put("keys", keys(keyTool.keys()));
+        return keys;
+    }
+
+    @WriteOperation
+    public Map<String, Object> reload() throws InterruptedException, TimeoutException {
+        Map<String, Object> result = new LinkedHashMap<>();
+        try {
+            boolean replaced = keyTool.reload().get(RELOAD_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            result.put("reloaded", replaced);
+        } catch (ExecutionException e) {
+            result.put("reloaded", false);
+            result.put("error", e.getCause().getMessage());
+        }
+        result.putAll(keys());
+        return result;
+    }
+
+    private List<Map<String, Object>> keys(List<ReloadableKeyTool.LoadedKey> loadedKeys) {
+        return loadedKeys.stream()
+            .map(loadedKey -> {
+                Map<String, Object> key = new LinkedHashMap<>();
+                key.put("keyId", requestSigner.resolveKeyId(loadedKey.getKeyTool()));
+                key.put("loaded", loadedKey.getLoaded());
+                if (loadedKey.getReplaced() != null) {
+                    key.put("replaced", loadedKey.getReplaced());
+                }
+                return key;
+            })
+            .collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,13 @@
+package dev.sb.services.signing;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/** Signing queue is full, request is rejected instead of waiting */
+@ResponseStatus(code = HttpStatus.SERVICE_UNAVAILABLE, reason = "SIGNING_CAPACITY_EXCEEDED")
+public class SigningRejectedException extends RuntimeException {
+
+    public SigningRejectedException(Exception e) {
+        super(e);
+    }
+}
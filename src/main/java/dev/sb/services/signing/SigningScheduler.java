@@ -0,0 +1,103 @@
+package dev.sb.services.signing;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Dedicated execution stage for CPU heavy signing work (RSA signatures, digests of cached bodies).
+ * <p>
+ * Keeps Netty event loops free for I/O. Workers take tasks from a bounded queue,
+ * when the queue is full the request fails fast with {@link SigningRejectedException} (HTTP 503)
+ * instead of waiting for an unbounded time.
+ */
+@Component
+@Slf4j
+public class SigningScheduler implements DisposableBean {
+
+    private final ThreadPoolExecutor executor;
+    private final Timer queueWait;
+    private final Counter rejected;
+
+    public SigningScheduler(@Value("${application.signing.scheduler.workers:0}") int workers,
+                            @Value("${application.signing.scheduler.queue-capacity:1024}") int queueCapacity,
+                            MeterRegistry meterRegistry) {
+        if (workers <= 0) {
+            workers = Runtime.getRuntime().availableProcessors();
+        }
+
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("signing-");
+        threadFactory.setDaemon(true);
+        this.executor = new ThreadPoolExecutor(workers, workers, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(queueCapacity), threadFactory, new ThreadPoolExecutor.AbortPolicy());
+
+        Gauge.builder("signing.queue.depth", executor, e -> e.getQueue().size())
+            .description("Signing tasks waiting for a worker")
+            .register(meterRegistry);
+        Gauge.builder("signing.workers.active", executor, ThreadPoolExecutor::getActiveCount)
+            .description("Workers busy with signing tasks")
+            .register(meterRegistry);
+        this.queueWait = Timer.builder("signing.queue.wait")
+            .description("Time signing tasks spent in queue")
+            .publishPercentileHistogram()
+            .register(meterRegistry);
+        this.rejected = Counter.builder("signing.rejected")
+            .description("Signing tasks rejected because the queue was full")
+            .register(meterRegistry);
+
+        log.info("Signing scheduler: {} workers, queue capacity {}", workers, queueCapacity);
+    }
+
+    /**
+     * Runs task on a signing worker. A cancelled task is removed from the queue, or skipped if a worker
+     * has already taken it.
+     *
+     * @return task result, signalled on the worker thread; {@link SigningRejectedException} if queue is full
+     */
+    public <T> Mono<T> execute(Callable<T> task) {
+        return Mono.create(sink -> {
+            long submitted = System.nanoTime();
+            AtomicBoolean cancelled = new AtomicBoolean();
+            Runnable runnable = () -> {
+                queueWait.record(System.nanoTime() - submitted, TimeUnit.NANOSECONDS);
+                if (cancelled.get()) {
+                    return;
+                }
+                try {
+                    sink.success(task.call());
+                } catch (Exception e) {
+                    sink.error(e);
+                }
+            };
+            sink.onCancel(() -> {
+                cancelled.set(true);
+                executor.remove(runnable);
+            });
+            try {
+                executor.execute(runnable);
+            } catch (RejectedExecutionException e) {
+                rejected.increment();
+                sink.error(new SigningRejectedException(e));
+            }
+        });
+    }
+
+    @Override
+    public void destroy() {
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,68 @@
+package dev.sb.services;
+
+import dev.sb.services.signing.ReloadableKeyTool;
+import lombok.extern.slf4j.Slf4j;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.PrivateKey;
+import java.security.Security;
+import java.util.stream.Stream;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+/**
+ * Startup time of the default and the 'fast-start' configuration, logged for comparison.
+ * Contexts are started in a JVM that already loaded their classes, so the times compare
+ * the work done by the configurations rather than cold starts.
+ */
+@Slf4j
+public class StartupTimeTest {
+
+    @BeforeAll
+    public static void setup() {
+        Security.addProvider(new BouncyCastleProvider());
+    }
+
+    @Test
+    @DisplayName("fast start: signing key decrypted once and cached, then read from the cache")
+    public void fastStart(@TempDir Path keyCache) throws IOException {
+        // loads the classes, so that the measured starts are comparable
+        start("warm-up", "--server.port=0");
+
+        PrivateKey defaultKey = start("default", "--server.port=0");
+        try (Stream<Path> files = Files.list(keyCache)) {
+            assertThat(files.count(), is(0L));
+        }
+
+        String[] fastStart = {"--server.port=0", "--spring.profiles.include=fast-start",
+            "--application.signing.key-cache.directory=" + keyCache};
+        PrivateKey decryptedKey = start("fast start, key decrypted", fastStart);
+        try (Stream<Path> files = Files.list(keyCache)) {
+            assertThat(files.count(), is(1L));
+        }
+        PrivateKey cachedKey = start("fast start, key cached", fastStart);
+
+        assertThat(decryptedKey, is(defaultKey));
+        assertThat(cachedKey, is(defaultKey));
+    }
+
+    private static PrivateKey start(String name, String... args) {
+        long start = System.nanoTime();
+        try (ConfigurableApplicationContext context = new SpringApplicationBuilder(HttpSigningProxyApplication.class)
+            .profiles("test")
+            .run(args)) {
+            log.info("Startup time ({}): {} ms", name, (System.nanoTime() - start) / 1_000_000);
+            return context.getBean(ReloadableKeyTool.class).readPrivateKey();
+        }
+    }
+}
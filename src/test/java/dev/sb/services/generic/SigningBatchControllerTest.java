@@ -0,0 +1,97 @@
+package dev.sb.services.generic;
+
+import dev.sb.services.HttpSigningProxyApplication;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.test.web.reactive.server.WebTestClient;
+
+import java.security.Security;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.matchesPattern;
+import static org.hamcrest.Matchers.notNullValue;
+
+@ExtendWith(SpringExtension.class)
+@SpringBootTest(classes = HttpSigningProxyApplication.class,
+    webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@ActiveProfiles({"test"})
+public class SigningBatchControllerTest {
+
+    @Autowired
+    private WebTestClient webTestClient;
+
+    @BeforeAll
+    public static void beforeClass() {
+        Security.addProvider(new BouncyCastleProvider());
+    }
+
+    @Test
+    @DisplayName("batch is signed item by item, in order, failed items do not fail the batch")
+    public void signBatch() {
+        String batch = "{\"id\":\"get\",\"method\":\"GET\",\"path\":\"/third-party/api/get\","
+            + "\"headers\":{\"X-COMPANY-REQUEST-ID\":\"1\"}}\n"
+            + "{\"id\":\"post\",\"method\":\"POST\",\"path\":\"/third-party/api/post\","
+            + "\"headers\":{\"Date\":\"Tue, 28 Apr 2020 17:21:39 GMT\"},\"body\":\"{\\\"request\\\":\\\"value\\\"}\"}\n"
+            + "\n"
+            + "{\"id\":\"invalid\",\"path\":\"/third-party/api/get\"}\n"
+            + "{\"id\":\"hashed\",\"method\":\"PUT\",\"path\":\"/third-party/api/put\","
+            + "\"digest\":\"SHA-256=bVR2BHJXhy8kEBxXKbGsLT0dB1qICnZQ1BtN5MaAKwg=\"}\n";
+
+        List<String> results = results(batch);
+
+        assertThat(results, hasSize(4));
+        assertThat(results.get(0), matchesPattern("\\{\"index\":0,\"id\":\"get\",\"date\":\"[^\"]+ GMT\","
+            + "\"signature\":\"keyId=\\\\\"ABC12345\\\\\",algorithm=\\\\\"rsa-sha256\\\\\","
+            + "headers=\\\\\"x-company-request-id date\\\\\",signature=\\\\\".+\\\\\"\"}"));
+        // Date of the item is signed and not returned
+        assertThat(results.get(1), matchesPattern("\\{\"index\":1,\"id\":\"post\","
+            + "\"digest\":\"SHA-256=bVR2BHJXhy8kEBxXKbGsLT0dB1qICnZQ1BtN5MaAKwg=\","
+            + "\"signature\":\".*headers=\\\\\"date digest\\\\\".*\"}"));
+        assertThat(results.get(2), is("{\"index\":2,\"id\":\"invalid\",\"error\":\"method and path are required\"}"));
+        assertThat(results.get(3), matchesPattern("\\{\"index\":3,\"id\":\"hashed\","
+            + "\"date\":\"[^\"]+\",\"digest\":\"SHA-256=bVR2BHJXhy8kEBxXKbGsLT0dB1qICnZQ1BtN5MaAKwg=\",.*"));
+    }
+
+    @Test
+    @DisplayName("large batch keeps the order of items")
+    public void largeBatch() {
+        String batch = IntStream.range(0, 500)
+            .mapToObj(i -> "{\"id\":\"" + i + "\",\"method\":\"GET\",\"path\":\"/third-party/api/get\"}")
+            .collect(Collectors.joining("\n"));
+
+        List<String> results = results(batch);
+
+        assertThat(results, hasSize(500));
+        for (int i = 0; i < 500; i++) {
+            assertThat(results.get(i), matchesPattern("\\{\"index\":" + i + ",\"id\":\"" + i + "\",.*"));
+        }
+    }
+
+    private List<String> results(String batch) {
+        String response = webTestClient.post().uri("/signatures")
+            .contentType(MediaType.parseMediaType(SigningBatchController.APPLICATION_NDJSON_VALUE))
+            .bodyValue(batch)
+            .exchange()
+            .expectStatus().isOk()
+            .expectHeader().contentTypeCompatibleWith(SigningBatchController.APPLICATION_NDJSON_VALUE)
+            .expectBody(String.class)
+            .returnResult()
+            .getResponseBody();
+
+        assertThat(response, is(notNullValue()));
+        return List.of(response.split("\n"));
+    }
+}
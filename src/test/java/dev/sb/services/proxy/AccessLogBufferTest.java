@@ -0,0 +1,79 @@
+package dev.sb.services.proxy;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+
+public class AccessLogBufferTest {
+
+    @Test
+    @DisplayName("entries are taken in order, offers fail while the buffer is full")
+    public void bounded() {
+        AccessLogBuffer buffer = new AccessLogBuffer(3);
+        assertThat(buffer.capacity(), is(4));
+
+        AccessLogEntry[] entries = new AccessLogEntry[5];
+        for (int i = 0; i < entries.length; i++) {
+            entries[i] = entry(i);
+        }
+        for (int i = 0; i < 4; i++) {
+            assertThat(buffer.offer(entries[i]), is(true));
+        }
+        assertThat(buffer.offer(entries[4]), is(false));
+
+        assertThat(buffer.poll(), is(sameInstance(entries[0])));
+        assertThat(buffer.offer(entries[4]), is(true));
+        for (int i = 1; i < 5; i++) {
+            assertThat(buffer.poll(), is(sameInstance(entries[i])));
+        }
+        assertThat(buffer.poll(), is(nullValue()));
+    }
+
+    @Test
+    @DisplayName("entries of concurrent producers are all taken once")
+    public void concurrentProducers() throws InterruptedException {
+        int producers = 4;
+        int perProducer = 10_000;
+        AccessLogBuffer buffer = new AccessLogBuffer(64);
+        ExecutorService executor = Executors.newFixedThreadPool(producers);
+        CountDownLatch done = new CountDownLatch(producers);
+        for (int p = 0; p < producers; p++) {
+            int producer = p;
+            executor.execute(() -> {
+                for (int i = 0; i < perProducer; i++) {
+                    AccessLogEntry entry = entry(producer * perProducer + i);
+                    while (!buffer.offer(entry)) {
+                        Thread.onSpinWait();
+                    }
+                }
+                done.countDown();
+            });
+        }
+
+        Set<String> taken = new HashSet<>();
+        while (taken.size() < producers * perProducer) {
+            AccessLogEntry entry = buffer.poll();
+            if (entry != null) {
+                assertThat(taken.add(entry.getPath()), is(true));
+            }
+        }
+        assertThat(done.await(5, TimeUnit.SECONDS), is(true));
+        assertThat(buffer.poll(), is(nullValue()));
+        executor.shutdown();
+    }
+
+    private static AccessLogEntry entry(int i) {
+        return new AccessLogEntry("GET", "/" + i, System.nanoTime(), 0);
+    }
+}
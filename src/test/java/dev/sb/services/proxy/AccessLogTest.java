@@ -0,0 +1,61 @@
+package dev.sb.services.proxy;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.convert.ApplicationConversionService;
+import org.springframework.boot.test.context.runner.ApplicationContextRunner;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+import reactor.core.publisher.Mono;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+
+public class AccessLogTest {
+
+    private final ApplicationContextRunner contextRunner = new ApplicationContextRunner()
+        // converts '1KB' to DataSize, as in the application
+        .withInitializer(context -> context.getBeanFactory()
+            .setConversionService(ApplicationConversionService.getSharedInstance()))
+        .withBean(ObjectMapper.class)
+        .withBean(MeterRegistry.class, SimpleMeterRegistry::new)
+        .withBean(AccessLog.class)
+        .withPropertyValues("application.access-log.enabled=true");
+
+    @Test
+    @DisplayName("body is not captured by default, updates after the entry is finished are ignored")
+    public void defaults() {
+        contextRunner.run(context -> {
+            AccessLog accessLog = context.getBean(AccessLog.class);
+            MockServerWebExchange exchange = MockServerWebExchange.from(MockServerHttpRequest.post("/api/post").build());
+            DataBuffer body = new DefaultDataBufferFactory()
+                .wrap("{\"request\":\"value\"}".getBytes(StandardCharsets.UTF_8));
+
+            accessLog.filter(exchange, filtered -> Mono.fromRunnable(
+                () -> AccessLogEntry.of(filtered).body(1000, body.readableByteCount(), body)))
+                .block(Duration.ofSeconds(5));
+
+            AccessLogEntry entry = AccessLogEntry.of(exchange);
+            assertThat(entry, is(notNullValue()));
+            assertThat(entry.getBodySize(), is(19L));
+            assertThat(entry.getBody(), is(nullValue()));
+            assertThat(entry.getStatus(), is(200));
+
+            // e.g. signing task of a cancelled request, ending after the entry is handed to the writer
+            entry.signing(1000);
+            entry.digest(1000);
+            assertThat(entry.getSigningMicros(), is(nullValue()));
+            assertThat(entry.getDigestMicros(), is(nullValue()));
+        });
+    }
+}
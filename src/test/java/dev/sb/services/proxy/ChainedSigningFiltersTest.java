@@ -0,0 +1,14 @@
+package dev.sb.services.proxy;
+
+import dev.sb.services.HttpSigningProxyApplication;
+import org.springframework.boot.test.context.SpringBootTest;
+
+/**
+ * Same flow as {@link CloudGatewayConfigurationTest}, but Date, Digest and Signature
+ * are added by three separate filters instead of the fused one.
+ */
+@SpringBootTest(classes = HttpSigningProxyApplication.class,
+    webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+    properties = "application.proxy.fused-signing-filter=false")
+public class ChainedSigningFiltersTest extends CloudGatewayConfigurationTest {
+}
@@ -0,0 +1,39 @@
+package dev.sb.services.proxy;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+public class ClientRateLimiterTest {
+
+    private static final long MILLIS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    @Test
+    @DisplayName("burst is admitted at once, then one request per interval, clients are limited separately")
+    public void rateLimit() {
+        ClientRateLimiter rateLimiter = new ClientRateLimiter(10, 3, 100);
+        long now = System.nanoTime();
+
+        for (int i = 0; i < 3; i++) {
+            assertThat(rateLimiter.tryAcquire("a", now), is(true));
+        }
+        assertThat(rateLimiter.tryAcquire("a", now), is(false));
+        assertThat(rateLimiter.tryAcquire("b", now), is(true));
+
+        // 10 per second: one more after 100 ms
+        assertThat(rateLimiter.tryAcquire("a", now + 50 * MILLIS), is(false));
+        assertThat(rateLimiter.tryAcquire("a", now + 100 * MILLIS), is(true));
+        assertThat(rateLimiter.tryAcquire("a", now + 100 * MILLIS), is(false));
+
+        // idle client gets its whole burst back, not more
+        long later = now + 10_000 * MILLIS;
+        for (int i = 0; i < 3; i++) {
+            assertThat(rateLimiter.tryAcquire("a", later), is(true));
+        }
+        assertThat(rateLimiter.tryAcquire("a", later), is(false));
+    }
+}
@@ -1,9 +1,16 @@
 package dev.sb.services.proxy;
 
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.read.ListAppender;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import dev.sb.services.HttpSigningProxyApplication;
+import dev.sb.services.signing.RequestSigner;
+import dev.sb.services.signing.SigningClock;
 import lombok.extern.slf4j.Slf4j;
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
-import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
@@ -12,25 +19,46 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.TestMethodOrder;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockserver.integration.ClientAndServer;
+import org.mockserver.matchers.Times;
 import org.mockserver.model.HttpRequest;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
 import org.springframework.http.MediaType;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 import org.springframework.test.web.reactive.server.WebTestClient;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.security.Security;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
 
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
 import static org.hamcrest.Matchers.hasItem;
 import static org.hamcrest.Matchers.hasSize;
 import static org.hamcrest.Matchers.is;
 import static org.hamcrest.Matchers.matchesPattern;
 import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.not;
 import static org.mockserver.model.HttpRequest.request;
 import static org.mockserver.model.HttpResponse.response;
 
@@ -50,24 +78,32 @@ public class CloudGatewayConfigurationTest {
     @Autowired
     private WebTestClient webTestClient;
 
-    private ClientAndServer gatewayMockServer;
+    @Autowired
+    private RequestSigner requestSigner;
+
+    @Autowired
+    private SigningClock signingClock;
+
+    private static ClientAndServer gatewayMockServer;
 
     @BeforeAll
     public static void beforeClass() throws IOException {
         // register BC provider
         Security.addProvider(new BouncyCastleProvider());
-    }
-
-    @BeforeEach
-    public void startMockServer() {
+        // restarting the server on the same port for every test is not reliable, so we only reset it
         gatewayMockServer = ClientAndServer.startClientAndServer(22223);
     }
 
-    @AfterEach
-    public void stopMockServer() {
+    @AfterAll
+    public static void afterClass() {
         gatewayMockServer.stop();
     }
 
+    @BeforeEach
+    public void resetMockServer() {
+        gatewayMockServer.reset();
+    }
+
     @Test
     @DisplayName("happy pass GET: HTTP 200")
     public void proxyGetMethod() {
@@ -143,6 +179,667 @@ public class CloudGatewayConfigurationTest {
         assertThat(signature, matchesPattern("keyId=\"ABC12345\",algorithm=\"rsa-sha256\",headers=\"x-company-service-name date digest\",signature=\".*\""));
     }
 
+    @Test
+    @DisplayName("POST with body above spool threshold: HTTP 201")
+    public void proxyPostMethodSpooledBody() throws NoSuchAlgorithmException {
+        gatewayMockServer
+            .when(request()
+                .withMethod("POST")
+                .withPath("/third-party/api/upload"))
+            .respond(response()
+                .withStatusCode(201));
+
+        // above 1KB threshold configured for tests
+        byte[] requestBody = new byte[64 * 1024];
+        new Random(42).nextBytes(requestBody);
+
+        webTestClient.post().uri("/api/upload")
+            .contentType(MediaType.APPLICATION_OCTET_STREAM)
+            .bodyValue(requestBody)
+            .exchange()
+            .expectStatus().isCreated();
+
+        HttpRequest[] httpRequests = gatewayMockServer.retrieveRecordedRequests(request().withMethod("POST"));
+        assertThat(httpRequests, is(notNullValue()));
+
+        HttpRequest httpRequest = httpRequests[0];
+        assertThat(httpRequest.getBodyAsRawBytes(), is(requestBody));
+
+        String expectedDigest = "SHA-256=" + Base64.getEncoder()
+            .encodeToString(MessageDigest.getInstance("SHA-256").digest(requestBody));
+        assertThat(httpRequest.getHeader(ProxyHeaders.DIGEST).get(0), is(expectedDigest));
+        String signature = httpRequest.getHeader(ProxyHeaders.SIGNATURE).get(0);
+        assertThat(signature, matchesPattern("keyId=\"ABC12345\",algorithm=\"rsa-sha256\",headers=\"x-company-service-name date digest\",signature=\".*\""));
+    }
+
+    @Test
+    @DisplayName("compressed route: JSON body sent gzip-compressed, Digest of the compressed bytes")
+    public void compressedRoute() throws Exception {
+        gatewayMockServer
+            .when(request().withMethod("POST").withPath("/compressed/api/post"))
+            .respond(response().withStatusCode(201));
+
+        String json = "{\"items\":[" + "{\"name\":\"value\"},".repeat(200) + "{}]}";
+        webTestClient.post().uri("/compressed/post")
+            .contentType(MediaType.APPLICATION_JSON)
+            .bodyValue(json)
+            .exchange()
+            .expectStatus().isCreated();
+
+        // mock server decodes the body, Digest shows what was sent: the body compressed as the JDK compresses it
+        ByteArrayOutputStream gzip = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(gzip)) {
+            out.write(json.getBytes(StandardCharsets.UTF_8));
+        }
+        String expectedDigest = "SHA-256=" + Base64.getEncoder()
+            .encodeToString(MessageDigest.getInstance("SHA-256").digest(gzip.toByteArray()));
+
+        HttpRequest httpRequest = gatewayMockServer.retrieveRecordedRequests(request().withPath("/compressed/api/post"))[0];
+        assertThat(httpRequest.getBodyAsString(), is(json));
+        assertThat(httpRequest.getFirstHeader(ProxyHeaders.DIGEST), is(expectedDigest));
+    }
+
+    @Test
+    @DisplayName("compressed route, chunked bodies: spooled and compressed from min-size, Digest of the bytes sent")
+    public void compressedRouteChunkedBody() throws Exception {
+        gatewayMockServer
+            .when(request().withMethod("POST").withPath("/compressed/api/chunked"))
+            .respond(response().withStatusCode(201));
+
+        String json = "{\"items\":[" + "{\"name\":\"value\"},".repeat(200) + "{}]}";
+        String small = "{\"name\":\"value\"}";
+        for (String body : List.of(json, small)) {
+            byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+            // several buffers of unknown length: sent chunked, spooled by the proxy
+            Flux<DataBuffer> chunks = Flux.range(0, (bytes.length + 255) / 256)
+                .map(i -> new DefaultDataBufferFactory()
+                    .wrap(ByteBuffer.wrap(bytes, i * 256, Math.min(256, bytes.length - i * 256))));
+            webTestClient.post().uri("/compressed/chunked")
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(chunks, DataBuffer.class)
+                .exchange()
+                .expectStatus().isCreated();
+        }
+
+        HttpRequest[] httpRequests = gatewayMockServer.retrieveRecordedRequests(
+            request().withPath("/compressed/api/chunked"));
+        assertThat(httpRequests.length, is(2));
+
+        ByteArrayOutputStream gzip = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(gzip)) {
+            out.write(json.getBytes(StandardCharsets.UTF_8));
+        }
+        // mock server decodes the body, Digest shows what was sent
+        assertThat(httpRequests[0].getBodyAsString(), is(json));
+        assertThat(httpRequests[0].getFirstHeader(ProxyHeaders.DIGEST), is("SHA-256=" + Base64.getEncoder()
+            .encodeToString(MessageDigest.getInstance("SHA-256").digest(gzip.toByteArray()))));
+
+        // below min-size (1KB): sent as received
+        assertThat(httpRequests[1].getBodyAsString(), is(small));
+        assertThat(httpRequests[1].getFirstHeader(ProxyHeaders.DIGEST), is("SHA-256=" + Base64.getEncoder()
+            .encodeToString(MessageDigest.getInstance("SHA-256").digest(small.getBytes(StandardCharsets.UTF_8)))));
+    }
+
+    @Test
+    @DisplayName("partner route: own upstream path, key and signed headers")
+    public void proxyPartnerRoute() {
+        gatewayMockServer
+            .when(request()
+                .withMethod("PATCH")
+                .withPath("/partner/api/items/42"))
+            .respond(response()
+                .withStatusCode(204));
+
+        webTestClient.patch().uri("/partner/items/42")
+            .header("X-PARTNER-ID", "42")
+            .contentType(MediaType.APPLICATION_JSON)
+            .bodyValue("{\"request\":\"value\"}")
+            .exchange()
+            .expectStatus().isNoContent();
+
+        HttpRequest[] httpRequests = gatewayMockServer.retrieveRecordedRequests(request().withMethod("PATCH"));
+        assertThat(httpRequests, is(notNullValue()));
+
+        HttpRequest httpRequest = httpRequests[0];
+        // PATCH is digested on this route only
+        assertThat(httpRequest.getHeader(ProxyHeaders.DIGEST).get(0),
+            is("SHA-256=bVR2BHJXhy8kEBxXKbGsLT0dB1qICnZQ1BtN5MaAKwg="));
+        String signature = httpRequest.getHeader(ProxyHeaders.SIGNATURE).get(0);
+        assertThat(signature, matchesPattern("keyId=\"PARTNER-KEY\",algorithm=\"rsa-sha256\",headers=\"x-partner-id date digest\",signature=\".*\""));
+    }
+
+    @Test
+    @DisplayName("RFC 9421 route: Content-Digest, Signature-Input and Signature headers")
+    public void proxyRfc9421Route() {
+        gatewayMockServer
+            .when(request()
+                .withMethod("POST")
+                .withPath("/partner-rfc/api/items"))
+            .respond(response()
+                .withStatusCode(201));
+
+        webTestClient.post().uri("/partner-rfc/items")
+            .contentType(MediaType.APPLICATION_JSON)
+            .bodyValue("{\"request\":\"value\"}")
+            .exchange()
+            .expectStatus().isCreated();
+
+        HttpRequest[] httpRequests = gatewayMockServer.retrieveRecordedRequests(request().withMethod("POST"));
+        assertThat(httpRequests, is(notNullValue()));
+
+        HttpRequest httpRequest = httpRequests[0];
+        assertThat(httpRequest.getHeader(ProxyHeaders.CONTENT_DIGEST).get(0),
+            is("sha-256=:bVR2BHJXhy8kEBxXKbGsLT0dB1qICnZQ1BtN5MaAKwg=:"));
+        assertThat(httpRequest.getHeader(ProxyHeaders.SIGNATURE_INPUT).get(0),
+            matchesPattern("sig1=\\(\"@method\" \"@target-uri\" \"@authority\" \"content-digest\" \"content-type\"\\)"
+                + ";created=\\d+;keyid=\"PARTNER-KEY\";alg=\"rsa-v1_5-sha256\""));
+        assertThat(httpRequest.getHeader(ProxyHeaders.SIGNATURE).get(0), matchesPattern("sig1=:.+:"));
+        // no Date or Digest in this format
+        assertThat(httpRequest.getHeader(ProxyHeaders.DIGEST), hasSize(0));
+    }
+
+    @Test
+    @DisplayName("verifying route: signed request is passed, tampered, unsigned and replayed ones are rejected")
+    public void verifyingRoute() {
+        gatewayMockServer
+            .when(request()
+                .withMethod("POST")
+                .withPath("/callbacks/api/events"))
+            .respond(response()
+                .withStatusCode(201));
+
+        String body = "{\"event\":\"paid\"}";
+        Map<String, String> headers = new LinkedHashMap<>();
+        headers.put("X-COMPANY-EVENT-ID", "42");
+        headers.put("Date", signingClock.httpDate());
+        headers.put("Digest", requestSigner.createDigest(body));
+        headers.put("Signature", requestSigner.createSignature("POST", "/callbacks/events", headers));
+
+        webTestClient.post().uri("/callbacks/events")
+            .headers(h -> h.setAll(headers))
+            .contentType(MediaType.APPLICATION_JSON)
+            .bodyValue(body)
+            .exchange()
+            .expectStatus().isCreated();
+
+        // the same signature again
+        webTestClient.post().uri("/callbacks/events")
+            .headers(h -> h.setAll(headers))
+            .contentType(MediaType.APPLICATION_JSON)
+            .bodyValue(body)
+            .exchange()
+            .expectStatus().isUnauthorized();
+
+        headers.put("X-COMPANY-EVENT-ID", "43");
+        headers.put("Signature", requestSigner.createSignature("POST", "/callbacks/events", headers));
+        webTestClient.post().uri("/callbacks/events")
+            .headers(h -> h.setAll(headers))
+            .contentType(MediaType.APPLICATION_JSON)
+            .bodyValue("{\"event\":\"refunded\"}")
+            .exchange()
+            .expectStatus().isUnauthorized();
+
+        webTestClient.post().uri("/callbacks/events")
+            .contentType(MediaType.APPLICATION_JSON)
+            .bodyValue(body)
+            .exchange()
+            .expectStatus().isUnauthorized();
+
+        HttpRequest[] httpRequests = gatewayMockServer.retrieveRecordedRequests(request().withMethod("POST"));
+        assertThat(httpRequests.length, is(1));
+        assertThat(httpRequests[0].getFirstHeader("X-COMPANY-EVENT-ID"), is("42"));
+    }
+
+    @Test
+    @DisplayName("verifying route: PATCH body is digested too, a tampered body is rejected")
+    public void verifyingRouteTamperedPatch() {
+        gatewayMockServer
+            .when(request()
+                .withMethod("PATCH")
+                .withPath("/callbacks/api/events/42"))
+            .respond(response()
+                .withStatusCode(204));
+
+        String body = "{\"event\":\"paid\"}";
+        Map<String, String> headers = new LinkedHashMap<>();
+        headers.put("Date", signingClock.httpDate());
+        headers.put("Digest", requestSigner.createDigest(body));
+        headers.put("Signature", requestSigner.createSignature("PATCH", "/callbacks/events/42", headers));
+
+        // PATCH is not one of digest-methods, the signed Digest is still compared with the body
+        webTestClient.patch().uri("/callbacks/events/42")
+            .headers(h -> h.setAll(headers))
+            .contentType(MediaType.APPLICATION_JSON)
+            .bodyValue("{\"event\":\"refunded\"}")
+            .exchange()
+            .expectStatus().isUnauthorized();
+
+        webTestClient.patch().uri("/callbacks/events/42")
+            .headers(h -> h.setAll(headers))
+            .contentType(MediaType.APPLICATION_JSON)
+            .bodyValue(body)
+            .exchange()
+            .expectStatus().isNoContent();
+
+        HttpRequest[] httpRequests = gatewayMockServer.retrieveRecordedRequests(request().withMethod("PATCH"));
+        assertThat(httpRequests.length, is(1));
+        assertThat(httpRequests[0].getBodyAsString(), is(body));
+    }
+
+    @Test
+    @DisplayName("signed upstream response is passed, unsigned, tampered and undigested ones are rejected")
+    public void responseVerification() {
+        String body = "{\"response\":\"value\"}";
+        Map<String, String> headers = new LinkedHashMap<>();
+        headers.put("Date", signingClock.httpDate());
+        headers.put("Digest", requestSigner.createDigest(body));
+        headers.put("Signature", requestSigner.createSignature("GET", "/signed-responses/api/get", headers));
+
+        gatewayMockServer
+            .when(request()
+                .withMethod("GET")
+                .withPath("/signed-responses/api/get"))
+            .respond(response()
+                .withHeader("Date", headers.get("Date"))
+                .withHeader("Digest", headers.get("Digest"))
+                .withHeader("Signature", headers.get("Signature"))
+                .withBody(body)
+                .withStatusCode(200));
+        gatewayMockServer
+            .when(request()
+                .withMethod("GET")
+                .withPath("/signed-responses/api/unsigned"))
+            .respond(response()
+                .withBody(body)
+                .withStatusCode(200));
+        gatewayMockServer
+            .when(request()
+                .withMethod("GET")
+                .withPath("/signed-responses/api/tampered"))
+            .respond(response()
+                .withHeader("Date", headers.get("Date"))
+                .withHeader("Digest", headers.get("Digest"))
+                .withHeader("Signature", headers.get("Signature"))
+                .withBody("{\"response\":\"other\"}")
+                .withStatusCode(200));
+        Map<String, String> undigested = new LinkedHashMap<>();
+        undigested.put("Date", headers.get("Date"));
+        undigested.put("Signature", requestSigner.createSignature("GET", "/signed-responses/api/undigested",
+            undigested));
+        gatewayMockServer
+            .when(request()
+                .withMethod("GET")
+                .withPath("/signed-responses/api/undigested"))
+            .respond(response()
+                .withHeader("Date", undigested.get("Date"))
+                .withHeader("Signature", undigested.get("Signature"))
+                .withBody(body)
+                .withStatusCode(200));
+
+        webTestClient.get().uri("/signed-responses/get")
+            .exchange()
+            .expectStatus().isOk()
+            .expectBody(String.class).isEqualTo(body);
+
+        webTestClient.get().uri("/signed-responses/unsigned")
+            .exchange()
+            .expectStatus().isEqualTo(502);
+
+        // signature is valid, the body is not: the body (a single buffer) is held back and replaced
+        webTestClient.get().uri("/signed-responses/tampered")
+            .exchange()
+            .expectStatus().isEqualTo(502)
+            .expectBody(String.class).value(not(containsString("other")));
+
+        // signature is valid but does not cover the body: rejected before any of it is written
+        webTestClient.get().uri("/signed-responses/undigested")
+            .exchange()
+            .expectStatus().isEqualTo(502)
+            .expectBody(String.class).value(not(containsString("value")));
+    }
+
+    @Test
+    @DisplayName("balanced route: requests are spread over instances, Host is the route's, instances are listed")
+    public void balancedRoute() {
+        gatewayMockServer
+            .when(request()
+                .withMethod("GET")
+                .withPath("/balanced/api/get")
+                .withHeader("Host", "partner.example.com:22223")
+                .withHeader("Signature"))
+            .respond(response()
+                .withStatusCode(200));
+
+        for (int i = 0; i < 4; i++) {
+            webTestClient.get().uri("/balanced/get")
+                .exchange()
+                .expectStatus().isOk();
+        }
+
+        webTestClient.get().uri("/actuator/upstreams")
+            .exchange()
+            .expectStatus().isOk()
+            .expectBody()
+            .jsonPath("$.balanced_route.strategy").isEqualTo("least-outstanding")
+            .jsonPath("$.balanced_route.instances[*].uri")
+            .value(hasItem("http://127.0.0.1:22223"))
+            .jsonPath("$.balanced_route.instances[0].healthy").isEqualTo(true)
+            .jsonPath("$.balanced_route.instances[0].outstanding").isEqualTo(0)
+            .jsonPath("$.balanced_route.instances[*].requests")
+            .value(requests -> assertThat(((List<?>) requests).stream()
+                .mapToInt(count -> ((Number) count).intValue()).sum(), is(4)));
+    }
+
+    @Test
+    @DisplayName("retried and hedged GET: attempts are sent with the signature of the first one")
+    public void retriedRoute() {
+        gatewayMockServer
+            .when(request().withMethod("GET").withPath("/retried/api/flaky"), Times.once())
+            .respond(response().withStatusCode(503));
+        gatewayMockServer
+            .when(request().withMethod("GET").withPath("/retried/api/flaky"))
+            .respond(response().withStatusCode(200).withBody("retried"));
+        gatewayMockServer
+            .when(request().withMethod("GET").withPath("/retried/api/slow"), Times.once())
+            .respond(response().withStatusCode(200).withBody("slow").withDelay(TimeUnit.SECONDS, 5));
+        gatewayMockServer
+            .when(request().withMethod("GET").withPath("/retried/api/slow"))
+            .respond(response().withStatusCode(200).withBody("hedged"));
+
+        webTestClient.get().uri("/retried/flaky")
+            .exchange()
+            .expectStatus().isOk()
+            .expectBody(String.class).isEqualTo("retried");
+
+        long start = System.nanoTime();
+        webTestClient.get().uri("/retried/slow")
+            .exchange()
+            .expectStatus().isOk()
+            .expectBody(String.class).isEqualTo("hedged");
+        assertThat(TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start) < 5, is(true));
+
+        for (String path : List.of("/retried/api/flaky", "/retried/api/slow")) {
+            HttpRequest[] httpRequests = gatewayMockServer.retrieveRecordedRequests(request().withPath(path));
+            assertThat(httpRequests.length, is(2));
+            assertThat(httpRequests[1].getFirstHeader("Signature"), is(httpRequests[0].getFirstHeader("Signature")));
+            assertThat(httpRequests[1].getFirstHeader("Date"), is(httpRequests[0].getFirstHeader("Date")));
+        }
+    }
+
+    @Test
+    @DisplayName("hedged GET won by the first attempt: the cancelled copy leaves no latency sample on its instance")
+    public void hedgedRoute() {
+        gatewayMockServer
+            .when(request().withMethod("GET").withPath("/hedged/api/get"), Times.once())
+            .respond(response().withStatusCode(200).withBody("first").withDelay(TimeUnit.MILLISECONDS, 600));
+        gatewayMockServer
+            .when(request().withMethod("GET").withPath("/hedged/api/get"))
+            .respond(response().withStatusCode(200).withBody("hedged").withDelay(TimeUnit.SECONDS, 5));
+
+        webTestClient.get().uri("/hedged/get")
+            .exchange()
+            .expectStatus().isOk()
+            .expectBody(String.class).isEqualTo("first");
+
+        webTestClient.get().uri("/actuator/upstreams")
+            .exchange()
+            .expectStatus().isOk()
+            .expectBody()
+            .jsonPath("$.hedged_route.instances[*].outstanding").value(is(List.of(0, 0)))
+            .jsonPath("$.hedged_route.instances[*].latencyMillis")
+            .value(latencies -> assertThat(((List<?>) latencies).stream()
+                .filter(latency -> ((Number) latency).doubleValue() > 0).count(), is(1L)));
+    }
+
+    @Test
+    @DisplayName("hedged GET won by the copy: the 503 of the first attempt is a failure of its own instance")
+    public void hedgedRouteFirstAttemptFailed() {
+        gatewayMockServer
+            .when(request().withMethod("GET").withPath("/hedged/api/unavailable"), Times.once())
+            .respond(response().withStatusCode(503));
+        gatewayMockServer
+            .when(request().withMethod("GET").withPath("/hedged/api/unavailable"))
+            .respond(response().withStatusCode(200).withBody("hedged"));
+        long failures = upstreamsTotal("hedged_route", "failures");
+        long requests = upstreamsTotal("hedged_route", "requests");
+
+        webTestClient.get().uri("/hedged/unavailable")
+            .exchange()
+            .expectStatus().isOk()
+            .expectBody(String.class).isEqualTo("hedged");
+
+        assertThat(upstreamsTotal("hedged_route", "failures"), is(failures + 1));
+        assertThat(upstreamsTotal("hedged_route", "requests"), is(requests + 2));
+        assertThat(upstreamsTotal("hedged_route", "outstanding"), is(0L));
+    }
+
+    /** Sum of a field of the route's instances in the upstreams actuator */
+    private long upstreamsTotal(String routeId, String field) {
+        List<Number> values = new ArrayList<>();
+        webTestClient.get().uri("/actuator/upstreams")
+            .exchange()
+            .expectStatus().isOk()
+            .expectBody()
+            .jsonPath("$." + routeId + ".instances[*]." + field)
+            .value(found -> ((List<?>) found).forEach(value -> values.add((Number) value)));
+        return values.stream().mapToLong(Number::longValue).sum();
+    }
+
+    @Test
+    @DisplayName("client over its rate: HTTP 429 before the request is signed, other clients are admitted")
+    public void limitedRoute() {
+        gatewayMockServer
+            .when(request().withMethod("POST").withPath("/limited/api/post"))
+            .respond(response().withStatusCode(201));
+
+        for (int i = 0; i < 2; i++) {
+            webTestClient.post().uri("/limited/post")
+                .header("X-COMPANY-CLIENT-ID", "greedy")
+                .bodyValue("{\"request\":\"value\"}")
+                .exchange()
+                .expectStatus().isCreated();
+        }
+        webTestClient.post().uri("/limited/post")
+            .header("X-COMPANY-CLIENT-ID", "greedy")
+            .bodyValue("{\"request\":\"value\"}")
+            .exchange()
+            .expectStatus().isEqualTo(429);
+        webTestClient.post().uri("/limited/post")
+            .header("X-COMPANY-CLIENT-ID", "polite")
+            .bodyValue("{\"request\":\"value\"}")
+            .exchange()
+            .expectStatus().isCreated();
+
+        HttpRequest[] httpRequests = gatewayMockServer.retrieveRecordedRequests(request().withPath("/limited/api/post"));
+        assertThat(httpRequests.length, is(3));
+    }
+
+    @Test
+    @DisplayName("route with its own pool: signed body sent over the pool, pool metrics scraped by Prometheus")
+    public void pooledRoute() {
+        gatewayMockServer
+            .when(request().withMethod("POST").withPath("/pooled/api/post"))
+            .respond(response().withStatusCode(201).withBody("pooled"));
+
+        for (int i = 0; i < 3; i++) {
+            webTestClient.post().uri("/pooled/post")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue("{\"request\":\"value\"}")
+                .exchange()
+                .expectStatus().isCreated()
+                .expectBody(String.class).isEqualTo("pooled");
+        }
+
+        HttpRequest[] httpRequests = gatewayMockServer.retrieveRecordedRequests(request().withPath("/pooled/api/post"));
+        assertThat(httpRequests.length, is(3));
+        assertThat(httpRequests[0].getBodyAsString(), is("{\"request\":\"value\"}"));
+        assertThat(httpRequests[0].getFirstHeader("Signature"), is(notNullValue()));
+
+        String metrics = webTestClient.get().uri("/actuator/prometheus")
+            .exchange()
+            .expectStatus().isOk()
+            .expectBody(String.class)
+            .returnResult()
+            .getResponseBody();
+
+        assertThat(metrics, is(notNullValue()));
+        assertThat(metrics, containsString("proxy_upstream_pool_acquire_seconds_count{route=\"pooled_route\",} 3.0"));
+        assertThat(metrics, containsString("proxy_upstream_pool_pending{route=\"pooled_route\",} 0.0"));
+        assertThat(metrics, containsString("reactor_netty_connection_provider_upstream_pooled_route_active_connections"));
+    }
+
+    @Test
+    @DisplayName("cached GET: fresh response served without upstream, stale one revalidated with If-None-Match")
+    public void cachedRoute() {
+        gatewayMockServer
+            .when(request().withMethod("GET").withPath("/cached/api/reference"))
+            .respond(response().withStatusCode(200).withBody("reference")
+                .withHeader("Cache-Control", "max-age=60"));
+        gatewayMockServer
+            .when(request().withMethod("GET").withPath("/cached/api/tagged").withHeader("If-None-Match", "\"v1\""))
+            .respond(response().withStatusCode(304).withHeader("ETag", "\"v1\""));
+        gatewayMockServer
+            .when(request().withMethod("GET").withPath("/cached/api/tagged"))
+            .respond(response().withStatusCode(200).withBody("tagged")
+                .withHeader("Cache-Control", "no-cache").withHeader("ETag", "\"v1\""));
+
+        for (int i = 0; i < 2; i++) {
+            webTestClient.get().uri("/cached/reference")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(String.class).isEqualTo("reference");
+            webTestClient.get().uri("/cached/tagged")
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().valueEquals("ETag", "\"v1\"")
+                .expectBody(String.class).isEqualTo("tagged");
+        }
+
+        assertThat(gatewayMockServer.retrieveRecordedRequests(request().withPath("/cached/api/reference")).length,
+            is(1));
+        HttpRequest[] tagged = gatewayMockServer.retrieveRecordedRequests(request().withPath("/cached/api/tagged"));
+        assertThat(tagged.length, is(2));
+        assertThat(tagged[0].containsHeader("If-None-Match"), is(false));
+        assertThat(tagged[1].getFirstHeader("If-None-Match"), is("\"v1\""));
+        assertThat(tagged[1].getFirstHeader("Signature"), is(notNullValue()));
+    }
+
+    @Test
+    @DisplayName("cached GET: clients with different identity headers do not share an entry")
+    public void cachedRoutePerClient() {
+        gatewayMockServer
+            .when(request().withMethod("GET").withPath("/cached/api/profile").withHeader("X-COMPANY-CLIENT-ID", "first"))
+            .respond(response().withStatusCode(200).withBody("first").withHeader("Cache-Control", "max-age=60"));
+        gatewayMockServer
+            .when(request().withMethod("GET").withPath("/cached/api/profile").withHeader("X-COMPANY-CLIENT-ID", "second"))
+            .respond(response().withStatusCode(200).withBody("second").withHeader("Cache-Control", "max-age=60"));
+
+        for (String client : List.of("first", "second", "first", "second")) {
+            webTestClient.get().uri("/cached/profile")
+                .header("X-COMPANY-CLIENT-ID", client)
+                .header(ProxyHeaders.X_COMPANY_REQUEST_ID, UUID.randomUUID().toString())
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(String.class).isEqualTo(client);
+        }
+
+        // once per client, repeated requests with another request id are served from the cache
+        assertThat(gatewayMockServer.retrieveRecordedRequests(request().withPath("/cached/api/profile")).length,
+            is(2));
+    }
+
+    @Test
+    @DisplayName("stage latencies are scraped by Prometheus")
+    public void stageMetrics() {
+        gatewayMockServer
+            .when(request()
+                .withMethod("POST")
+                .withPath("/third-party/api/post"))
+            .respond(response()
+                .withStatusCode(201));
+
+        webTestClient.post().uri("/api/post")
+            .contentType(MediaType.APPLICATION_JSON)
+            .bodyValue("{\"request\":\"value\"}")
+            .exchange()
+            .expectStatus().isCreated();
+
+        String metrics = webTestClient.get().uri("/actuator/prometheus")
+            .exchange()
+            .expectStatus().isOk()
+            .expectBody(String.class)
+            .returnResult()
+            .getResponseBody();
+
+        assertThat(metrics, is(notNullValue()));
+        for (String stage : List.of("body", "digest", "signing", "upstream")) {
+            assertThat(metrics, containsString("proxy_stage_seconds_count{stage=\"" + stage + "\",}"));
+        }
+        assertThat(metrics, containsString("proxy_request_body_size_bytes_count"));
+        assertThat(metrics, containsString("proxy_signing_failures_total{exception=\"RequestSignerException\",}"));
+    }
+
+    @Test
+    @DisplayName("access log: JSON line with route, upstream, status, body size, stage timings and the capped body")
+    public void accessLog() throws Exception {
+        gatewayMockServer
+            .when(request()
+                .withMethod("POST")
+                .withPath("/third-party/api/logged"))
+            .respond(response()
+                .withStatusCode(201));
+        ListAppender<ILoggingEvent> appender = new ListAppender<>();
+        appender.start();
+        Logger accessLogger = (Logger) LoggerFactory.getLogger("access");
+        accessLogger.addAppender(appender);
+
+        String body = "{\"request\":\"" + "value".repeat(20) + "\"}";
+        JsonNode entry;
+        try {
+            webTestClient.post().uri("/api/logged")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(body)
+                .exchange()
+                .expectStatus().isCreated();
+            entry = accessLogEntry(appender, "/api/logged");
+        } finally {
+            accessLogger.detachAppender(appender);
+        }
+
+        assertThat(entry.path("method").asText(), is("POST"));
+        assertThat(entry.path("route").asText(), is("signing_route"));
+        assertThat(entry.path("upstream").asText(), is("http://localhost:22223"));
+        assertThat(entry.path("status").asInt(), is(201));
+        assertThat(entry.path("bodySize").asInt(), is(body.length()));
+        for (String stage : List.of("bodyMicros", "digestMicros", "signingMicros", "upstreamMicros", "totalMicros")) {
+            assertThat(stage, entry.has(stage), is(true));
+        }
+        assertThat(entry.has("verificationMicros"), is(false));
+        // body-capture.max-size of the test profile
+        assertThat(entry.path("body").asText(), is(body.substring(0, 64)));
+    }
+
+    /** Waits for the writer thread to log the entry of the path */
+    private static JsonNode accessLogEntry(ListAppender<ILoggingEvent> appender, String path) throws Exception {
+        ObjectMapper objectMapper = new ObjectMapper();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (System.nanoTime() - deadline < 0) {
+            List<ILoggingEvent> events;
+            // appended under the appender's lock
+            synchronized (appender) {
+                events = new ArrayList<>(appender.list);
+            }
+            for (ILoggingEvent event : events) {
+                JsonNode entry = objectMapper.readTree(event.getFormattedMessage());
+                if (path.equals(entry.path("path").asText())) {
+                    return entry;
+                }
+            }
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+        throw new AssertionError("No access log entry of " + path);
+    }
+
     @Test
     @DisplayName("non existent route: HTTP 404")
     public void nonexistentRoute() {
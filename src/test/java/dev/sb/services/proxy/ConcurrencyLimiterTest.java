@@ -0,0 +1,70 @@
+package dev.sb.services.proxy;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+public class ConcurrencyLimiterTest {
+
+    private static final long FAST = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final long SLOW = TimeUnit.SECONDS.toNanos(5);
+
+    @Test
+    @DisplayName("requests over the limit are rejected, limit grows while fast and backs off when slow or failing")
+    public void aimd() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(4, 2, 5, 0.5, Duration.ofSeconds(1));
+        long start = System.nanoTime();
+
+        for (int i = 0; i < 4; i++) {
+            assertThat(limiter.tryAcquire(), is(true));
+        }
+        assertThat(limiter.tryAcquire(), is(false));
+
+        // busy route, fast responses: additive increase up to max
+        limiter.release(start, start + FAST, false);
+        assertThat(limiter.getLimit(), is(5));
+        limiter.release(start, start + FAST, false);
+        assertThat(limiter.getLimit(), is(5));
+
+        // multiplicative decrease down to min
+        limiter.release(start, start + SLOW, false);
+        assertThat(limiter.getLimit(), is(2));
+        long next = start + SLOW + FAST;
+        assertThat(limiter.tryAcquire(), is(true));
+        limiter.release(next, next + FAST, true);
+        assertThat(limiter.getLimit(), is(2));
+        assertThat(limiter.getInFlight(), is(1));
+
+        limiter.release();
+        assertThat(limiter.getInFlight(), is(0));
+        assertThat(limiter.getLimit(), is(2));
+    }
+
+    @Test
+    @DisplayName("requests in flight at a decrease do not cut the limit again, later ones do")
+    public void oneDecreasePerWindow() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(100, 10, 1000, 0.5, Duration.ofSeconds(1));
+        long start = System.nanoTime();
+
+        for (int i = 0; i < 10; i++) {
+            assertThat(limiter.tryAcquire(), is(true));
+        }
+        // a burst of slow and failed responses to requests admitted together
+        for (int i = 0; i < 10; i++) {
+            limiter.release(start, start + SLOW + i, i % 2 == 0);
+        }
+        assertThat(limiter.getLimit(), is(50));
+
+        // admitted after the decrease
+        long next = start + 2 * SLOW;
+        assertThat(limiter.tryAcquire(), is(true));
+        limiter.release(next, next + SLOW, false);
+        assertThat(limiter.getLimit(), is(25));
+        assertThat(limiter.getInFlight(), is(0));
+    }
+}
@@ -0,0 +1,84 @@
+package dev.sb.services.proxy;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.cloud.gateway.support.ServerWebExchangeUtils;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+
+public class LoadBalancingGatewayFilterTest {
+
+    private static final URI ROUTE_URI = URI.create("http://upstream:8080");
+
+    @Test
+    @DisplayName("latency is recorded when the response headers are received, not after the body is written")
+    public void latencyToResponseHeaders() {
+        UpstreamBalancer balancer = new UpstreamBalancer("route", List.of("http://a:8080"),
+            new ProxyRoutesProperties.Balancer());
+        LoadBalancingGatewayFilter filter = new LoadBalancingGatewayFilter(balancer, ROUTE_URI);
+
+        // headers after 50ms, then a body written for 1s (as NettyWriteResponseFilter does after the chain)
+        filter.filter(exchange(), exchange -> Mono.delay(Duration.ofMillis(50)).then())
+            .then(Mono.fromRunnable(() -> LockSupport.parkNanos(Duration.ofSeconds(1).toNanos())))
+            .block(Duration.ofSeconds(5));
+
+        UpstreamInstance instance = balancer.getInstances().get(0);
+        assertThat(instance.getSamples(), is(1L));
+        assertThat(instance.getLatency(), lessThan(Duration.ofMillis(500).toNanos()));
+        assertThat(instance.getOutstanding(), is(0));
+    }
+
+    @Test
+    @DisplayName("cancelled request leaves no latency sample")
+    public void cancelled() {
+        UpstreamBalancer balancer = new UpstreamBalancer("route", List.of("http://a:8080"),
+            new ProxyRoutesProperties.Balancer());
+        LoadBalancingGatewayFilter filter = new LoadBalancingGatewayFilter(balancer, ROUTE_URI);
+
+        Disposable request = filter.filter(exchange(), exchange -> Mono.never()).subscribe();
+        UpstreamInstance instance = balancer.getInstances().get(0);
+        assertThat(instance.getOutstanding(), is(1));
+        request.dispose();
+
+        assertThat(instance.getOutstanding(), is(0));
+        assertThat(instance.getSamples(), is(0L));
+    }
+
+    @Test
+    @DisplayName("request routed by the hedging filter: its attempts are recorded there, not here")
+    public void hedged() {
+        UpstreamBalancer balancer = new UpstreamBalancer("route", List.of("http://a:8080"),
+            new ProxyRoutesProperties.Balancer());
+        LoadBalancingGatewayFilter filter = new LoadBalancingGatewayFilter(balancer, ROUTE_URI);
+
+        filter.filter(exchange(), exchange -> Mono.fromRunnable(() -> {
+            exchange.getAttributes().put(HedgingRoutingFilter.ROUTED_ATTR, true);
+            UpstreamInstance instance = exchange.getAttribute(LoadBalancingGatewayFilter.INSTANCE_ATTR);
+            balancer.finish(instance, Duration.ofMillis(10).toNanos(), true, System.nanoTime());
+        })).block(Duration.ofSeconds(5));
+
+        UpstreamInstance instance = balancer.getInstances().get(0);
+        assertThat(instance.getOutstanding(), is(0));
+        assertThat(instance.getRequests(), is(1L));
+        assertThat(instance.getFailures(), is(1L));
+        assertThat(instance.getSamples(), is(0L));
+    }
+
+    private static MockServerWebExchange exchange() {
+        MockServerWebExchange exchange = MockServerWebExchange.from(MockServerHttpRequest.get("/api/get").build());
+        exchange.getAttributes().put(ServerWebExchangeUtils.GATEWAY_REQUEST_URL_ATTR,
+            URI.create("http://upstream:8080/api/get"));
+        return exchange;
+    }
+}
@@ -0,0 +1,134 @@
+package dev.sb.services.proxy;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import reactor.core.publisher.Flux;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+
+public class RequestBodyCompressionTest {
+
+    private static final DefaultDataBufferFactory BUFFER_FACTORY = new DefaultDataBufferFactory();
+
+    @Test
+    @DisplayName("body compressed buffer by buffer: gzip and zlib (HTTP deflate) formats")
+    public void compressed() throws IOException {
+        String json = "{\"items\":[" + "{\"name\":\"value\"},".repeat(1000) + "{}]}";
+
+        byte[] gzip = compress("gzip", json);
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(gzip))) {
+            assertThat(new String(in.readAllBytes(), StandardCharsets.UTF_8), is(json));
+        }
+        byte[] deflate = compress("deflate", json);
+        try (InputStream in = new InflaterInputStream(new ByteArrayInputStream(deflate))) {
+            assertThat(new String(in.readAllBytes(), StandardCharsets.UTF_8), is(json));
+        }
+    }
+
+    @Test
+    @DisplayName("encoded, small and binary bodies are sent as received")
+    public void notCompressed() {
+        RequestBodyCompression compression = compression("gzip");
+
+        ServerHttpRequest encoded = MockServerHttpRequest.post("/")
+            .contentType(MediaType.APPLICATION_JSON)
+            .header(HttpHeaders.CONTENT_ENCODING, "br")
+            .contentLength(4096)
+            .build();
+        assertThat(compression.compress(encoded, BUFFER_FACTORY), is(sameInstance(encoded)));
+
+        ServerHttpRequest small = MockServerHttpRequest.post("/")
+            .contentType(MediaType.APPLICATION_JSON)
+            .contentLength(100)
+            .build();
+        assertThat(compression.compress(small, BUFFER_FACTORY), is(sameInstance(small)));
+
+        ServerHttpRequest binary = MockServerHttpRequest.post("/")
+            .contentType(MediaType.IMAGE_PNG)
+            .contentLength(4096)
+            .build();
+        assertThat(compression.compress(binary, BUFFER_FACTORY), is(sameInstance(binary)));
+    }
+
+    @Test
+    @DisplayName("chunked body: compressed once it reaches min-size, a shorter one is sent as received")
+    public void chunkedMinSize() {
+        RequestBodyCompression compression = compression("gzip");
+        byte[] small = "{\"name\":\"value\"}".repeat(10).getBytes(StandardCharsets.UTF_8);
+        byte[] large = "{\"name\":\"value\"}".repeat(200).getBytes(StandardCharsets.UTF_8);
+
+        ServerHttpRequest smallRequest = compression.compress(chunked(small), BUFFER_FACTORY);
+        assertThat(read(smallRequest.getBody()), is(small));
+        assertThat(RequestBodyCompression.isCompressed(smallRequest), is(false));
+        assertThat(smallRequest.getHeaders().containsKey(HttpHeaders.CONTENT_ENCODING), is(false));
+
+        ServerHttpRequest largeRequest = compression.compress(chunked(large), BUFFER_FACTORY);
+        byte[] compressed = read(largeRequest.getBody());
+        assertThat(RequestBodyCompression.isCompressed(largeRequest), is(true));
+        assertThat(largeRequest.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING), is("gzip"));
+        assertThat(compressed.length < large.length, is(true));
+    }
+
+    /** Body of unknown length, in buffers smaller than min-size */
+    private static ServerHttpRequest chunked(byte[] bytes) {
+        Flux<DataBuffer> body = Flux.range(0, (bytes.length + 99) / 100)
+            .map(i -> BUFFER_FACTORY.wrap(ByteBuffer.wrap(bytes, i * 100, Math.min(100, bytes.length - i * 100))));
+        return MockServerHttpRequest.post("/")
+            .contentType(MediaType.APPLICATION_JSON)
+            .header(HttpHeaders.TRANSFER_ENCODING, "chunked")
+            .body(body);
+    }
+
+    private static byte[] read(Flux<DataBuffer> body) {
+        DataBuffer joined = DataBufferUtils.join(body).block();
+        byte[] result = new byte[joined.readableByteCount()];
+        joined.read(result);
+        return result;
+    }
+
+    private static byte[] compress(String algorithm, String json) {
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        // split into several buffers, the way the body arrives
+        Flux<DataBuffer> body = Flux.range(0, (bytes.length + 1023) / 1024)
+            .map(i -> BUFFER_FACTORY.wrap(ByteBuffer.wrap(bytes, i * 1024, Math.min(1024, bytes.length - i * 1024))));
+        ServerHttpRequest request = MockServerHttpRequest.post("/")
+            .contentType(MediaType.APPLICATION_JSON)
+            .contentLength(bytes.length)
+            .body(body);
+
+        ServerHttpRequest compressed = compression(algorithm).compress(request, BUFFER_FACTORY);
+        assertThat(compressed.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING), is(algorithm));
+        assertThat(compressed.getHeaders().getFirst(HttpHeaders.CONTENT_LENGTH), is(nullValue()));
+
+        DataBuffer joined = DataBufferUtils.join(compressed.getBody()).block();
+        byte[] result = new byte[joined.readableByteCount()];
+        joined.read(result);
+        return result;
+    }
+
+    private static RequestBodyCompression compression(String algorithm) {
+        ProxyRoutesProperties.Compression properties = new ProxyRoutesProperties.Compression();
+        properties.setEnabled(true);
+        properties.setAlgorithm(algorithm);
+        return new RequestBodyCompression(properties, new ProxyMetrics(new SimpleMeterRegistry()));
+    }
+}
@@ -0,0 +1,80 @@
+package dev.sb.services.proxy;
+
+import dev.sb.services.signing.BodyDigest;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.util.unit.DataSize;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.stream.Stream;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+public class RequestBodySpoolTest {
+
+    private final DefaultDataBufferFactory bufferFactory = new DefaultDataBufferFactory();
+
+    @TempDir
+    Path directory;
+
+    @Test
+    @DisplayName("spooled body is read back from the file and deleted on request")
+    public void spool() throws Exception {
+        RequestBodySpool spool = new RequestBodySpool(DataSize.ofBytes(1), directory.toString());
+        MockServerHttpRequest request = MockServerHttpRequest.post("/api").body(Flux.just(buffer("spooled "),
+            buffer("body")));
+
+        RequestBodySpool.SpooledBody body = spool.spool(request, BodyDigest.sha256()).block(Duration.ofSeconds(5));
+
+        assertThat(body.size(), is(12L));
+        assertThat(files(), is(1L));
+        String content = DataBufferUtils.join(body.decorate(request, bufferFactory).getBody())
+            .map(buffer -> buffer.toString(StandardCharsets.UTF_8))
+            .block(Duration.ofSeconds(5));
+        assertThat(content, is("spooled body"));
+        body.delete();
+        assertThat(files(), is(0L));
+    }
+
+    @Test
+    @DisplayName("spooling cancelled before the body is complete: the temporary file is deleted")
+    public void cancelled() throws Exception {
+        RequestBodySpool spool = new RequestBodySpool(DataSize.ofBytes(1), directory.toString());
+        MockServerHttpRequest request = MockServerHttpRequest.post("/api")
+            .body(Flux.concat(Flux.just(buffer("never complete")), Flux.never()));
+
+        Disposable spooling = spool.spool(request, BodyDigest.sha256()).subscribe();
+        awaitFiles(1);
+        spooling.dispose();
+
+        awaitFiles(0);
+    }
+
+    private DataBuffer buffer(String content) {
+        return bufferFactory.wrap(content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private long files() throws Exception {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.count();
+        }
+    }
+
+    private void awaitFiles(long count) throws Exception {
+        for (int i = 0; i < 50 && files() != count; i++) {
+            Thread.sleep(100);
+        }
+        assertThat(files(), is(count));
+    }
+}
@@ -0,0 +1,92 @@
+package dev.sb.services.proxy;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+
+public class ResponseCacheTest {
+
+    private final ResponseCache responseCache = new ResponseCache(new ProxyRoutesProperties.Cache());
+
+    @Test
+    @DisplayName("freshness: s-maxage over max-age, minus Age; no-cache only with ETag")
+    public void lifetime() {
+        assertThat(responseCache.lifetime(headers("public, max-age=60, s-maxage=300", null), false), is(300L));
+        HttpHeaders aged = headers("max-age=60", null);
+        aged.set(HttpHeaders.AGE, "20");
+        assertThat(responseCache.lifetime(aged, false), is(40L));
+
+        assertThat(responseCache.lifetime(headers("no-cache", "\"v1\""), false), is(0L));
+        assertThat(responseCache.lifetime(headers("no-cache", null), false), is(-1L));
+        assertThat(responseCache.lifetime(headers(null, null), false), is(-1L));
+    }
+
+    @Test
+    @DisplayName("not stored: no-store, private, Set-Cookie and Vary on headers outside the key")
+    public void notStored() {
+        assertThat(responseCache.lifetime(headers("no-store", "\"v1\""), false), is(-1L));
+        assertThat(responseCache.lifetime(headers("private, max-age=60", null), false), is(-1L));
+
+        HttpHeaders cookie = headers("max-age=60", null);
+        cookie.set(HttpHeaders.SET_COOKIE, "session=1");
+        assertThat(responseCache.lifetime(cookie, false), is(-1L));
+
+        HttpHeaders varyAccept = headers("max-age=60", null);
+        varyAccept.setVary(List.of("Accept"));
+        assertThat(responseCache.lifetime(varyAccept, false), is(60L));
+        HttpHeaders varyLanguage = headers("max-age=60", null);
+        varyLanguage.setVary(List.of("Accept-Language"));
+        assertThat(responseCache.lifetime(varyLanguage, false), is(-1L));
+    }
+
+    @Test
+    @DisplayName("authorized requests: stored only if public, s-maxage or must-revalidate")
+    public void authorized() {
+        assertThat(responseCache.lifetime(headers("max-age=60", null), true), is(-1L));
+        assertThat(responseCache.lifetime(headers("no-cache", "\"v1\""), true), is(-1L));
+        assertThat(responseCache.lifetime(headers("public, max-age=60", null), true), is(60L));
+        assertThat(responseCache.lifetime(headers("s-maxage=30", null), true), is(30L));
+        assertThat(responseCache.lifetime(headers("must-revalidate, max-age=60", null), true), is(60L));
+    }
+
+    @Test
+    @DisplayName("key: clients with different identity headers do not share an entry, request id is ignored")
+    public void identityHeadersInKey() {
+        String first = responseCache.key(MockServerHttpRequest.get("/reference?page=1")
+            .header("X-COMPANY-CLIENT-ID", "first")
+            .header(ProxyHeaders.X_COMPANY_REQUEST_ID, "1")
+            .build());
+        String second = responseCache.key(MockServerHttpRequest.get("/reference?page=1")
+            .header("X-COMPANY-CLIENT-ID", "second")
+            .header(ProxyHeaders.X_COMPANY_REQUEST_ID, "1")
+            .build());
+        String firstAgain = responseCache.key(MockServerHttpRequest.get("/reference?page=1")
+            .header(ProxyHeaders.X_COMPANY_REQUEST_ID, "2")
+            .header("x-company-client-id", "first")
+            .build());
+
+        assertThat(first, is(not(second)));
+        assertThat(firstAgain, is(first));
+        HttpHeaders varyClient = headers("max-age=60", null);
+        varyClient.setVary(List.of("X-COMPANY-CLIENT-ID"));
+        assertThat(responseCache.lifetime(varyClient, false), is(60L));
+    }
+
+    private static HttpHeaders headers(String cacheControl, String etag) {
+        HttpHeaders headers = new HttpHeaders();
+        if (cacheControl != null) {
+            headers.setCacheControl(cacheControl);
+        }
+        if (etag != null) {
+            headers.setETag(etag);
+        }
+        return headers;
+    }
+}
@@ -0,0 +1,34 @@
+package dev.sb.services.proxy;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+public class RetryBudgetTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    @Test
+    @DisplayName("retries are limited to the ratio of requests plus the minimum within the window")
+    public void budget() {
+        RetryBudget budget = new RetryBudget(0.1, 1);
+        long now = 100 * SECOND;
+        for (int i = 0; i < 100; i++) {
+            budget.request(now);
+        }
+
+        // 0.1 x 100 requests + 1 per second x 10 seconds
+        for (int i = 0; i < 20; i++) {
+            assertThat(budget.tryRetry(now), is(true));
+        }
+        assertThat(budget.tryRetry(now), is(false));
+        assertThat(budget.tryRetry(now + 5 * SECOND), is(false));
+
+        // requests and retries of the first second left the window
+        assertThat(budget.tryRetry(now + RetryBudget.WINDOW_SECONDS * SECOND), is(true));
+    }
+}
@@ -0,0 +1,41 @@
+package dev.sb.services.proxy;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class RouteTableTest {
+
+    private final RouteTable routeTable = new RouteTable()
+        .add("/api", "default")
+        .add("/partner", "partner")
+        .add("/partner/v2", "partner_v2");
+
+    @Test
+    @DisplayName("longest path prefix wins")
+    public void longestPrefix() {
+        assertThat(routeTable.lookup("/api"), is("default"));
+        assertThat(routeTable.lookup("/api/get"), is("default"));
+        assertThat(routeTable.lookup("/partner/v1/items"), is("partner"));
+        assertThat(routeTable.lookup("/partner/v2/items"), is("partner_v2"));
+        assertThat(routeTable.lookup("/partner//v2/"), is("partner_v2"));
+    }
+
+    @Test
+    @DisplayName("prefix matches whole path segments only")
+    public void wholeSegments() {
+        assertThat(routeTable.lookup("/apix/get"), is(nullValue()));
+        assertThat(routeTable.lookup("/partner-b/items"), is(nullValue()));
+        assertThat(routeTable.lookup("/"), is(nullValue()));
+    }
+
+    @Test
+    @DisplayName("two routes can't share a prefix")
+    public void duplicatePrefix() {
+        assertThrows(IllegalArgumentException.class, () -> routeTable.add("/partner/", "other"));
+    }
+}
@@ -0,0 +1,95 @@
+package dev.sb.services.proxy;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+
+public class UpstreamBalancerTest {
+
+    private static final List<String> INSTANCES = List.of("http://a:8080", "http://b:8080", "http://c:8080");
+    private static final long MILLIS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    @Test
+    @DisplayName("least-outstanding and power-of-two-choices avoid the loaded instance")
+    public void leastLoaded() {
+        for (String strategy : List.of("least-outstanding", "power-of-two-choices")) {
+            ProxyRoutesProperties.Balancer properties = new ProxyRoutesProperties.Balancer();
+            properties.setStrategy(strategy);
+            UpstreamBalancer balancer = new UpstreamBalancer("route", List.of("http://a:8080", "http://b:8080"),
+                properties);
+            UpstreamInstance loaded = balancer.getInstances().get(0);
+            loaded.start();
+
+            for (int i = 0; i < 100; i++) {
+                assertThat(strategy, balancer.choose(System.nanoTime()), is(not(loaded)));
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("slow instance is ejected for the ejection duration, failing one after consecutive failures")
+    public void outliers() {
+        UpstreamBalancer balancer = new UpstreamBalancer("route", INSTANCES, new ProxyRoutesProperties.Balancer());
+        UpstreamInstance slow = balancer.getInstances().get(2);
+        long now = System.nanoTime();
+        for (int i = 0; i < 20; i++) {
+            for (UpstreamInstance instance : balancer.getInstances()) {
+                instance.start();
+                balancer.finish(instance, instance == slow ? 500 * MILLIS : 50 * MILLIS, false, now);
+            }
+        }
+
+        balancer.detectOutliers(now);
+
+        assertThat(slow.isEjected(now), is(true));
+        assertThat(slow.getEjections(), is(1L));
+        for (int i = 0; i < 100; i++) {
+            assertThat(balancer.choose(now), is(not(slow)));
+        }
+        assertThat(slow.isEjected(now + Duration.ofSeconds(30).toNanos()), is(false));
+
+        // at most half of the instances are ejected: not while the slow one is
+        UpstreamInstance failing = balancer.getInstances().get(0);
+        for (int i = 0; i < 5; i++) {
+            failing.start();
+            balancer.finish(failing, MILLIS, true, now);
+        }
+        assertThat(failing.isEjected(now), is(false));
+        long later = now + Duration.ofSeconds(31).toNanos();
+        for (int i = 0; i < 5; i++) {
+            failing.start();
+            balancer.finish(failing, MILLIS, true, later);
+        }
+        assertThat(failing.isEjected(later), is(true));
+    }
+
+    @Test
+    @DisplayName("unhealthy instances are skipped, all are used when none is available")
+    public void unhealthy() {
+        ProxyRoutesProperties.Balancer properties = new ProxyRoutesProperties.Balancer();
+        UpstreamBalancer balancer = new UpstreamBalancer("route", INSTANCES.subList(0, 2), properties);
+        UpstreamInstance a = balancer.getInstances().get(0);
+        UpstreamInstance b = balancer.getInstances().get(1);
+
+        // threshold is 2 consecutive checks
+        assertThat(a.healthCheck(false, 2), is(false));
+        assertThat(a.healthCheck(false, 2), is(true));
+        for (int i = 0; i < 100; i++) {
+            assertThat(balancer.choose(System.nanoTime()), is(b));
+        }
+
+        b.healthCheck(false, 1);
+        boolean aChosen = false;
+        for (int i = 0; i < 100 && !aChosen; i++) {
+            aChosen = balancer.choose(System.nanoTime()) == a;
+        }
+        assertThat(aChosen, is(true));
+    }
+}
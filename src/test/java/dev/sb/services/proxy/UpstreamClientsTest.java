@@ -0,0 +1,131 @@
+package dev.sb.services.proxy;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.cloud.gateway.config.HttpClientProperties;
+import org.springframework.cloud.gateway.filter.headers.HttpHeadersFilter;
+import org.springframework.core.ResolvableType;
+import reactor.core.publisher.Mono;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.HttpProtocol;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.http.server.HttpServer;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class UpstreamClientsTest {
+
+    @Test
+    @DisplayName("route client has the settings of spring.cloud.gateway.httpclient: requests go through its proxy")
+    public void gatewaySettings() throws Exception {
+        try (ServerSocket proxy = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            CompletableFuture<String> tunnel = CompletableFuture.supplyAsync(() -> answer(proxy));
+            HttpClientProperties properties = new HttpClientProperties();
+            properties.getProxy().setHost("localhost");
+            properties.getProxy().setPort(proxy.getLocalPort());
+            UpstreamClients upstreamClients = new UpstreamClients(HttpClient.create(),
+                new DefaultListableBeanFactory().getBeanProvider(
+                    ResolvableType.forClassWithGenerics(List.class, HttpHeadersFilter.class)),
+                properties, new SimpleMeterRegistry());
+
+            String body = upstreamClients.configured(HttpClient.create())
+                .get()
+                .uri("http://upstream.invalid/reference")
+                .responseSingle((response, content) -> content.asString())
+                .block(Duration.ofSeconds(10));
+
+            assertThat(body, is("proxied"));
+            assertThat(tunnel.get(), is("CONNECT upstream.invalid:80 HTTP/1.1"));
+        }
+    }
+
+    @Test
+    @DisplayName("route protocol: http11, h2c and h2 are rejected at startup")
+    public void protocol() {
+        assertThat(UpstreamClients.protocol("HTTP11"), is(HttpProtocol.HTTP11));
+        assertThat(assertThrows(IllegalArgumentException.class, () -> UpstreamClients.protocol("h2c")).getMessage(),
+            containsString("reactor-netty 1.0"));
+        assertThat(assertThrows(IllegalArgumentException.class, () -> UpstreamClients.protocol("h2")).getMessage(),
+            containsString("reactor-netty 1.0"));
+        assertThrows(IllegalArgumentException.class, () -> UpstreamClients.protocol("spdy"));
+    }
+
+    @Test
+    @DisplayName("h2c upstream: the client of reactor-netty 0.9 can't use HTTP/2, the reason h2c routes are rejected")
+    public void h2cUpstream() {
+        DisposableServer h2c = HttpServer.create()
+            .host("127.0.0.1")
+            .port(0)
+            .protocol(HttpProtocol.HTTP11, HttpProtocol.H2C)
+            .handle((request, response) -> response.sendString(Mono.just(
+                request.version() + " " + request.requestHeaders().get("Upgrade"))))
+            .bindNow();
+        try {
+            String url = "http://127.0.0.1:" + h2c.port() + "/reference";
+
+            UnsupportedOperationException priorKnowledge = assertThrows(UnsupportedOperationException.class, () ->
+                HttpClient.create().protocol(HttpProtocol.H2C)
+                    .get()
+                    .uri(url)
+                    .responseSingle((response, content) -> content.asString())
+                    .block(Duration.ofSeconds(10)));
+            assertThat(priorKnowledge.getMessage(), containsString("unsupported message type"));
+
+            HttpClient upgrading = HttpClient.create().protocol(HttpProtocol.HTTP11, HttpProtocol.H2C);
+            assertThat(upgrading.get()
+                .uri(url)
+                .responseSingle((response, content) -> content.asString())
+                .block(Duration.ofSeconds(10)), is("HTTP/1.1 null"));
+
+            HttpClient http11 = HttpClient.create().protocol(UpstreamClients.protocol("http11"));
+            assertThat(http11.get()
+                .uri(url)
+                .responseSingle((response, content) -> content.asString())
+                .block(Duration.ofSeconds(10)), is("HTTP/1.1 null"));
+        } finally {
+            h2c.disposeNow();
+        }
+    }
+
+    /** Tunnels one request, that is answered by the proxy itself */
+    private static String answer(ServerSocket proxy) {
+        try (Socket socket = proxy.accept()) {
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(),
+                StandardCharsets.US_ASCII));
+            OutputStream out = socket.getOutputStream();
+            String connect = in.readLine();
+            skipHeaders(in);
+            out.write("HTTP/1.1 200 Connection established\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+            skipHeaders(in);
+            out.write("HTTP/1.1 200 OK\r\nContent-Length: 7\r\nConnection: close\r\n\r\nproxied"
+                .getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+            return connect;
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void skipHeaders(BufferedReader in) throws Exception {
+        for (String line = in.readLine(); line != null && !line.isEmpty(); line = in.readLine()) {
+            // skipped
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package dev.sb.services.signing;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+
+/** UTC clock of the tests, set and moved on by hand (read by worker threads of the tested classes too) */
+class MutableClock extends Clock {
+
+    private volatile Instant instant;
+
+    MutableClock(Instant instant) {
+        this.instant = instant;
+    }
+
+    void set(Instant instant) {
+        this.instant = instant;
+    }
+
+    void advance(Duration duration) {
+        this.instant = instant.plus(duration);
+    }
+
+    @Override
+    public ZoneId getZone() {
+        return ZoneOffset.UTC;
+    }
+
+    @Override
+    public Clock withZone(ZoneId zone) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Instant instant() {
+        return instant;
+    }
+}
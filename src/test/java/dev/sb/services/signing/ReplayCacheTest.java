@@ -0,0 +1,74 @@
+package dev.sb.services.signing;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class ReplayCacheTest {
+
+    private static final long NOW = 1588094499L;
+    private static final String KEY_ID = "partner-a";
+
+    @Test
+    @DisplayName("signature is accepted once")
+    public void replay() {
+        ReplayCache replayCache = new ReplayCache(Duration.ofMinutes(5), 1000, new SimpleMeterRegistry());
+
+        assertThat(replayCache.add(NOW, KEY_ID, signingString(1)), is(true));
+        assertThat(replayCache.add(NOW, KEY_ID, signingString(2)), is(true));
+        assertThat(replayCache.add(NOW, KEY_ID, signingString(1)), is(false));
+        assertThat(replayCache.size(), is(2L));
+    }
+
+    @Test
+    @DisplayName("bucket is cleared when the ring wraps around to it")
+    public void expiry() {
+        ReplayCache replayCache = new ReplayCache(Duration.ofMinutes(5), 1000, new SimpleMeterRegistry());
+
+        assertThat(replayCache.add(NOW, KEY_ID, signingString(1)), is(true));
+        assertThat(replayCache.add(NOW + 300, KEY_ID, signingString(2)), is(true));
+        assertThat(replayCache.size(), is(2L));
+
+        // one ring later the first bucket is reused
+        long later = NOW + 32 * 20;
+        assertThat(replayCache.add(later, KEY_ID, signingString(3)), is(true));
+        assertThat(replayCache.add(later, KEY_ID, signingString(1)), is(true));
+        // date older than the ring can't be checked
+        assertThrows(SignatureVerificationException.class, () -> replayCache.add(NOW, KEY_ID, signingString(4)));
+    }
+
+    @Test
+    @DisplayName("full bucket rejects new signatures")
+    public void full() {
+        // at least 16 signatures per bucket
+        ReplayCache replayCache = new ReplayCache(Duration.ofMinutes(5), 1, new SimpleMeterRegistry());
+
+        for (int i = 1; i <= 16; i++) {
+            assertThat(replayCache.add(NOW, KEY_ID, signingString(i)), is(true));
+        }
+        assertThat(replayCache.add(NOW, KEY_ID, signingString(1)), is(false));
+        assertThrows(SigningRejectedException.class, () -> replayCache.add(NOW, KEY_ID, signingString(17)));
+    }
+
+    @Test
+    @DisplayName("message is identified by keyId and signing string, whatever the signature bytes")
+    public void keyIdAndSigningString() {
+        ReplayCache replayCache = new ReplayCache(Duration.ofMinutes(5), 1000, new SimpleMeterRegistry());
+
+        assertThat(replayCache.add(NOW, KEY_ID, signingString(1)), is(true));
+        // e.g. the same ECDSA signature re-encoded with n - s
+        assertThat(replayCache.add(NOW, KEY_ID, signingString(1)), is(false));
+        assertThat(replayCache.add(NOW, "partner-b", signingString(1)), is(true));
+    }
+
+    private static String signingString(long requestId) {
+        return "(request-target): post /payments\ndate: Tue, 28 Apr 2020 17:21:39 GMT\nx-company-request-id: "
+            + requestId;
+    }
+}
@@ -0,0 +1,277 @@
+package dev.sb.services.signing;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.NettyDataBufferFactory;
+import org.springframework.http.HttpHeaders;
+import org.tomitribe.auth.signatures.Signature;
+import org.tomitribe.auth.signatures.Signer;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+import java.security.PrivateKey;
+import java.security.Security;
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.startsWith;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class RequestSignerTest {
+
+    private static KeyPair keyPair;
+
+    @BeforeAll
+    public static void beforeClass() throws NoSuchAlgorithmException {
+        // Ed25519
+        Security.addProvider(new BouncyCastleProvider());
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        keyPair = generator.generateKeyPair();
+    }
+
+    @Test
+    @DisplayName("signature without Digest matches Tomitribe")
+    public void signatureWithoutDigest() throws Exception {
+        Map<String, String> headers = new LinkedHashMap<>();
+        headers.put("Accept", "application/json");
+        headers.put("X-COMPANY-SERVICE-NAME", "signing-proxy");
+        headers.put("x-company-request-id", "42");
+        headers.put("Date", "Tue, 28 Apr 2020 17:21:39 GMT");
+
+        RequestSigner requestSigner = new RequestSigner(keyTool("ABC12345"), SignatureCache.disabled());
+
+        assertThat(requestSigner.createSignature("GET", "/third-party/api/get", headers),
+            is(tomitribeSignature("ABC12345", "GET", "/third-party/api/get", headers)));
+    }
+
+    @Test
+    @DisplayName("signature with Digest matches Tomitribe")
+    public void signatureWithDigest() throws Exception {
+        Map<String, String> headers = new LinkedHashMap<>();
+        headers.put("X-COMPANY-SERVICE-NAME", "signing-proxy");
+        headers.put("Content-Type", "application/json");
+        headers.put("Date", "Tue, 28 Apr 2020 17:21:39 GMT");
+        headers.put("Digest", "SHA-256=bVR2BHJXhy8kEBxXKbGsLT0dB1qICnZQ1BtN5MaAKwg=");
+
+        RequestSigner requestSigner = new RequestSigner(keyTool("ABC12345"), SignatureCache.disabled());
+
+        // signer is reused, every call has to produce the same header
+        for (int i = 0; i < 3; i++) {
+            assertThat(requestSigner.createSignature("POST", "/third-party/api/post", headers),
+                is(tomitribeSignature("ABC12345", "POST", "/third-party/api/post", headers)));
+        }
+    }
+
+    @Test
+    @DisplayName("signature with Date and Digest not in request headers matches Tomitribe")
+    public void signatureWithHeadersToAdd() throws Exception {
+        HttpHeaders requestHeaders = new HttpHeaders();
+        requestHeaders.add("X-COMPANY-SERVICE-NAME", "signing-proxy");
+        requestHeaders.add("Content-Type", "application/json");
+
+        Map<String, String> headers = new LinkedHashMap<>(requestHeaders.toSingleValueMap());
+        headers.put("Date", "Tue, 28 Apr 2020 17:21:39 GMT");
+        headers.put("Digest", "SHA-256=bVR2BHJXhy8kEBxXKbGsLT0dB1qICnZQ1BtN5MaAKwg=");
+
+        RequestSigner requestSigner = new RequestSigner(keyTool("ABC12345"), SignatureCache.disabled());
+
+        assertThat(requestSigner.createSignature("POST", "/third-party/api/post", requestHeaders,
+            headers.get("Date"), headers.get("Digest")),
+            is(tomitribeSignature("ABC12345", "POST", "/third-party/api/post", headers)));
+    }
+
+    @Test
+    @DisplayName("repeated signing input is served from signature cache")
+    public void cachedSignature() throws Exception {
+        Map<String, String> headers = new LinkedHashMap<>();
+        headers.put("X-COMPANY-SERVICE-NAME", "signing-proxy");
+        headers.put("Date", "Tue, 28 Apr 2020 17:21:39 GMT");
+
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        SignatureCache signatureCache = new SignatureCache(true, 100, Duration.ofSeconds(5), meterRegistry);
+        RequestSigner requestSigner = new RequestSigner(keyTool("ABC12345"), signatureCache);
+
+        String expected = tomitribeSignature("ABC12345", "GET", "/third-party/api/get", headers);
+        assertThat(requestSigner.createSignature("GET", "/third-party/api/get", headers), is(expected));
+        assertThat(requestSigner.createSignature("GET", "/third-party/api/get", headers), is(expected));
+
+        assertThat(meterRegistry.get("cache.gets").tag("result", "hit").functionCounter().count(), is(1.0));
+        assertThat(meterRegistry.get("cache.gets").tag("result", "miss").functionCounter().count(), is(1.0));
+
+        // the same input signed with another key is not a hit
+        RequestSigner otherSigner = new RequestSigner(keyTool("XYZ"), signatureCache);
+        otherSigner.createSignature("GET", "/third-party/api/get", headers);
+        assertThat(meterRegistry.get("cache.gets").tag("result", "miss").functionCounter().count(), is(2.0));
+    }
+
+    @Test
+    @DisplayName("ecdsa-sha256, ed25519 and hmac-sha256 signatures verify")
+    public void otherAlgorithms() throws Exception {
+        Map<String, String> headers = new LinkedHashMap<>();
+        headers.put("X-COMPANY-SERVICE-NAME", "signing-proxy");
+        headers.put("Date", "Tue, 28 Apr 2020 17:21:39 GMT");
+        byte[] signingString = "x-company-service-name: signing-proxy\ndate: Tue, 28 Apr 2020 17:21:39 GMT"
+            .getBytes(StandardCharsets.UTF_8);
+
+        for (String algorithm : List.of("EC", "Ed25519")) {
+            KeyPair keys = KeyPairGenerator.getInstance(algorithm).generateKeyPair();
+            SigningAlgorithm signingAlgorithm = algorithm.equals("EC") ? SigningAlgorithm.ECDSA_SHA256
+                : SigningAlgorithm.ED25519;
+            RequestSigner requestSigner = new RequestSigner(keyTool("ABC12345", keys), signingAlgorithm,
+                RequestSigner.SIGNED_HEADER_PREFIX, SignatureCache.disabled());
+
+            String signatureHeader = requestSigner.createSignature("GET", "/third-party/api/get", headers);
+            assertThat(signatureHeader, startsWith("keyId=\"ABC12345\",algorithm=\"" + signingAlgorithm.getName()
+                + "\",headers=\"x-company-service-name date\",signature=\""));
+
+            java.security.Signature verifier = java.security.Signature.getInstance(
+                algorithm.equals("EC") ? "SHA256withECDSA" : "Ed25519");
+            verifier.initVerify(keys.getPublic());
+            verifier.update(signingString);
+            assertThat(verifier.verify(signatureValue(signatureHeader)), is(true));
+        }
+
+        byte[] secret = "0123456789abcdef0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+        RequestSigner hmacSigner = new RequestSigner(
+            new SecretKeyTool(Base64.getEncoder().encodeToString(secret), "HMAC-KEY"),
+            SigningAlgorithm.HMAC_SHA256, RequestSigner.SIGNED_HEADER_PREFIX, SignatureCache.disabled());
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(secret, "HmacSHA256"));
+
+        assertThat(signatureValue(hmacSigner.createSignature("GET", "/third-party/api/get", headers)),
+            is(mac.doFinal(signingString)));
+    }
+
+    @Test
+    @DisplayName("RFC 9421 signature base of compiled components")
+    public void messageSignature() throws Exception {
+        HttpHeaders headers = new HttpHeaders();
+        headers.add("Content-Type", "application/json");
+        headers.add("X-Forwarded-For", "10.0.0.1");
+        String contentDigest = "sha-256=:bVR2BHJXhy8kEBxXKbGsLT0dB1qICnZQ1BtN5MaAKwg=:";
+
+        byte[] secret = "0123456789abcdef0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+        RequestSigner requestSigner = new RequestSigner(
+            new SecretKeyTool(Base64.getEncoder().encodeToString(secret), "HMAC-KEY"),
+            SigningAlgorithm.HMAC_SHA256, RequestSigner.SIGNED_HEADER_PREFIX,
+            List.of("@method", "@target-uri", "@authority", "content-digest", "content-type", "x-request-id"),
+            SignatureCache.disabled());
+
+        MessageSignature signature = requestSigner.createMessageSignature("POST",
+            URI.create("https://Example.COM:443/third-party/api/post?a=1"), headers, contentDigest, 1618884473L);
+
+        // header missing in the request is not covered
+        String signatureParams = "(\"@method\" \"@target-uri\" \"@authority\" \"content-digest\" \"content-type\")"
+            + ";created=1618884473;keyid=\"HMAC-KEY\";alg=\"hmac-sha256\"";
+        String signatureBase = "\"@method\": POST\n"
+            + "\"@target-uri\": https://Example.COM:443/third-party/api/post?a=1\n"
+            + "\"@authority\": example.com\n"
+            + "\"content-digest\": " + contentDigest + "\n"
+            + "\"content-type\": application/json\n"
+            + "\"@signature-params\": " + signatureParams;
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(secret, "HmacSHA256"));
+
+        assertThat(signature.getSignatureInput(), is("sig1=" + signatureParams));
+        assertThat(signature.getSignature(), is("sig1=:" + Base64.getEncoder().encodeToString(
+            mac.doFinal(signatureBase.getBytes(StandardCharsets.UTF_8))) + ":"));
+    }
+
+    @Test
+    @DisplayName("SHA-256 digest of body")
+    public void digest() {
+        RequestSigner requestSigner = new RequestSigner(keyTool("ABC12345"), SignatureCache.disabled());
+
+        assertThat(requestSigner.createDigest("{\"request\":\"value\"}"),
+            is("SHA-256=bVR2BHJXhy8kEBxXKbGsLT0dB1qICnZQ1BtN5MaAKwg="));
+    }
+
+    @Test
+    @DisplayName("SHA-256 digest of body split into buffers")
+    public void digestOfDataBuffer() {
+        RequestSigner requestSigner = new RequestSigner(keyTool("ABC12345"), SignatureCache.disabled());
+        NettyDataBufferFactory bufferFactory = new NettyDataBufferFactory(UnpooledByteBufAllocator.DEFAULT);
+
+        DataBuffer body = bufferFactory.join(List.of(
+            bufferFactory.wrap("{\"request\":".getBytes(StandardCharsets.UTF_8)),
+            bufferFactory.wrap("\"value\"}".getBytes(StandardCharsets.UTF_8))));
+
+        assertThat(requestSigner.createDigest(body), is("SHA-256=bVR2BHJXhy8kEBxXKbGsLT0dB1qICnZQ1BtN5MaAKwg="));
+        // body is not consumed by digest calculation
+        assertThat(body.toString(StandardCharsets.UTF_8), is("{\"request\":\"value\"}"));
+    }
+
+    /** Reference implementation: the way signatures were created with Tomitribe */
+    private static String tomitribeSignature(String keyId, String method, String path, Map<String, String> headers)
+        throws Exception {
+
+        List<String> signHeaders = new LinkedList<>(headers.keySet());
+        signHeaders.removeIf(k -> !k.toUpperCase().startsWith("X-COMPANY"));
+        signHeaders.add("Date");
+        if (headers.containsKey("Digest")) {
+            signHeaders.add("Digest");
+        }
+
+        Signature signature = new Signature(keyId, "rsa-sha256", null, signHeaders);
+        return new Signer(keyPair.getPrivate(), signature).sign(method, path, headers)
+            .toString()
+            .replace("Signature ", "");
+    }
+
+    private static byte[] signatureValue(String signatureHeader) {
+        String signature = signatureHeader.substring(signatureHeader.indexOf("signature=\"") + 11,
+            signatureHeader.length() - 1);
+        return Base64.getDecoder().decode(signature);
+    }
+
+    @Test
+    @DisplayName("hmac-sha256 with a private key only (default route): rejected at startup")
+    public void hmacWithoutSecret() {
+        KeyToolException e = assertThrows(KeyToolException.class, () -> new RequestSigner(keyTool("ABC12345"),
+            SigningAlgorithm.HMAC_SHA256, RequestSigner.SIGNED_HEADER_PREFIX, SignatureCache.disabled()));
+
+        assertThat(e.getMessage(), containsString("'signing.secret'"));
+    }
+
+    private static KeyTool keyTool(String keyId) {
+        return keyTool(keyId, keyPair);
+    }
+
+    private static KeyTool keyTool(String keyId, KeyPair keyPair) {
+        return new KeyTool() {
+            @Override
+            public PrivateKey readPrivateKey() {
+                return keyPair.getPrivate();
+            }
+
+            @Override
+            public String readPrivateKeyId() {
+                return keyId;
+            }
+
+            @Override
+            public X509Certificate readX509Certificate() {
+                return null;
+            }
+        };
+    }
+}
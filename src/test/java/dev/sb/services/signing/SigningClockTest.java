@@ -0,0 +1,33 @@
+package dev.sb.services.signing;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+
+public class SigningClockTest {
+
+    @Test
+    @DisplayName("'Date' is formatted once per second")
+    public void httpDate() {
+        MutableClock clock = new MutableClock(Instant.parse("2020-04-28T17:21:39.100Z"));
+        SigningClock signingClock = new SigningClock(clock);
+
+        String date = signingClock.httpDate();
+        assertThat(date, is("Tue, 28 Apr 2020 17:21:39 GMT"));
+        assertThat(date, is(DateTimeFormatter.RFC_1123_DATE_TIME.format(ZonedDateTime.now(clock))));
+
+        clock.set(Instant.parse("2020-04-28T17:21:39.900Z"));
+        assertThat(signingClock.httpDate(), sameInstance(date));
+
+        clock.set(Instant.parse("2020-04-28T17:21:40.000Z"));
+        assertThat(signingClock.httpDate(), is("Tue, 28 Apr 2020 17:21:40 GMT"));
+        assertThat(signingClock.epochSecond(), is(clock.instant().getEpochSecond()));
+    }
+}
@@ -0,0 +1,84 @@
+package dev.sb.services.signing;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import reactor.core.Disposable;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.startsWith;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class SigningSchedulerTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final SigningScheduler signingScheduler = new SigningScheduler(1, 1, meterRegistry);
+
+    @AfterEach
+    public void shutdown() {
+        signingScheduler.destroy();
+    }
+
+    @Test
+    @DisplayName("task result is signalled from signing worker")
+    public void execute() {
+        String threadName = signingScheduler.execute(() -> Thread.currentThread().getName()).block();
+
+        assertThat(threadName, startsWith("signing-"));
+    }
+
+    @Test
+    @DisplayName("task is rejected when queue is full")
+    public void rejectWhenQueueIsFull() throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+
+        // occupy the only worker and the only queue slot
+        signingScheduler.execute(() -> {
+            started.countDown();
+            release.await();
+            return "blocking";
+        }).subscribe();
+        started.await();
+        signingScheduler.execute(() -> "queued").subscribe();
+
+        assertThrows(SigningRejectedException.class, () -> signingScheduler.execute(() -> "rejected").block());
+        assertThat(meterRegistry.get("signing.rejected").counter().count(), is(1.0));
+        assertThat(meterRegistry.get("signing.queue.depth").gauge().value(), is(1.0));
+
+        release.countDown();
+    }
+
+    @Test
+    @DisplayName("cancelled task is removed from the queue and never runs")
+    public void cancelQueuedTask() throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+        AtomicBoolean called = new AtomicBoolean();
+
+        signingScheduler.execute(() -> {
+            started.countDown();
+            release.await();
+            return "blocking";
+        }).subscribe();
+        started.await();
+        Disposable queued = signingScheduler.execute(() -> called.getAndSet(true)).subscribe();
+        assertThat(meterRegistry.get("signing.queue.depth").gauge().value(), is(1.0));
+
+        queued.dispose();
+        assertThat(meterRegistry.get("signing.queue.depth").gauge().value(), is(0.0));
+        // the queue slot is free again
+        signingScheduler.execute(() -> "queued").subscribe();
+        assertThat(meterRegistry.get("signing.rejected").counter().count(), is(0.0));
+
+        release.countDown();
+        assertThat(signingScheduler.execute(() -> "after").block(), is("after"));
+        assertThat(called.get(), is(false));
+    }
+}